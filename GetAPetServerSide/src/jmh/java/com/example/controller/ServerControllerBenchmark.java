@@ -0,0 +1,25 @@
+package com.example.controller;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing the duplicated key out of a Postgres unique violation message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerControllerBenchmark {
+
+    private static final String DUPLICATE_KEY_MESSAGE =
+            "ERROR: duplicate key value violates unique constraint \"users_email_key\"\n  Detail: Key (email)=(john@example.com) already exists.";
+
+    @Benchmark
+    public String extractErrorDetail() {
+        return ServerController.extractErrorDetail(DUPLICATE_KEY_MESSAGE);
+    }
+}
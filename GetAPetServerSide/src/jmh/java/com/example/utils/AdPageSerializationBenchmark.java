@@ -0,0 +1,99 @@
+package com.example.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks serializing a listing page of ads, as returned by the listing endpoints, with Gson, Jackson's ObjectMapper
+ * and the streaming {@link JsonWriter}. The Jackson mapper is configured like the one Spring Boot provides.
+ * jsonWriterCards writes the same page with the fields of a card only, as asked for with fields=, and cborWriter and
+ * smileWriter write it in the binary formats clients can negotiate. The wire size of each is printed on setup.
+ * Run with -prof gc to compare the allocation per page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdPageSerializationBenchmark {
+
+    // The fields a listing card shows
+    static final String CARD_FIELDS = "pet_name,category,pet_age,image_path";
+
+    private DatabaseService.AdPage page;
+    private DatabaseService.AdPage cardPage;
+    private Gson gson;
+    private ObjectMapper objectMapper;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<DatabaseService.AdDetail> ads = BenchmarkData.adDetails(BenchmarkData.PAGE_SIZE);
+        page = new DatabaseService.AdPage(ads, 1_000_000L);
+        cardPage = new DatabaseService.AdPage(ads, 1_000_000L, AdFields.parse(CARD_FIELDS));
+        out = new ByteArrayOutputStream(16 * 1024);
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, (JsonSerializer<LocalDateTime>) (value, type, context) ->
+                        new JsonPrimitive(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(value)))
+                .create();
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        System.out.printf("%nWire size of a %d ad page: json %d, cbor %d, smile %d, json cards %d bytes%n", ads.size(),
+                jsonWriter(), cborWriter(), smileWriter(), jsonWriterCards());
+    }
+
+    @Benchmark
+    public String gson() {
+        return gson.toJson(page);
+    }
+
+    @Benchmark
+    public byte[] jackson() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    /**
+     * Writes into a reused stream, like the servlet output stream the converter writes to.
+     */
+    @Benchmark
+    public int jsonWriter() throws Exception {
+        out.reset();
+        JsonWriter.writeAdPage(page, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int jsonWriterCards() throws Exception {
+        out.reset();
+        JsonWriter.writeAdPage(cardPage, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int cborWriter() throws Exception {
+        out.reset();
+        JsonWriter.writeAdPage(page, out, JsonWriter.CBOR_FACTORY);
+        return out.size();
+    }
+
+    @Benchmark
+    public int smileWriter() throws Exception {
+        out.reset();
+        JsonWriter.writeAdPage(page, out, JsonWriter.SMILE_FACTORY);
+        return out.size();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.utils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared fixtures for the benchmarks, shaped like the rows the listing queries return.
+ */
+public class BenchmarkData {
+
+    public static final int PAGE_SIZE = 40;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Builds a listing page of rows as returned by {@link ExecuteQuery#queryDB}.
+     *
+     * @param count the number of rows to build
+     * @return a list of rows keyed by column name
+     */
+    public static List<Map<String, Object>> adRows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        LocalDateTime createdAt = LocalDateTime.of(2024, 5, 1, 12, 30, 15);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("ad_id", 1000 + i);
+            row.put("display_name", "Display Name " + i);
+            row.put("email", "user" + i + "@example.com");
+            row.put("phone", "555-01" + i);
+            row.put("pet_name", "Buddy " + i);
+            row.put("category", "Dog");
+            row.put("pet_age", i % 15);
+            row.put("pet_gender", i % 2 == 0 ? "Male" : "Female");
+            row.put("ad_content", "Buddy loves to cuddle and is very friendly. He enjoys playing fetch and running around in the yard");
+            row.put("image_path", "/images/Buddy_" + i + ".png");
+            row.put("created_at", Timestamp.valueOf(createdAt.plusMinutes(i)));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Builds a listing page of mapped ads.
+     *
+     * @param count the number of ads to build
+     * @return a list of AdDetail records
+     */
+    public static List<DatabaseService.AdDetail> adDetails(int count) {
+        return new DatabaseService(null, null, null, null, null, null, null).adsList(adRows(count));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the CPU bound parts of {@link DatabaseService}: mapping a listing page,
+ * password hashing and the email and phone validation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseServiceBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private DatabaseService databaseService;
+    private List<Map<String, Object>> rows;
+    private String hashedPassword;
+
+    @Setup
+    public void setUp() {
+        databaseService = new DatabaseService(null, null, null, null, null, null, null);
+        rows = BenchmarkData.adRows(BenchmarkData.PAGE_SIZE);
+        hashedPassword = DatabaseService.hashPassword(PASSWORD);
+    }
+
+    @Benchmark
+    public List<DatabaseService.AdDetail> adsList() {
+        return databaseService.adsList(rows);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String hashPassword() {
+        return DatabaseService.hashPassword(PASSWORD);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean checkPassword() {
+        return DatabaseService.checkPassword(PASSWORD, hashedPassword);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean validEmail() {
+        return databaseService.validEmail("some.user.name@example-domain.com");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean validPhone() {
+        return databaseService.validPhone("555-0100-1234");
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks mapping a single listing row to an {@link DatabaseService.AdDetail} record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultSetMapperBenchmark {
+
+    private Map<String, Object> row;
+
+    @Setup
+    public void setUp() {
+        row = BenchmarkData.adRows(1).get(0);
+    }
+
+    @Benchmark
+    public DatabaseService.AdDetail mapRowToRecord() throws SQLException {
+        return ResultSetMapper.mapRowToRecord(row, DatabaseService.AdDetail.class);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records request latencies of a single endpoint on a single client thread.
+ * Recorders of all threads are merged once the run is over, so recording needs no synchronization.
+ */
+public class LatencyRecorder {
+
+    private long[] latenciesNanos = new long[1024];
+    private int count;
+    private int errors;
+
+    /**
+     * Records the latency of a completed request.
+     *
+     * @param nanos   the request latency in nanoseconds
+     * @param success whether the server answered with a 2xx status
+     */
+    public void record(long nanos, boolean success) {
+        if (count == latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+        }
+        latenciesNanos[count++] = nanos;
+        if (!success) {
+            errors++;
+        }
+    }
+
+    /**
+     * Merges the recordings of another recorder into this one.
+     *
+     * @param other the recorder to merge
+     */
+    public void merge(LatencyRecorder other) {
+        if (count + other.count > latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count + other.count);
+        }
+        System.arraycopy(other.latenciesNanos, 0, latenciesNanos, count, other.count);
+        count += other.count;
+        errors += other.errors;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int errors() {
+        return errors;
+    }
+
+    /**
+     * Returns the latency at the given percentile, sorting the recordings on first use.
+     *
+     * @param percentile a percentile between 0 and 100
+     * @return the latency in milliseconds, or 0 if nothing was recorded
+     */
+    public double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(latenciesNanos, 0, count);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return latenciesNanos[Math.max(0, Math.min(index, count - 1))] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from -Dloadtest.* system properties.
+ *
+ * @param jdbcUrl     JDBC url of an already running Postgres, when empty an embedded one is started
+ * @param username    database user name
+ * @param password    database password
+ * @param threads     number of concurrent client threads
+ * @param warmupSecs  seconds to drive load before measuring
+ * @param durationSecs seconds to measure
+ * @param users       number of users to seed
+ * @param ads         number of ads to seed
+ * @param mix         relative weight of every endpoint in the request mix
+ */
+public record LoadTestConfig(String jdbcUrl, String username, String password, int threads, int warmupSecs,
+                             int durationSecs, int users, int ads, Map<Endpoint, Integer> mix) {
+
+    /**
+     * Endpoints driven by the load test.
+     */
+    public enum Endpoint {
+        GET_ALL_ADS, GET_ALL_ADS_CARDS, GET_POPULAR_ADS, CREATE_NEW_AD, LOGIN, FAVORITES, GET_AD, GET_ADS, GET_IMAGE
+    }
+
+    private static final String DEFAULT_MIX = "get_all_ads:70,create_new_ad:5,login:10,favorites:15";
+
+    /**
+     * Reads the configuration from system properties, falling back to defaults.
+     *
+     * @return the load test configuration
+     */
+    public static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                System.getProperty("loadtest.jdbcUrl", ""),
+                System.getProperty("loadtest.username", "postgres"),
+                System.getProperty("loadtest.password", "postgres"),
+                Integer.getInteger("loadtest.threads", 32),
+                Integer.getInteger("loadtest.warmupSecs", 10),
+                Integer.getInteger("loadtest.durationSecs", 60),
+                Integer.getInteger("loadtest.users", 1_000),
+                Integer.getInteger("loadtest.ads", 50_000),
+                parseMix(System.getProperty("loadtest.mix", DEFAULT_MIX)));
+    }
+
+    /**
+     * Parses a mix given as comma separated endpoint:weight pairs, for example "get_all_ads:80,login:20".
+     *
+     * @param mix the mix definition
+     * @return weight per endpoint
+     */
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Endpoint.valueOf(parts[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("The request mix must contain at least one endpoint");
+        }
+        return weights;
+    }
+}
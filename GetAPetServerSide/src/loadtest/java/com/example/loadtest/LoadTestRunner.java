@@ -0,0 +1,300 @@
+package com.example.loadtest;
+
+import com.example.GetAPetServerSideApplication;
+import com.example.loadtest.LoadTestConfig.Endpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import javax.sql.DataSource;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * End-to-end load test of the server.
+ * Starts an embedded Postgres (unless loadtest.jdbcUrl points at a running one), boots the application against it,
+ * seeds synthetic data and drives a weighted mix of requests from a fixed number of client threads.
+ * Reports throughput and latency percentiles per endpoint to stdout and to target/loadtest-report.json.
+ */
+public class LoadTestRunner {
+
+    private static final String[] CATEGORIES = {"Dog", "Cat", "Bird", "Rabbit", "Hamster"};
+    private static final String BOUNDARY = "LoadTestBoundary";
+    private static final String CARD_FIELDS = "pet_name,category,pet_age,image_path";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final LoadTestConfig config;
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String imagesUrl;
+    private final LoadTestSeeder.SeededData data;
+    private final byte[] image;
+    private final List<Endpoint> weightedEndpoints = new ArrayList<>();
+
+    LoadTestRunner(LoadTestConfig config, int port, LoadTestSeeder.SeededData data) throws IOException {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(config.threads()))
+                .build();
+        this.baseUrl = "http://localhost:" + port + "/api/";
+        this.imagesUrl = "http://localhost:" + port + "/images/";
+        this.data = data;
+        this.image = createImage();
+        config.mix().forEach((endpoint, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weightedEndpoints.add(endpoint);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        EmbeddedPostgres postgres = null;
+        String jdbcUrl = config.jdbcUrl();
+        if (jdbcUrl.isEmpty()) {
+            postgres = EmbeddedPostgres.builder().start();
+            jdbcUrl = postgres.getJdbcUrl(config.username(), "postgres");
+        }
+        Path imagesFolder = Files.createTempDirectory("loadtest-images");
+        ConfigurableApplicationContext context = SpringApplication.run(GetAPetServerSideApplication.class,
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.datasource.username=" + config.username(),
+                "--spring.datasource.password=" + config.password(),
+                "--server.port=0",
+                // All the load comes from one IP, rate limits would only measure themselves
+                "--rate-limit.enabled=" + System.getProperty("rate-limit.enabled", "false"),
+                "--images.handler=" + System.getProperty("images.handler", "cached"),
+                "--external.images.path=" + imagesFolder + "/");
+        try {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            System.out.printf("Seeding %d users and %d ads%n", config.users(), config.ads());
+            long seedStart = System.nanoTime();
+            LoadTestSeeder.SeededData data = new LoadTestSeeder(context.getBean(DataSource.class)).seed(config, imagesFolder);
+            System.out.printf("Seeded in %.1f seconds%n", (System.nanoTime() - seedStart) / 1e9);
+            Map<Endpoint, LatencyRecorder> results = new LoadTestRunner(config, port, data).run();
+            report(config, results);
+        } finally {
+            context.close();
+            if (postgres != null) {
+                postgres.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Drives the request mix for the warmup and the measured duration.
+     *
+     * @return the merged latency recordings per endpoint
+     * @throws InterruptedException if interrupted while waiting for the client threads
+     * @throws ExecutionException   if a client thread failed
+     */
+    Map<Endpoint, LatencyRecorder> run() throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSecs());
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(config.durationSecs());
+        ExecutorService workers = Executors.newFixedThreadPool(config.threads());
+        List<Future<Map<Endpoint, LatencyRecorder>>> futures = new ArrayList<>();
+        for (int i = 0; i < config.threads(); i++) {
+            futures.add(workers.submit(() -> drive(measureFrom, measureUntil)));
+        }
+        Map<Endpoint, LatencyRecorder> merged = new EnumMap<>(Endpoint.class);
+        for (Future<Map<Endpoint, LatencyRecorder>> future : futures) {
+            future.get().forEach((endpoint, recorder) ->
+                    merged.computeIfAbsent(endpoint, e -> new LatencyRecorder()).merge(recorder));
+        }
+        workers.shutdown();
+        return merged;
+    }
+
+    /**
+     * Sends requests from a single client thread until the measurement window is over.
+     */
+    private Map<Endpoint, LatencyRecorder> drive(long measureFrom, long measureUntil) {
+        Map<Endpoint, LatencyRecorder> recorders = new EnumMap<>(Endpoint.class);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now;
+        while ((now = System.nanoTime()) < measureUntil) {
+            Endpoint endpoint = weightedEndpoints.get(random.nextInt(weightedEndpoints.size()));
+            boolean success;
+            try {
+                success = send(endpoint, random);
+            } catch (IOException e) {
+                success = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long latency = System.nanoTime() - now;
+            if (now >= measureFrom) {
+                recorders.computeIfAbsent(endpoint, e -> new LatencyRecorder()).record(latency, success);
+            }
+        }
+        return recorders;
+    }
+
+    /**
+     * Sends the request(s) of a single operation of the given endpoint.
+     *
+     * @return true if every request of the operation succeeded
+     */
+    private boolean send(Endpoint endpoint, ThreadLocalRandom random) throws IOException, InterruptedException {
+        LoadTestSeeder.SeededUser user = data.users().get(random.nextInt(data.users().size()));
+        switch (endpoint) {
+            case GET_ALL_ADS -> {
+                String category = random.nextInt(4) == 0 ? CATEGORIES[random.nextInt(CATEGORIES.length)] : "";
+                // Most visitors look at the first pages only
+                int pageNum = 1 + (int) Math.min(50, Math.abs(random.nextGaussian() * 3));
+                return call(HttpRequest.newBuilder(uri("get_all_ads", "pageNum", pageNum, "adsPerPage", 10, "category", category)).GET());
+            }
+            case GET_ALL_ADS_CARDS -> {
+                // The same pages with only the fields the listing cards show
+                String category = random.nextInt(4) == 0 ? CATEGORIES[random.nextInt(CATEGORIES.length)] : "";
+                int pageNum = 1 + (int) Math.min(50, Math.abs(random.nextGaussian() * 3));
+                return call(HttpRequest.newBuilder(uri("get_all_ads", "pageNum", pageNum, "adsPerPage", 10, "category", category,
+                        "fields", CARD_FIELDS)).GET());
+            }
+            case GET_POPULAR_ADS -> {
+                // The most liked ads, the first pages read one after the other by following their next cursors
+                String category = random.nextInt(4) == 0 ? CATEGORIES[random.nextInt(CATEGORIES.length)] : "";
+                int pages = 1 + (int) Math.min(50, Math.abs(random.nextGaussian() * 3));
+                String after = "";
+                for (int i = 0; i < pages && after != null; i++) {
+                    HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri("get_all_ads", "adsPerPage", 10,
+                            "category", category, "sort", "popular", "after", after)).GET().timeout(Duration.ofSeconds(30)).build(),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                    if (response.statusCode() / 100 != 2) {
+                        return false;
+                    }
+                    after = JSON.readTree(response.body()).path("next").textValue();
+                }
+                return true;
+            }
+            case LOGIN -> {
+                return call(HttpRequest.newBuilder(uri("login", "username", user.username(), "password", SyntheticDataGenerator.PASSWORD))
+                        .POST(HttpRequest.BodyPublishers.noBody()));
+            }
+            case FAVORITES -> {
+                int adId = random.nextInt(data.minAdId(), data.maxAdId() + 1);
+                boolean added = call(HttpRequest.newBuilder(uri("add_ads_to_favorites", "user_id", user.id(), "ad_id", adId))
+                        .PUT(HttpRequest.BodyPublishers.noBody()));
+                boolean removed = call(HttpRequest.newBuilder(uri("delete_ad_from_favorites", "user_id", user.id(), "ad_id", adId))
+                        .DELETE());
+                return added && removed;
+            }
+            case CREATE_NEW_AD -> {
+                URI uri = uri("create_new_ad", "user_name", user.username(), "user_id", user.id(),
+                        "category", CATEGORIES[random.nextInt(CATEGORIES.length)], "pet_name", "Load pet",
+                        "pet_age", random.nextInt(20), "pet_gender", "Female", "ad_content", "Created by the load test");
+                return call(HttpRequest.newBuilder(uri)
+                        .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(multipartImage(UUID.randomUUID() + ".png"))));
+            }
+            case GET_AD -> {
+                return call(HttpRequest.newBuilder(URI.create(baseUrl + "ads/" + sharedAdId(random) + "?user_id=" + user.id())).GET());
+            }
+            case GET_ADS -> {
+                StringJoiner ids = new StringJoiner(",");
+                for (int i = 0; i < 10; i++) {
+                    ids.add(String.valueOf(sharedAdId(random)));
+                }
+                return call(HttpRequest.newBuilder(uri("ads", "ids", ids, "user_id", user.id())).GET());
+            }
+            case GET_IMAGE -> {
+                // The images of the first listing pages are most of the image traffic
+                int index = Math.min(data.images() - 1, (int) (data.images() * Math.pow(random.nextDouble(), 3)));
+                return call(HttpRequest.newBuilder(URI.create(imagesUrl + SyntheticDataGenerator.imageFileName(index))).GET());
+            }
+            default -> throw new IllegalStateException("Unexpected endpoint " + endpoint);
+        }
+    }
+
+    /**
+     * Picks the ad of a shared link, skewed towards the newest ads the way links to fresh ads are shared the most.
+     */
+    private int sharedAdId(ThreadLocalRandom random) {
+        int span = data.maxAdId() - data.minAdId() + 1;
+        return data.maxAdId() - (int) Math.min(span - 1, Math.abs(random.nextGaussian() * span / 20));
+    }
+
+    private boolean call(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<Void> response = client.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding());
+        return response.statusCode() / 100 == 2;
+    }
+
+    private URI uri(String path, Object... params) {
+        StringJoiner query = new StringJoiner("&");
+        for (int i = 0; i < params.length; i += 2) {
+            query.add(params[i] + "=" + URLEncoder.encode(String.valueOf(params[i + 1]), StandardCharsets.UTF_8));
+        }
+        return URI.create(baseUrl + path + "?" + query);
+    }
+
+    private byte[] multipartImage(String fileName) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 256);
+        String header = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: image/png\r\n\r\n";
+        body.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(image);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static byte[] createImage() throws IOException {
+        BufferedImage img = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < img.getWidth(); x++) {
+            for (int y = 0; y < img.getHeight(); y++) {
+                img.setRGB(x, y, (x * 7) << 16 | (y * 5) << 8 | (x ^ y));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Prints the results and writes them as JSON next to the other build reports.
+     */
+    private static void report(LoadTestConfig config, Map<Endpoint, LatencyRecorder> results) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        System.out.printf("%n%-15s %10s %8s %10s %10s %10s %10s%n", "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms");
+        results.forEach((endpoint, recorder) -> {
+            double throughput = recorder.count() / (double) config.durationSecs();
+            double p50 = recorder.percentileMillis(50);
+            double p99 = recorder.percentileMillis(99);
+            double p999 = recorder.percentileMillis(99.9);
+            System.out.printf("%-15s %10d %8d %10.1f %10.2f %10.2f %10.2f%n",
+                    endpoint.name().toLowerCase(), recorder.count(), recorder.errors(), throughput, p50, p99, p999);
+            Map<String, Object> endpointReport = new LinkedHashMap<>();
+            endpointReport.put("requests", recorder.count());
+            endpointReport.put("errors", recorder.errors());
+            endpointReport.put("throughput", throughput);
+            endpointReport.put("p50Millis", p50);
+            endpointReport.put("p99Millis", p99);
+            endpointReport.put("p999Millis", p999);
+            report.put(endpoint.name().toLowerCase(), endpointReport);
+        });
+        Path reportFile = Path.of(System.getProperty("loadtest.reportFile", "target/loadtest-report.json"));
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), report);
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+}
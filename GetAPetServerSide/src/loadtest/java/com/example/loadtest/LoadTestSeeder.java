@@ -0,0 +1,63 @@
+package com.example.loadtest;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Seeds the database of a load test run through the {@link SyntheticDataGenerator}.
+ */
+public class LoadTestSeeder {
+
+    /**
+     * A seeded user the load test can log in and act as.
+     *
+     * @param id       the user ID
+     * @param username the username
+     */
+    public record SeededUser(int id, String username) {}
+
+    /**
+     * The data available to the load test once seeding is done.
+     *
+     * @param users   the seeded users
+     * @param minAdId the lowest seeded ad ID
+     * @param maxAdId the highest seeded ad ID
+     * @param images  the number of seeded images, named by {@link SyntheticDataGenerator#imageFileName(int)}
+     */
+    public record SeededData(List<SeededUser> users, int minAdId, int maxAdId, int images) {}
+
+    private final DataSource dataSource;
+
+    public LoadTestSeeder(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Seeds users, ads, favorites and images and returns what the load test needs to drive requests.
+     *
+     * @param config     the load test configuration
+     * @param imagesPath the folder the server serves images from
+     * @return the seeded data
+     * @throws SQLException if seeding fails
+     * @throws IOException  if writing the images fails
+     */
+    public SeededData seed(LoadTestConfig config, Path imagesPath) throws SQLException, IOException {
+        SyntheticDataGenerator.Settings settings = new SyntheticDataGenerator.Settings(config.users(), config.ads(),
+                Double.parseDouble(System.getProperty("generator.favoritesMean", "8")),
+                Integer.getInteger("generator.images", 100), imagesPath, Long.getLong("generator.seed", 42L));
+        SyntheticDataGenerator.Summary summary;
+        try (Connection con = dataSource.getConnection()) {
+            summary = new SyntheticDataGenerator(settings).generate(con);
+        }
+        List<SeededUser> users = new ArrayList<>(summary.users());
+        for (int id = summary.firstUserId(); id < summary.firstUserId() + summary.users(); id++) {
+            users.add(new SeededUser(id, SyntheticDataGenerator.USER_PREFIX + id));
+        }
+        return new SeededData(users, summary.firstAdId(), summary.firstAdId() + summary.ads() - 1, settings.images());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup benchmark of the server: the time from launching the JVM to the first successful /api/get_all_ads.
+ * Boots the server as a child process against an embedded Postgres (unless startup.jdbcUrl points at a running one)
+ * in every variant, several times each, after a first boot that applies the migrations:
+ * the former spring.sql.init scripts, the versioned migrations, the migrations with Spring AOT,
+ * and the migrations with Spring AOT and the AppCDS archive.
+ * Needs the artifacts of the fast-startup profile:
+ * <pre>./mvnw -Pfast-startup,load-test package exec:java@startup-benchmark</pre>
+ * Reports the median and the best time of every variant to stdout and to target/startup-report.json.
+ */
+public class StartupBenchmark {
+
+    private static final Path TARGET = Path.of("target");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final String jdbcUrl;
+    private final String classpath;
+    private final Path cdsArchive;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    /**
+     * A way to start the server.
+     */
+    private record Variant(String name, List<String> jvmArgs, List<String> appArgs) {}
+
+    StartupBenchmark(String jdbcUrl) throws IOException {
+        this.jdbcUrl = jdbcUrl;
+        Path appJar;
+        try (Stream<Path> files = Files.list(TARGET)) {
+            appJar = files.filter(file -> file.getFileName().toString().endsWith("-app.jar")).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No application jar in target, build with -Pfast-startup first"));
+        }
+        this.classpath = appJar + java.io.File.pathSeparator + Files.readString(TARGET.resolve("classpath.txt")).trim();
+        this.cdsArchive = TARGET.resolve("app-cds.jsa");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = Integer.getInteger("startup.runs", 3);
+        String jdbcUrl = System.getProperty("startup.jdbcUrl", "");
+        EmbeddedPostgres postgres = null;
+        if (jdbcUrl.isEmpty()) {
+            postgres = EmbeddedPostgres.builder().start();
+            jdbcUrl = postgres.getJdbcUrl("postgres", "postgres");
+        }
+        try {
+            new StartupBenchmark(jdbcUrl).run(runs);
+        } finally {
+            if (postgres != null) {
+                postgres.close();
+            }
+        }
+    }
+
+    private void run(int runs) throws Exception {
+        List<Variant> variants = List.of(
+                new Variant("sql-init", List.of(), List.of("--migrations.enabled=false", "--spring.sql.init.mode=always",
+                        "--spring.sql.init.schema-locations=classpath:db/migration/V1__schema.sql",
+                        "--spring.sql.init.data-locations=classpath:db/migration/V2__seed_data.sql")),
+                new Variant("migrations", List.of(), List.of()),
+                new Variant("migrations+aot", List.of("-Dspring.aot.enabled=true"), List.of()),
+                new Variant("migrations+aot+cds", List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + cdsArchive, "-Xlog:cds=error"), List.of()));
+        System.out.printf("First boot, applying the migrations: %d ms%n", timeToFirstListing(variants.get(1), "first-boot"));
+        Map<String, Object> report = new LinkedHashMap<>();
+        System.out.printf("%-22s %10s %10s%n", "variant", "median ms", "best ms");
+        for (Variant variant : variants) {
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = timeToFirstListing(variant, variant.name() + "-" + i);
+            }
+            Arrays.sort(times);
+            long median = times[runs / 2];
+            System.out.printf("%-22s %10d %10d%n", variant.name(), median, times[0]);
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("runs", runs);
+            stats.put("medianMs", median);
+            stats.put("bestMs", times[0]);
+            report.put(variant.name(), stats);
+        }
+        Path reportFile = TARGET.resolve("startup-report.json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), report);
+        System.out.println("Report written to " + reportFile);
+    }
+
+    /**
+     * Launches the server and polls /api/get_all_ads until it answers 200.
+     *
+     * @return the milliseconds from launching the JVM to the first successful listing
+     */
+    private long timeToFirstListing(Variant variant, String logName) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(variant.jvmArgs());
+        command.addAll(List.of("-cp", classpath, "com.example.GetAPetServerSideApplication",
+                "--server.port=" + port,
+                "--spring.datasource.url=" + jdbcUrl,
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=postgres"));
+        command.addAll(variant.appArgs());
+        Path log = TARGET.resolve("startup-" + logName + ".log");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/get_all_ads?pageNum=1&adsPerPage=10"))
+                .timeout(Duration.ofSeconds(5)).build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        try {
+            while (System.nanoTime() - start < STARTUP_TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Server exited with " + process.exitValue() + ", see " + log);
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                } catch (ConnectException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(10);
+            }
+            throw new IllegalStateException("Server did not answer within " + STARTUP_TIMEOUT + ", see " + log);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
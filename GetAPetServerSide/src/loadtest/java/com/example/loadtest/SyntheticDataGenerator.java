@@ -0,0 +1,362 @@
+package com.example.loadtest;
+
+import com.lambdaworks.crypto.SCryptUtil;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/**
+ * Generates synthetic users, ads, favorites and images with a production-like skew and loads them through COPY.
+ * A few categories and authors hold most of the ads, favorites per user follow a power law and concentrate on
+ * a small set of popular ads, and images come in varied sizes.
+ * All generated users share {@link #PASSWORD}, so it is hashed only once.
+ *
+ * Run against any database with the schema in place:
+ * ./mvnw -Pload-test test-compile exec:java@generate-data -Dgenerator.jdbcUrl=jdbc:postgresql://localhost:5432/School
+ */
+public class SyntheticDataGenerator {
+
+    static final String USER_PREFIX = "synth_";
+    static final String PASSWORD = "synthetic-password";
+
+    // Categories ordered from the most to the least popular, the rest of the categories share the tail
+    private static final List<String> CATEGORY_POPULARITY = List.of("Dog", "Cat", "Rabbit", "Bird", "Hamster", "Fish", "Guinea Pigs", "Reptiles");
+    private static final String[] PET_NAMES = {"Buddy", "Luna", "Max", "Bella", "Charlie", "Lucy", "Milo", "Daisy", "Rocky", "Coco"};
+    private static final String[] AD_CONTENTS = {
+            "Very playful and loves to explore every corner of the house, also very affectionate and enjoys cuddling",
+            "Loves to cuddle and is very friendly, enjoys playing fetch and running around in the yard",
+            "A bit shy but very affectionate, enjoys quiet spaces",
+            "Full of energy and loves to play, curious and enjoys climbing and exploring",
+            "Very calm and loves to be petted, looking for a quiet and loving home"};
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_FAVORITES_PER_USER = 5_000;
+    private static final long HISTORY_SECONDS = 730L * 24 * 3600;
+
+    /**
+     * Settings of a generator run, read from -Dgenerator.* system properties.
+     *
+     * @param users          number of users to generate
+     * @param ads            number of ads to generate
+     * @param favoritesMean  average number of favorites per user
+     * @param images         number of distinct image files the ads share, 0 to generate ads without images
+     * @param imagesPath     folder the image files are written to, the server's external.images.path
+     * @param seed           random seed, the same seed generates the same dataset
+     */
+    public record Settings(int users, int ads, double favoritesMean, int images, Path imagesPath, long seed) {
+
+        public static Settings fromSystemProperties() {
+            return new Settings(
+                    Integer.getInteger("generator.users", 100_000),
+                    Integer.getInteger("generator.ads", 1_000_000),
+                    Double.parseDouble(System.getProperty("generator.favoritesMean", "8")),
+                    Integer.getInteger("generator.images", 200),
+                    Path.of(System.getProperty("generator.imagesPath", "src/main/resources/images/")),
+                    Long.getLong("generator.seed", 42L));
+        }
+    }
+
+    /**
+     * What a generator run inserted, generated IDs are contiguous.
+     *
+     * @param firstUserId the ID of the first generated user
+     * @param users       number of generated users
+     * @param firstAdId   the ID of the first generated ad
+     * @param ads         number of generated ads
+     * @param favorites   number of generated favorites
+     */
+    public record Summary(int firstUserId, int users, int firstAdId, int ads, long favorites) {}
+
+    /**
+     * The generated columns of an ad, derived from the ad index only so it can be generated again for the read model.
+     */
+    private record AdRow(int authorId, int categoryRank, String petName, int petAge, String petGender, String adContent,
+                         String imagePath, LocalDateTime createdAt) {}
+
+    private interface RowFormatter {
+        void format(int index, StringBuilder row);
+    }
+
+    private final Settings settings;
+    private final RandomGenerator random;
+
+    public SyntheticDataGenerator(Settings settings) {
+        this.settings = settings;
+        this.random = new SplittableRandom(settings.seed());
+    }
+
+    public static void main(String[] args) throws Exception {
+        String jdbcUrl = System.getProperty("generator.jdbcUrl", "jdbc:postgresql://localhost:5432/School");
+        String username = System.getProperty("generator.username", "postgres");
+        String password = System.getProperty("generator.password", "postgreSQL!");
+        Settings settings = Settings.fromSystemProperties();
+        try (Connection con = DriverManager.getConnection(jdbcUrl, username, password)) {
+            long start = System.nanoTime();
+            Summary summary = new SyntheticDataGenerator(settings).generate(con);
+            System.out.printf("Loaded %d users, %d ads and %d favorites in %.1f seconds%n",
+                    summary.users(), summary.ads(), summary.favorites(), (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /**
+     * Generates and loads the dataset in a single transaction, then analyzes the loaded tables.
+     *
+     * @param con a connection to the target database
+     * @return what was inserted
+     * @throws SQLException if loading fails
+     * @throws IOException  if writing the images fails
+     */
+    public Summary generate(Connection con) throws SQLException, IOException {
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            skipTriggers(con);
+            int firstUserId = nextId(con, "users");
+            int firstAdId = nextId(con, "ads");
+            List<Integer> categoryIds = categoriesByPopularity(con);
+            long phaseStart = System.nanoTime();
+            List<String> imagePaths = writeImages();
+            phaseStart = logPhase("images", phaseStart);
+            CopyManager copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+
+            String hashedPassword = SCryptUtil.scrypt(PASSWORD, 16384, 8, 1);
+            copy(copyManager, "COPY users (id, username, password, display_name, email, phone) FROM STDIN (FORMAT csv)",
+                    settings.users(), (i, row) -> {
+                        int id = firstUserId + i;
+                        row.append(id).append(',').append(USER_PREFIX).append(id).append(',').append(hashedPassword)
+                                .append(",Synthetic User ").append(id).append(',').append(USER_PREFIX).append(id)
+                                .append("@example.com,9").append(id).append('\n');
+                    });
+            phaseStart = logPhase("users", phaseStart);
+
+            List<String> categoryNames = categoryNames(con, categoryIds);
+            long start = LocalDateTime.now(ZoneOffset.UTC).minusSeconds(HISTORY_SECONDS).toEpochSecond(ZoneOffset.UTC);
+            copy(copyManager, "COPY ads (id, author_id, category_id, pet_name, pet_age, pet_gender, ad_content, image_path, created_at) FROM STDIN (FORMAT csv)",
+                    settings.ads(), (i, row) -> {
+                        AdRow ad = adRow(i, firstUserId, categoryIds.size(), imagePaths, start);
+                        row.append(firstAdId + i).append(',').append(ad.authorId()).append(',').append(categoryIds.get(ad.categoryRank()));
+                        appendAdColumns(row, ad);
+                    });
+            phaseStart = logPhase("ads", phaseStart);
+
+            // The read model is copied from the same deterministic rows instead of joining the freshly loaded tables
+            copy(copyManager, "COPY ad_listing (ad_id, author_id, display_name, email, phone, category, pet_name, pet_age, pet_gender, ad_content, image_path, created_at) FROM STDIN (FORMAT csv)",
+                    settings.ads(), (i, row) -> {
+                        AdRow ad = adRow(i, firstUserId, categoryIds.size(), imagePaths, start);
+                        row.append(firstAdId + i).append(',').append(ad.authorId()).append(",Synthetic User ").append(ad.authorId())
+                                .append(',').append(USER_PREFIX).append(ad.authorId()).append("@example.com,9").append(ad.authorId())
+                                .append(",\"").append(categoryNames.get(ad.categoryRank())).append('"');
+                        appendAdColumns(row, ad);
+                    });
+            phaseStart = logPhase("ad_listing", phaseStart);
+
+            Set<Integer> liked = new HashSet<>();
+            long favorites = copy(copyManager, "COPY favorites (user_id, ad_id) FROM STDIN (FORMAT csv)",
+                    settings.users(), (i, row) -> {
+                        liked.clear();
+                        int count = Math.min(favoritesCount(), Math.min(settings.ads(), MAX_FAVORITES_PER_USER));
+                        while (liked.size() < count) {
+                            // Popular ads are spread over the ID range instead of being the oldest ones
+                            int adOffset = (int) (skewedRank(random, settings.ads(), 3.0) * 2_654_435_761L % settings.ads());
+                            if (liked.add(adOffset)) {
+                                row.append(firstUserId + i).append(',').append(firstAdId + adOffset).append('\n');
+                            }
+                        }
+                    });
+            phaseStart = logPhase("favorites", phaseStart);
+            try (Statement st = con.createStatement()) {
+                // The loaded favorites bypass FavoriteCounts, so the counts the popular sort reads are set here
+                st.execute("UPDATE ad_listing l SET favorite_count = f.count FROM (SELECT ad_id, COUNT(*) AS count FROM favorites"
+                        + " WHERE ad_id >= " + firstAdId + " GROUP BY ad_id) f WHERE l.ad_id = f.ad_id");
+                st.execute("SELECT setval(pg_get_serial_sequence('users', 'id'), (SELECT MAX(id) FROM users))");
+                st.execute("SELECT setval(pg_get_serial_sequence('ads', 'id'), (SELECT MAX(id) FROM ads))");
+            }
+            con.commit();
+            con.setAutoCommit(true);
+            try (Statement st = con.createStatement()) {
+                st.execute("ANALYZE users, ads, favorites, ad_listing");
+            }
+            logPhase("commit and analyze", phaseStart);
+            return new Summary(firstUserId, settings.users(), firstAdId, settings.ads(), favorites);
+        } catch (SQLException | IOException | RuntimeException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Streams generated rows into a COPY in buffered chunks, without materializing the whole input.
+     *
+     * @return the number of rows copied
+     */
+    private long copy(CopyManager copyManager, String sql, int count, RowFormatter formatter) throws SQLException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try {
+            StringBuilder rows = new StringBuilder(COPY_BUFFER_SIZE * 2);
+            for (int i = 0; i < count; i++) {
+                formatter.format(i, rows);
+                if (rows.length() >= COPY_BUFFER_SIZE) {
+                    byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+                    copyIn.writeToCopy(bytes, 0, bytes.length);
+                    rows.setLength(0);
+                }
+            }
+            byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Generates the ad at the given index, the same index always generates the same ad.
+     */
+    private AdRow adRow(int index, int firstUserId, int categories, List<String> imagePaths, long startEpochSecond) {
+        RandomGenerator adRandom = new SplittableRandom(settings.seed() * 31 + index);
+        // Prolific shelters post most of the ads and ads are created in ID order
+        return new AdRow(
+                firstUserId + skewedRank(adRandom, settings.users(), 2.5),
+                skewedRank(adRandom, categories, 3.0),
+                PET_NAMES[adRandom.nextInt(PET_NAMES.length)],
+                skewedRank(adRandom, 20, 2.0),
+                adRandom.nextBoolean() ? "Male" : "Female",
+                AD_CONTENTS[adRandom.nextInt(AD_CONTENTS.length)],
+                imagePaths.isEmpty() ? "" : imagePaths.get(skewedRank(adRandom, imagePaths.size(), 1.5)),
+                LocalDateTime.ofEpochSecond(startEpochSecond + HISTORY_SECONDS * index / settings.ads(), 0, ZoneOffset.UTC));
+    }
+
+    /**
+     * Appends the columns ads and ad_listing share, from pet_name to created_at, and ends the row.
+     */
+    private static void appendAdColumns(StringBuilder row, AdRow ad) {
+        row.append(',').append(ad.petName()).append(',').append(ad.petAge()).append(',').append(ad.petGender())
+                .append(",\"").append(ad.adContent()).append("\",").append(ad.imagePath()).append(',')
+                .append(ad.createdAt()).append('\n');
+    }
+
+    private static long logPhase(String phase, long start) {
+        long now = System.nanoTime();
+        System.out.printf("Generated %s in %.1f seconds%n", phase, (now - start) / 1e9);
+        return now;
+    }
+
+    /**
+     * Picks a rank in [0, n) skewed towards 0, the higher the exponent the stronger the skew.
+     */
+    private static int skewedRank(RandomGenerator random, int n, double exponent) {
+        return Math.min(n - 1, (int) (n * Math.pow(random.nextDouble(), exponent)));
+    }
+
+    /**
+     * Picks a number of favorites from a Pareto distribution with the configured mean,
+     * most users like a handful of ads while a few like hundreds.
+     */
+    private int favoritesCount() {
+        double alpha = 1.5;
+        double scale = settings.favoritesMean() * (alpha - 1) / alpha;
+        return (int) (scale / Math.pow(1 - random.nextDouble(), 1 / alpha));
+    }
+
+    /**
+     * Skips foreign key checks and triggers for the rest of the load transaction, the generated rows are consistent
+     * by construction. Only roles allowed to set session_replication_role (superusers) can do that, others load with checks.
+     */
+    private void skipTriggers(Connection con) throws SQLException {
+        Savepoint savepoint = con.setSavepoint();
+        try (Statement st = con.createStatement()) {
+            st.execute("SET LOCAL session_replication_role = replica");
+        } catch (SQLException e) {
+            con.rollback(savepoint);
+            System.out.println("Loading with foreign key checks and triggers: " + e.getMessage());
+        }
+    }
+
+    private int nextId(Connection con, String table) throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private List<String> categoryNames(Connection con, List<Integer> categoryIds) throws SQLException {
+        Map<Integer, String> nameById = new HashMap<>();
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT id, category FROM categories")) {
+            while (rs.next()) {
+                nameById.put(rs.getInt("id"), rs.getString("category"));
+            }
+        }
+        return categoryIds.stream().map(nameById::get).toList();
+    }
+
+    private List<Integer> categoriesByPopularity(Connection con) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        Map<String, Integer> idByName = new HashMap<>();
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT id, category FROM categories ORDER BY id")) {
+            while (rs.next()) {
+                idByName.put(rs.getString("category"), rs.getInt("id"));
+            }
+        }
+        CATEGORY_POPULARITY.stream().filter(idByName::containsKey).map(idByName::remove).forEach(ids::add);
+        idByName.values().stream().sorted().forEach(ids::add);
+        if (ids.isEmpty()) {
+            throw new SQLException("No categories found, the schema and categories must be initialized first");
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the file name of a generated image.
+     *
+     * @param index the index of the image, from 0 to the number of images
+     * @return the file name under the images folder
+     */
+    public static String imageFileName(int index) {
+        return USER_PREFIX + "image_" + index + ".jpg";
+    }
+
+    /**
+     * Writes the shared image files, with log-normally distributed dimensions around 800 pixels wide.
+     *
+     * @return the image paths as stored on ads
+     */
+    private List<String> writeImages() throws IOException {
+        List<String> imagePaths = new ArrayList<>();
+        if (settings.images() == 0) {
+            return imagePaths;
+        }
+        Files.createDirectories(settings.imagesPath());
+        for (int i = 0; i < settings.images(); i++) {
+            int width = (int) Math.max(120, Math.min(2400, Math.exp(Math.log(800) + random.nextGaussian() * 0.6)));
+            int height = width * 3 / 4;
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            for (int shape = 0; shape < 40; shape++) {
+                graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 2), 1 + random.nextInt(height / 2));
+            }
+            graphics.dispose();
+            String fileName = imageFileName(i);
+            ImageIO.write(image, "jpg", settings.imagesPath().resolve(fileName).toFile());
+            imagePaths.add("/images/" + fileName);
+        }
+        return imagePaths;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.config;
+
+import com.example.utils.DatabaseService;
+import com.example.utils.JsonWriter;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Message converter writing listing pages straight to the response output stream with {@link JsonWriter},
+ * instead of going through the generic ObjectMapper serialization of the whole page.
+ * Pages are written as JSON, or as CBOR or Smile for clients that accept them, e.g. mobile clients on slow links.
+ */
+public class AdPageHttpMessageConverter extends AbstractHttpMessageConverter<DatabaseService.AdPage> {
+
+    static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    public AdPageHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, APPLICATION_SMILE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return DatabaseService.AdPage.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected DatabaseService.AdPage readInternal(Class<? extends DatabaseService.AdPage> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Reading ad pages is not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(DatabaseService.AdPage page, HttpOutputMessage outputMessage) throws IOException {
+        // The encoding depends on the Accept header, caches must not serve one client's encoding to another
+        outputMessage.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        JsonWriter.writeAdPage(page, outputMessage.getBody(), factoryFor(outputMessage.getHeaders().getContentType()));
+    }
+
+    private static JsonFactory factoryFor(MediaType contentType) {
+        if (MediaType.APPLICATION_CBOR.isCompatibleWith(contentType)) {
+            return JsonWriter.CBOR_FACTORY;
+        }
+        if (APPLICATION_SMILE.isCompatibleWith(contentType)) {
+            return JsonWriter.SMILE_FACTORY;
+        }
+        return JsonWriter.JSON_FACTORY;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.config;
+
+import com.example.utils.AdaptiveLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Servlet filter isolating the guarded endpoints from each other with one {@link AdaptiveLimiter} per endpoint,
+ * so that a surge on one endpoint (e.g. a login storm) is shed with 503s instead of taking the Tomcat threads
+ * of the others. Requests over the limit are rejected at once rather than queued, a queued request would hold its
+ * Tomcat thread while it waits. A slot is held until the response completes, including the asynchronous part of the
+ * request. Admissions and rejections are counted as bulkhead.requests, and the current limits are exposed as gauges.
+ */
+@Slf4j
+public class BulkheadFilter implements Filter {
+
+    private final EndpointPaths<Guard> guards = new EndpointPaths<>();
+    private final String retryAfterSecs;
+
+    /**
+     * The limiter of an endpoint and its metrics.
+     */
+    private record Guard(AdaptiveLimiter limiter, Counter accepted, Counter rejected) {}
+
+    public BulkheadFilter(BulkheadProperties properties, MeterRegistry registry, int retryAfterSecs) {
+        this.retryAfterSecs = String.valueOf(retryAfterSecs);
+        properties.endpoints().forEach((name, endpoint) -> {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(name, endpoint.toSettings());
+            Gauge.builder("bulkhead.limit", limiter, AdaptiveLimiter::getLimit).tag("endpoint", name).register(registry);
+            Gauge.builder("bulkhead.in_flight", limiter, AdaptiveLimiter::getInFlight).tag("endpoint", name).register(registry);
+            guards.put(endpoint.path(), new Guard(limiter,
+                    counter(registry, name, "accepted"), counter(registry, name, "rejected")));
+        });
+    }
+
+    private static Counter counter(MeterRegistry registry, String endpoint, String outcome) {
+        return Counter.builder("bulkhead.requests").tag("endpoint", endpoint).tag("outcome", outcome).register(registry);
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        Guard guard = guards.get(request.getRequestURI().substring(request.getContextPath().length()));
+        if (guard == null || HttpMethod.OPTIONS.matches(request.getMethod())) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        if (!guard.limiter().tryAcquire()) {
+            guard.rejected().increment();
+            log.warn("Rejected request to {}: limit of {} reached", guard.limiter().getName(), guard.limiter().getLimit());
+            HttpServletResponse response = (HttpServletResponse) servletResponse;
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSecs);
+            response.getWriter().write("Server is busy, please try again later");
+            return;
+        }
+        guard.accepted().increment();
+        long start = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        boolean async = false;
+        try {
+            chain.doFilter(servletRequest, servletResponse);
+            if (request.isAsyncStarted()) {
+                async = true;
+                request.getAsyncContext().addListener(new ReleasingListener(guard.limiter(), start, released));
+            }
+        } finally {
+            if (!async && released.compareAndSet(false, true)) {
+                guard.limiter().release(System.nanoTime() - start, ((HttpServletResponse) servletResponse).getStatus() >= 500);
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of an asynchronous request once its response is complete.
+     */
+    private record ReleasingListener(AdaptiveLimiter limiter, long start, AtomicBoolean released) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release(((HttpServletResponse) event.getSuppliedResponse()).getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.config;
+
+import com.example.utils.AdaptiveLimiter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Configuration properties of the per-endpoint bulkheads, bound from the bulkhead.* properties.
+ *
+ * @param enabled   whether the bulkhead filter is installed
+ * @param endpoints the limiter settings of every guarded endpoint, keyed by endpoint name
+ */
+@ConfigurationProperties(prefix = "bulkhead")
+public record BulkheadProperties(boolean enabled, Map<String, Endpoint> endpoints) {
+
+    /**
+     * The limiter settings of one endpoint.
+     *
+     * @param path            the request path of the endpoint, or an Ant-style pattern of its paths
+     * @param initialLimit    the concurrency limit to start with
+     * @param minLimit        the lowest the limit can be cut to
+     * @param maxLimit        the highest the limit can be raised to
+     * @param targetLatencyMs requests slower than this cut the limit
+     */
+    public record Endpoint(String path, int initialLimit, int minLimit, int maxLimit, long targetLatencyMs) {
+
+        AdaptiveLimiter.Settings toSettings() {
+            return new AdaptiveLimiter.Settings(initialLimit, minLimit, maxLimit, targetLatencyMs);
+        }
+    }
+}
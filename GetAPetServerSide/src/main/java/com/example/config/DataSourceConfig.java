@@ -1,10 +1,18 @@
 package com.example.config;
 
+import com.example.utils.CacheInvalidationBus;
+import com.example.utils.CacheInvalidationListener;
+import com.example.utils.ReplicaRouter;
 import lombok.Getter;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Configuration class for setting up the DataSource using Apache Commons DBCP2.
@@ -13,9 +21,14 @@ import org.springframework.context.annotation.Configuration;
  *
  * The configured DataSource is used for JDBC operations, providing a connection pool
  * for efficient database access.
+ * Read replicas listed in spring.datasource.replicas get a pool of their own, with the same
+ * credentials and sizes as the primary, and are used through the {@link ReplicaRouter}.
+ * Every connection carries the node ID as its application_name, which tags the changes this node publishes
+ * to the {@link CacheInvalidationBus}.
  */
 @Getter
 @Configuration
+@EnableScheduling
 public class DataSourceConfig {
 
     @Value("${spring.datasource.url}")
@@ -36,6 +49,29 @@ public class DataSourceConfig {
     @Value("${spring.datasource.maxTotal}")
     private int maxTotal;
 
+    @Value("${spring.datasource.replicas:}")
+    private String replicaUrls;
+
+    @Value("${spring.datasource.replica.read-your-writes-ms:5000}")
+    private long readYourWritesMillis;
+
+    @Value("${cache.invalidation.enabled:true}")
+    private boolean cacheInvalidationEnabled;
+
+    @Value("${cache.invalidation.keepalive-ms:10000}")
+    private int cacheInvalidationKeepaliveMillis;
+
+    private final String nodeId;
+
+    /**
+     * Constructor to initialize the node ID.
+     *
+     * @param nodeId The ID of this server node, at most 63 characters. A random one is picked when empty.
+     */
+    public DataSourceConfig(@Value("${cache.invalidation.node-id:}") String nodeId) {
+        this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+    }
+
     /**
      * Creates and configures a BasicDataSource bean.
      * The BasicDataSource is used by the application to obtain JDBC connections.
@@ -46,6 +82,38 @@ public class DataSourceConfig {
      */
     @Bean
     public BasicDataSource dataSource() {
+        return createDataSource(url);
+    }
+
+    /**
+     * Creates the router that sends read-only queries to the read replicas.
+     * Without replicas configured every query keeps going to the primary.
+     *
+     * @param dataSource the primary data source
+     * @return a configured ReplicaRouter
+     */
+    @Bean
+    public ReplicaRouter replicaRouter(BasicDataSource dataSource) {
+        List<BasicDataSource> replicas = Arrays.stream(replicaUrls.split(","))
+                .map(String::trim)
+                .filter(replicaUrl -> !replicaUrl.isEmpty())
+                .map(this::createDataSource)
+                .toList();
+        return new ReplicaRouter(dataSource, replicas, readYourWritesMillis);
+    }
+
+    /**
+     * Creates the bus that keeps the caches of this node coherent with the writes of the other nodes.
+     *
+     * @param listeners the caches to keep coherent
+     * @return a CacheInvalidationBus listening on its own connection to the primary
+     */
+    @Bean
+    public CacheInvalidationBus cacheInvalidationBus(List<CacheInvalidationListener> listeners) {
+        return new CacheInvalidationBus(url, username, password, nodeId, listeners, cacheInvalidationEnabled, cacheInvalidationKeepaliveMillis);
+    }
+
+    private BasicDataSource createDataSource(String url) {
         BasicDataSource dataSource = new BasicDataSource();
         dataSource.setUrl(url);
         dataSource.setUsername(username);
@@ -53,6 +121,9 @@ public class DataSourceConfig {
         dataSource.setDriverClassName(driverClassName);
         dataSource.setInitialSize(initialSize);
         dataSource.setMaxTotal(maxTotal);
+        // Lets the driver send a batch of inserts as multi-row inserts
+        dataSource.addConnectionProperty("reWriteBatchedInserts", "true");
+        dataSource.addConnectionProperty("ApplicationName", nodeId);
         return dataSource;
     }
 }
@@ -0,0 +1,46 @@
+package com.example.config;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The settings of the guarded endpoints, looked up by request path.
+ * A path is either exact, e.g. /api/login, or an Ant-style pattern, e.g. /api/uploads/{@literal *}/complete.
+ * Exact paths are found with one map lookup, patterns are tried in the order they were added.
+ *
+ * @param <T> the settings of an endpoint
+ */
+class EndpointPaths<T> {
+
+    private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final Map<String, T> exact = new HashMap<>();
+    private final Map<String, T> patterns = new LinkedHashMap<>();
+
+    void put(String path, T value) {
+        (PATH_MATCHER.isPattern(path) ? patterns : exact).put(path, value);
+    }
+
+    /**
+     * Returns the settings of the endpoint a request path belongs to.
+     *
+     * @param path the request path, without the context path
+     * @return the settings, or null if the path is not guarded
+     */
+    T get(String path) {
+        T value = exact.get(path);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, T> pattern : patterns.entrySet()) {
+            if (PATH_MATCHER.match(pattern.getKey(), path)) {
+                return pattern.getValue();
+            }
+        }
+        return null;
+    }
+}
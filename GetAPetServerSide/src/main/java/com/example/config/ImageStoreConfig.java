@@ -0,0 +1,92 @@
+package com.example.config;
+
+import com.example.utils.HotImageCache;
+import com.example.utils.ImageStore;
+import com.example.utils.LocalImageStore;
+import com.example.utils.S3ImageStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Configuration class for the {@link ImageStore} the ad images are kept in, picked by the images.store property.
+ * "local" (the default) keeps them in external.images.path, "s3" in an S3 compatible bucket so that several
+ * server nodes can run behind a load balancer. The S3 endpoint can point at a MinIO-like stand-in, which usually
+ * needs path-style access. Without an access key the default AWS credentials chain is used.
+ */
+@Configuration
+public class ImageStoreConfig {
+
+    /**
+     * Creates the store keeping the images on this server.
+     *
+     * @param imagesFolderPath  the folder the images are stored in
+     * @param archiveFolderPath the folder the images of archived ads are moved to
+     * @param hotImageCache     the cache of the served images
+     * @return a LocalImageStore
+     */
+    @Bean
+    @ConditionalOnProperty(name = "images.store", havingValue = "local", matchIfMissing = true)
+    public ImageStore localImageStore(@Value("${external.images.path}") String imagesFolderPath,
+                                      @Value("${external.images.archive-path}") String archiveFolderPath,
+                                      HotImageCache hotImageCache) {
+        return new LocalImageStore(imagesFolderPath, archiveFolderPath, hotImageCache);
+    }
+
+    /**
+     * Creates the store keeping the images in an S3 compatible bucket.
+     *
+     * @param endpoint          the endpoint of the object storage, empty for AWS S3
+     * @param region            the region of the bucket
+     * @param bucket            the bucket the images are stored in
+     * @param accessKey         the access key, empty for the default credentials chain
+     * @param secretKey         the secret key
+     * @param pathStyle         true to address the bucket in the path instead of the host name
+     * @param partSize          the size of the parts of multipart uploads
+     * @param urlTtlSecs        how long a pre-signed download URL is valid
+     * @param deleteParallelism how many delete batches are sent at the same time
+     * @return an S3ImageStore
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "images.store", havingValue = "s3")
+    public ImageStore s3ImageStore(@Value("${images.s3.endpoint:}") String endpoint,
+                                   @Value("${images.s3.region:us-east-1}") String region,
+                                   @Value("${images.s3.bucket}") String bucket,
+                                   @Value("${images.s3.access-key:}") String accessKey,
+                                   @Value("${images.s3.secret-key:}") String secretKey,
+                                   @Value("${images.s3.path-style:true}") boolean pathStyle,
+                                   @Value("${images.s3.part-size:8388608}") int partSize,
+                                   @Value("${images.s3.url-ttl-secs:600}") long urlTtlSecs,
+                                   @Value("${images.s3.delete-parallelism:4}") int deleteParallelism) {
+        AwsCredentialsProvider credentials = accessKey.isEmpty()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3Configuration s3Configuration = S3Configuration.builder().pathStyleAccessEnabled(pathStyle).build();
+        S3ClientBuilder client = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(s3Configuration);
+        S3Presigner.Builder presigner = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(s3Configuration);
+        if (!endpoint.isEmpty()) {
+            client.endpointOverride(URI.create(endpoint));
+            presigner.endpointOverride(URI.create(endpoint));
+        }
+        return new S3ImageStore(client.build(), presigner.build(), bucket, partSize, Duration.ofSeconds(urlTtlSecs), deleteParallelism);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration class for the executor running the JDBC work of the controller endpoints.
+ * The background jobs take connections from the same pool: the scheduled jobs (AdPurger, AdArchiver, the flushes of
+ * FavoriteCounts and FavoritesWriteBehind and the other @Scheduled jobs) one at a time on the single scheduler thread,
+ * and the reloads of UserAvailability. jdbc.executor.reserved-connections are left to them, and the executor has a
+ * thread for each of the other connections of the pool, so its threads don't wait for a connection behind the
+ * background jobs. A bounded queue sits in front of the threads. When the queue is full new work is rejected at once,
+ * which the controller answers with a 503 instead of parking a request thread until it times out.
+ */
+@Configuration
+public class JdbcExecutorConfig {
+
+    @Value("${spring.datasource.maxTotal}")
+    private int maxTotal;
+
+    @Value("${jdbc.executor.reserved-connections:2}")
+    private int reservedConnections;
+
+    @Value("${jdbc.executor.queue-capacity:50}")
+    private int queueCapacity;
+
+    /**
+     * Creates the bounded executor for JDBC work.
+     *
+     * @return a ThreadPoolExecutor with one thread per pooled connection not reserved for the background jobs, and a bounded queue
+     * @throws IllegalStateException if the pool has no connection left for the endpoints
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService jdbcExecutor() {
+        int threads = maxTotal - reservedConnections;
+        if (threads < 1) {
+            throw new IllegalStateException("spring.datasource.maxTotal must be larger than jdbc.executor.reserved-connections");
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
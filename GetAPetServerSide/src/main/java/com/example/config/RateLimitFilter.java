@@ -0,0 +1,75 @@
+package com.example.config;
+
+import com.example.utils.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servlet filter rate limiting the expensive endpoints (scrypt on register and login, image decoding on upload)
+ * per client IP and per user, so that a single client cannot burn the CPU budget of everyone else.
+ * Requests over the rate are answered 429 with Retry-After and counted as rate_limit.rejected.
+ */
+@Slf4j
+public class RateLimitFilter implements Filter {
+
+    static final int TOO_MANY_REQUESTS = 429;
+
+    private final RateLimiter limiter;
+    private final EndpointPaths<Limit> limits = new EndpointPaths<>();
+
+    /**
+     * The rate of an endpoint and its metrics.
+     */
+    private record Limit(String name, RateLimitProperties.Endpoint endpoint, RateLimiter.Rate rate,
+                         Counter ipRejected, Counter userRejected) {}
+
+    public RateLimitFilter(RateLimitProperties properties, MeterRegistry registry) {
+        this.limiter = new RateLimiter(properties.maxKeys());
+        properties.endpoints().forEach((name, endpoint) -> limits.put(endpoint.path(), new Limit(name, endpoint, endpoint.toRate(),
+                counter(registry, name, "ip"), counter(registry, name, "user"))));
+    }
+
+    private static Counter counter(MeterRegistry registry, String endpoint, String key) {
+        return Counter.builder("rate_limit.rejected").tag("endpoint", endpoint).tag("key", key).register(registry);
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        Limit limit = limits.get(request.getRequestURI().substring(request.getContextPath().length()));
+        if (limit == null || HttpMethod.OPTIONS.matches(request.getMethod())) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        long waitNanos = limiter.tryAcquire(limit.name() + "|ip|" + request.getRemoteAddr(), limit.rate());
+        Counter rejected = limit.ipRejected();
+        String user = limit.endpoint().userParam() != null ? request.getParameter(limit.endpoint().userParam()) : null;
+        if (waitNanos == 0 && user != null) {
+            waitNanos = limiter.tryAcquire(limit.name() + "|user|" + user, limit.rate());
+            rejected = limit.userRejected();
+        }
+        if (waitNanos > 0) {
+            rejected.increment();
+            log.warn("Rate limited request to {} from {}", limit.name(), request.getRemoteAddr());
+            HttpServletResponse response = (HttpServletResponse) servletResponse;
+            response.setStatus(TOO_MANY_REQUESTS);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1))));
+            response.getWriter().write("Too many requests, please try again later");
+            return;
+        }
+        chain.doFilter(servletRequest, servletResponse);
+    }
+}
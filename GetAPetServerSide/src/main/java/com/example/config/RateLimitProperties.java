@@ -0,0 +1,32 @@
+package com.example.config;
+
+import com.example.utils.RateLimiter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/**
+ * Configuration properties of the per-endpoint rate limits, bound from the rate-limit.* properties.
+ *
+ * @param enabled   whether the rate limit filter is installed
+ * @param maxKeys   the number of buckets kept in memory before idle ones are evicted
+ * @param endpoints the rate of every limited endpoint, keyed by endpoint name
+ */
+@ConfigurationProperties(prefix = "rate-limit")
+public record RateLimitProperties(boolean enabled, int maxKeys, Map<String, Endpoint> endpoints) {
+
+    /**
+     * The rate of one endpoint, applied to each client IP and to each user.
+     *
+     * @param path          the request path of the endpoint, or an Ant-style pattern of its paths
+     * @param ratePerSecond the sustained number of requests a second
+     * @param burst         the number of requests allowed at once
+     * @param userParam     the request parameter identifying the user, if any
+     */
+    public record Endpoint(String path, double ratePerSecond, int burst, String userParam) {
+
+        RateLimiter.Rate toRate() {
+            return RateLimiter.Rate.of(ratePerSecond, burst);
+        }
+    }
+}
@@ -1,22 +1,37 @@
 package com.example.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 /**
  * Configuration class for setting up web-specific configurations.
  * This class implements WebMvcConfigurer to customize the default Spring MVC configuration.
- * It includes settings for CORS (Cross-Origin Resource Sharing) and serves resources from an external directory.
+ * It includes settings for CORS (Cross-Origin Resource Sharing), serves resources from an external directory,
+ * registers the streaming writer of listing pages and installs the per-endpoint rate limits and bulkheads.
  */
 @Configuration
+@EnableConfigurationProperties({BulkheadProperties.class, RateLimitProperties.class})
 public class WebConfig implements WebMvcConfigurer {
 
     @Value("${external.images.path}")
     private String IMAGES_FOLDER_PATH;
 
+    @Value("${images.handler:cached}")
+    private String imagesHandler;
+
     /**
      * Configures CORS mappings.
      * This method allows all origins, headers, and common HTTP methods for CORS requests,
@@ -36,13 +51,68 @@ public class WebConfig implements WebMvcConfigurer {
      * Configures resource handlers to serve static resources.
      * This method maps requests to the /images/** path to an external directory specified
      * by the IMAGES_FOLDER_PATH property, allowing images to be served from outside the application's jar.
+     * It is only used with images.handler=resource, by default images are served by the ImageController.
      *
      * @param registry the ResourceHandlerRegistry to add resource handlers.
      */
     @Override
     public void addResourceHandlers(final ResourceHandlerRegistry registry) {
+        if (!"resource".equals(imagesHandler)) {
+            return;
+        }
         String externalPath = "file:" + IMAGES_FOLDER_PATH;
         registry.addResourceHandler("/images/**")
                 .addResourceLocations(externalPath);
     }
+
+    /**
+     * Registers the listing page converter ahead of the default ones,
+     * so listing pages are streamed to the response instead of going through the generic ObjectMapper.
+     *
+     * @param converters the converters configured by Spring
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new AdPageHttpMessageConverter());
+    }
+
+    /**
+     * Installs the bulkhead filter in front of the API endpoints.
+     * It only runs on the initial dispatch, the asynchronous part of a request is tracked by an AsyncListener.
+     *
+     * @param properties the limiter settings of the guarded endpoints
+     * @param registry       the registry the bulkhead metrics are published to
+     * @param retryAfterSecs the Retry-After of the rejected requests, the same as of the requests the JDBC executor rejects
+     * @return the registration of the bulkhead filter
+     */
+    @Bean
+    @ConditionalOnProperty(name = "bulkhead.enabled", havingValue = "true")
+    public FilterRegistrationBean<BulkheadFilter> bulkheadFilter(BulkheadProperties properties, MeterRegistry registry,
+                                                                 @Value("${jdbc.executor.retry-after-secs:1}") int retryAfterSecs) {
+        FilterRegistrationBean<BulkheadFilter> registration = new FilterRegistrationBean<>(new BulkheadFilter(properties, registry, retryAfterSecs));
+        registration.addUrlPatterns("/api/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        registration.setAsyncSupported(true);
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * Installs the rate limit filter in front of the API endpoints.
+     * It runs before the bulkheads, so that rate limited requests never take a bulkhead slot.
+     *
+     * @param properties the rates of the limited endpoints
+     * @param registry   the registry the rate limit metrics are published to
+     * @return the registration of the rate limit filter
+     */
+    @Bean
+    @ConditionalOnProperty(name = "rate-limit.enabled", havingValue = "true")
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(RateLimitProperties properties, MeterRegistry registry) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(new RateLimitFilter(properties, registry));
+        registration.addUrlPatterns("/api/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        registration.setAsyncSupported(true);
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        return registration;
+    }
 }
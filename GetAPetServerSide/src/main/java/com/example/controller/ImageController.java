@@ -0,0 +1,170 @@
+package com.example.controller;
+
+import com.example.utils.HotImageCache;
+import com.example.utils.ImageStore;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Controller serving the ad images under /images, in place of Spring's generic resource handler.
+ * Images come from the {@link HotImageCache} with their headers precomputed. Conditional requests are answered
+ * 304 from the ETag and Last-Modified validators, and a single byte range is answered 206.
+ * Cached images are written straight from their mapping, larger ones with Tomcat's sendfile.
+ * With an image store that offers direct download URLs, e.g. S3, requests are redirected to the store instead.
+ * Set images.handler=resource to go back to the generic resource handler, which only serves the local store.
+ */
+@Controller
+@ConditionalOnProperty(name = "images.handler", havingValue = "cached", matchIfMissing = true)
+public class ImageController {
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final HotImageCache hotImageCache;
+    private final ImageStore imageStore;
+
+    @Autowired
+    public ImageController(HotImageCache hotImageCache, ImageStore imageStore) {
+        this.hotImageCache = hotImageCache;
+        this.imageStore = imageStore;
+    }
+
+    /**
+     * Serves an image.
+     *
+     * @param path     the path of the image under /images
+     * @param request  the request, read for its conditional and range headers
+     * @param response the response the image is written to
+     * @throws IOException if the image cannot be read or written
+     */
+    @RequestMapping(value = "/images/{*path}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void getImage(@PathVariable("path") String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<String> downloadUrl = imageStore.downloadUrl(path.substring(1));
+        if (downloadUrl.isPresent()) {
+            // Temporary, the pre-signed URL expires
+            response.setStatus(HttpServletResponse.SC_FOUND);
+            response.setHeader(HttpHeaders.LOCATION, downloadUrl.get());
+            return;
+        }
+        HotImageCache.ImageFile image = hotImageCache.get(path.substring(1));
+        if (image == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, image.etag());
+        response.setHeader(HttpHeaders.LAST_MODIFIED, image.lastModified());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (isNotModified(request, image)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        long start = 0;
+        long end = image.length() - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && image.length() > 0 && isRangeFresh(request, image)) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                // Several ranges would need a multipart body, the whole image is served instead
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(image.length());
+                    end = ranges.get(0).getRangeEnd(image.length());
+                    if (start > end) {
+                        throw new IllegalArgumentException("Range starts after the end of the image");
+                    }
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.length());
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + image.length());
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+        long length = end - start + 1;
+        response.setContentType(image.contentType());
+        response.setContentLengthLong(length);
+        if (RequestMethod.HEAD.name().equals(request.getMethod()) || length == 0) {
+            return;
+        }
+        if (image.content() != null) {
+            write(response.getOutputStream(), image.content().slice((int) start, (int) length));
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // Tomcat sends the file from the kernel once the request returns
+            request.setAttribute(SENDFILE_FILENAME, image.path().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            try (FileChannel channel = FileChannel.open(image.path(), StandardOpenOption.READ)) {
+                channel.transferTo(start, length, Channels.newChannel(response.getOutputStream()));
+            }
+        }
+    }
+
+    /**
+     * Checks the If-None-Match and If-Modified-Since validators of a request, If-None-Match taking precedence.
+     *
+     * @return true if the client's copy of the image is current
+     */
+    private static boolean isNotModified(HttpServletRequest request, HotImageCache.ImageFile image) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(image.etag()) || tag.equals("W/" + image.etag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a resolution of one second
+        return ifModifiedSince != -1 && image.modifiedAt() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Checks the If-Range validator of a range request.
+     *
+     * @return true if the range applies to the current image, false if the whole image must be sent
+     */
+    private static boolean isRangeFresh(HttpServletRequest request, HotImageCache.ImageFile image) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        return ifRange == null || ifRange.equals(image.etag()) || ifRange.equals(image.lastModified());
+    }
+
+    /**
+     * Writes a mapped buffer to the response. Tomcat's stream takes the buffer as is,
+     * other containers get it through a channel.
+     */
+    private static void write(ServletOutputStream out, ByteBuffer content) throws IOException {
+        if (out instanceof CoyoteOutputStream coyote) {
+            coyote.write(content);
+        } else {
+            Channels.newChannel(out).write(content);
+        }
+    }
+}
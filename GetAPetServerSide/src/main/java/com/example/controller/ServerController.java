@@ -1,25 +1,43 @@
 package com.example.controller;
 
+import com.example.utils.AdFeed;
+import com.example.utils.AdFields;
 import com.example.utils.DatabaseService;
 import com.example.utils.DeleteImageFromServer;
+import com.example.utils.ImageUploads;
 import com.example.utils.SaveImageToServer;
+import com.example.utils.UserAvailability;
 import lombok.extern.slf4j.Slf4j;
 import org.postgresql.util.PSQLException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.InputStream;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Controller class for handling server-side requests.
- * This class includes endpoints for user registration, login, fetching ads,
- * creating new ads, deleting ads, and managing user favorite ads.
+ * This class includes endpoints for user registration and availability checks, login, fetching ads and single ads,
+ * syncing and streaming ad changes, chunked image uploads, creating new ads, deleting ads, and managing user favorite ads.
+ * Endpoints that touch the database run their work on the bounded JDBC executor and return a CompletableFuture,
+ * so the request thread is released at once. When the executor is saturated they answer 503 with Retry-After.
  */
 @RestController
 @Slf4j
@@ -29,12 +47,53 @@ public class ServerController {
     private final DatabaseService databaseService;
     private final SaveImageToServer saveImageToServer;
     private final DeleteImageFromServer deleteImageFromServer;
+    private final ExecutorService jdbcExecutor;
+    private final AdFeed adFeed;
+    private final ImageUploads imageUploads;
+
+    @Value("${jdbc.executor.retry-after-secs:1}")
+    private int retryAfterSecs;
+
+    @Value("${ads.multi-get.max-ids:100}")
+    private int maxMultiGetIds;
+
+    @Value("${ads.changes.max-changes:1000}")
+    private int maxChanges;
 
     @Autowired
-    public ServerController(DatabaseService databaseService, SaveImageToServer saveImageToServer, DeleteImageFromServer deleteImageFromServer) {
+    public ServerController(DatabaseService databaseService, SaveImageToServer saveImageToServer, DeleteImageFromServer deleteImageFromServer,
+                            @Qualifier("jdbcExecutor") ExecutorService jdbcExecutor, AdFeed adFeed, ImageUploads imageUploads) {
         this.databaseService = databaseService;
         this.saveImageToServer = saveImageToServer;
         this.deleteImageFromServer = deleteImageFromServer;
+        this.jdbcExecutor = jdbcExecutor;
+        this.adFeed = adFeed;
+        this.imageUploads = imageUploads;
+    }
+
+    /**
+     * Runs the work of an endpoint on the JDBC executor.
+     *
+     * @param work the work of the endpoint
+     * @return a future completed with the response of the endpoint
+     * @throws RejectedExecutionException if the executor is saturated
+     */
+    private <T> CompletableFuture<ResponseEntity<T>> onJdbcExecutor(Supplier<ResponseEntity<T>> work) {
+        return CompletableFuture.supplyAsync(work, jdbcExecutor);
+    }
+
+    /**
+     * Answers requests rejected by a saturated JDBC executor, so that clients back off instead of timing out.
+     *
+     * @param e the rejection
+     * @return ResponseEntity with status 503 and a Retry-After header
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> handleRejectedExecution(RejectedExecutionException e) {
+        log.warn("JDBC executor is saturated, rejecting request");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSecs))
+                .body("Server is busy, please try again later");
     }
 
     /**
@@ -49,23 +108,60 @@ public class ServerController {
      */
     @CrossOrigin(origins = "*")
     @PutMapping("/api/register")
-    public ResponseEntity<String> register(@RequestParam("username") String username,
-                                           @RequestParam("password") String password,
-                                           @RequestParam("display_name") String displayName,
-                                           @RequestParam("email") String email,
-                                           @RequestParam("phone") String phone) {
-        try {
-            databaseService.createUser(username, password, displayName, email, phone);
-            log.info("User created successfully: {}", username);
-            return ResponseEntity.ok("User created successfully: " + username);
-        } catch (DuplicateKeyException | PSQLException e) {
-            String detailMessage = extractErrorDetail(e.getMessage());
-            log.warn("Failed to create user - encountered a duplication, {}", e.getMessage());
-            return ResponseEntity.badRequest().body("Chosen " + detailMessage + " exists, please choose a different one");
-        } catch (Exception e) {
-            log.error("Failed to create user, {}", e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to create user: " + e.getMessage());
+    public CompletableFuture<ResponseEntity<String>> register(@RequestParam("username") String username,
+                                                              @RequestParam("password") String password,
+                                                              @RequestParam("display_name") String displayName,
+                                                              @RequestParam("email") String email,
+                                                              @RequestParam("phone") String phone) {
+        return onJdbcExecutor(() -> {
+            try {
+                databaseService.createUser(username, password, displayName, email, phone);
+                log.info("User created successfully: {}", username);
+                return ResponseEntity.ok("User created successfully: " + username);
+            } catch (DuplicateKeyException | PSQLException e) {
+                String detailMessage = extractErrorDetail(e.getMessage());
+                log.warn("Failed to create user - encountered a duplication, {}", e.getMessage());
+                return ResponseEntity.badRequest().body("Chosen " + detailMessage + " exists, please choose a different one");
+            } catch (Exception e) {
+                log.error("Failed to create user, {}", e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to create user: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Checks if the given username, display name, email and phone are still free, so the registration form can tell
+     * before it is submitted. Values that no user has are answered from memory.
+     *
+     * @param username the username to check (optional)
+     * @param displayName the display name to check (optional)
+     * @param email the email to check (optional)
+     * @param phone the phone number to check (optional)
+     * @return ResponseEntity with whether each given value is free, by field name
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/api/check_availability")
+    public CompletableFuture<ResponseEntity<Object>> checkAvailability(@RequestParam(value = "username", required = false) String username,
+                                                                       @RequestParam(value = "display_name", required = false) String displayName,
+                                                                       @RequestParam(value = "email", required = false) String email,
+                                                                       @RequestParam(value = "phone", required = false) String phone) {
+        if (username == null && displayName == null && email == null && phone == null) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body("At least one of username, display_name, email or phone is required"));
         }
+        Map<UserAvailability.Field, String> values = new EnumMap<>(UserAvailability.Field.class);
+        values.put(UserAvailability.Field.USERNAME, username);
+        values.put(UserAvailability.Field.DISPLAY_NAME, displayName);
+        values.put(UserAvailability.Field.EMAIL, email);
+        values.put(UserAvailability.Field.PHONE, phone);
+        return onJdbcExecutor(() -> {
+            try {
+                return ResponseEntity.ok(databaseService.checkAvailability(values));
+            } catch (Exception e) {
+                log.error("Failed to check availability, {}", e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to check availability");
+            }
+        });
     }
 
     /**
@@ -77,20 +173,22 @@ public class ServerController {
      */
     @CrossOrigin(origins = "*")
     @PostMapping("/api/login")
-    public ResponseEntity<String> login(@RequestParam("username") String username,
-                                        @RequestParam("password") String password) {
-        try {
-            String userProfile = databaseService.isAllowedToLogin(username, password);
-            if (userProfile != null) {
-                    log.info("Successfully logged in user {}", username);
-                    return ResponseEntity.ok(userProfile);
+    public CompletableFuture<ResponseEntity<String>> login(@RequestParam("username") String username,
+                                                           @RequestParam("password") String password) {
+        return onJdbcExecutor(() -> {
+            try {
+                String userProfile = databaseService.isAllowedToLogin(username, password);
+                if (userProfile != null) {
+                        log.info("Successfully logged in user {}", username);
+                        return ResponseEntity.ok(userProfile);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to login, {}", e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to login: " + e.getMessage());
             }
-        } catch (Exception e) {
-            log.warn("Failed to login, {}", e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to login: " + e.getMessage());
-        }
-        log.warn("Wrong user name or password, please try again");
-        return ResponseEntity.badRequest().body("Wrong user name or password, please try again");
+            log.warn("Wrong user name or password, please try again");
+            return ResponseEntity.badRequest().body("Wrong user name or password, please try again");
+        });
     }
 
     /**
@@ -99,7 +197,7 @@ public class ServerController {
      * @param message the getMessage from the error
      * @return String of details of a given error
      */
-    private String extractErrorDetail(String message) {
+    static String extractErrorDetail(String message) {
         try {
             Matcher matcher = patternKey.matcher(message);
             if (matcher.find()) {
@@ -114,25 +212,156 @@ public class ServerController {
     /**
      * Fetches all ads.
      *
-     * @param pageNum the page number
+     * @param pageNum the page number of the newest ads, the popular ads are paged by cursor and only take page 1
      * @param adsPerPage the number of ads per page
      * @param category the category of the ads (optional)
-     * @return ResponseEntity with a list of ads and the total number of ads
+     * @param userId the logged-in user, to flag the ads the user likes (optional)
+     * @param fields the comma separated ad fields to return, e.g. ad_id,pet_name,image_path for cards, all by default (optional)
+     * @param sort newest for the newest ads first, the default, or popular for the most liked ads first (optional)
+     * @param after the next cursor of the previous page of the popular ads, the first page without it (optional)
+     * @return ResponseEntity with a list of ads and the total number of ads, and for the popular ads the next cursor
      */
     @CrossOrigin(origins = "*")
     @GetMapping("/api/get_all_ads")
-    public ResponseEntity<Object> getAllAds(
+    public CompletableFuture<ResponseEntity<Object>> getAllAds(
             @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
             @RequestParam(value = "adsPerPage", defaultValue = "10") int adsPerPage,
-            @RequestParam(value = "category", required = false) String category) {
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "user_id", required = false) Integer userId,
+            @RequestParam(value = "fields", required = false) String fields,
+            @RequestParam(value = "sort", defaultValue = "newest") String sort,
+            @RequestParam(value = "after", required = false) String after) {
+        AdFields adFields;
+        DatabaseService.PopularCursor cursor;
         try {
-            List<DatabaseService.AdDetail> ads = databaseService.getGeneralAds(pageNum, adsPerPage, category);
-            long totalAds = databaseService.getTotalAdsCount(category);
-            log.info("Fetched total of {} ads", ads.size());
-            return ResponseEntity.ok(Map.of("ads", ads, "totalAds", totalAds));
-        } catch (Exception e) {
-            log.error("Failed to fetch ads: {}", e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to fetch ads");
+            adFields = AdFields.parse(fields);
+            cursor = DatabaseService.PopularCursor.parse(after);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        if (!sort.equals("newest") && !sort.equals("popular")) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Unknown sort " + sort));
+        }
+        if (sort.equals("newest") && after != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Only the popular ads are paged by cursor"));
+        }
+        if (sort.equals("popular") && pageNum != 1) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("The popular ads are paged by cursor, pass the next cursor as after"));
+        }
+        return onJdbcExecutor(() -> {
+            try {
+                if (sort.equals("popular")) {
+                    DatabaseService.AdPage page = databaseService.getPopularAds(adsPerPage, category, userId, adFields, cursor);
+                    log.info("Fetched total of {} popular ads", page.ads().size());
+                    return ResponseEntity.ok(page);
+                }
+                List<DatabaseService.AdDetail> ads = databaseService.getGeneralAds(pageNum, adsPerPage, category, userId, adFields);
+                long totalAds = databaseService.getTotalAdsCount(category, userId);
+                log.info("Fetched total of {} ads", ads.size());
+                return ResponseEntity.ok(new DatabaseService.AdPage(ads, totalAds, adFields));
+            } catch (Exception e) {
+                log.error("Failed to fetch ads: {}", e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ads");
+            }
+        });
+    }
+
+    /**
+     * Fetches a single ad, e.g. for a shared link or a detail view.
+     *
+     * @param adId the ad ID
+     * @param userId the logged-in user, to flag whether the user likes the ad (optional)
+     * @return ResponseEntity with the ad, or 404 if there is no such ad
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/api/ads/{id}")
+    public CompletableFuture<ResponseEntity<Object>> getAd(@PathVariable("id") int adId,
+                                                           @RequestParam(value = "user_id", required = false) Integer userId) {
+        return onJdbcExecutor(() -> {
+            try {
+                DatabaseService.AdDetail ad = databaseService.getAd(adId, userId);
+                if (ad == null) {
+                    log.info("No ad with ad id {}", adId);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Ad not found");
+                }
+                return ResponseEntity.ok(ad);
+            } catch (Exception e) {
+                log.error("Failed to fetch ad id {} {}", adId, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ad");
+            }
+        });
+    }
+
+    /**
+     * Fetches several ads by their IDs.
+     *
+     * @param adIds the ad IDs, comma separated
+     * @param userId the logged-in user, to flag the ads the user likes (optional)
+     * @return ResponseEntity with the ads that exist, in the requested order, and their number
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/api/ads")
+    public CompletableFuture<ResponseEntity<Object>> getAds(@RequestParam("ids") List<Integer> adIds,
+                                                            @RequestParam(value = "user_id", required = false) Integer userId) {
+        if (adIds.size() > maxMultiGetIds) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body("At most " + maxMultiGetIds + " ads can be fetched at once"));
+        }
+        return onJdbcExecutor(() -> {
+            try {
+                List<DatabaseService.AdDetail> ads = databaseService.getAds(adIds, userId);
+                log.info("Fetched {} of {} requested ads", ads.size(), adIds.size());
+                return ResponseEntity.ok(new DatabaseService.AdPage(ads, ads.size()));
+            } catch (Exception e) {
+                log.error("Failed to fetch ads {} {}", adIds, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ads");
+            }
+        });
+    }
+
+    /**
+     * Fetches what changed since a previous sync, so that a client keeping a copy of the listings doesn't refetch
+     * every page. The response holds the created ads, the IDs of the deleted ones, the changes to the user's favorites
+     * and the cursor to pass as since next time. When reset is set the client reloads its listings instead.
+     *
+     * @param since the cursor returned by the previous sync, omitted to get the current cursor before a first load (optional)
+     * @param userId the logged-in user, to sync the user's favorites and flag the ads the user likes (optional)
+     * @return ResponseEntity with the changes since the cursor
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/api/ads/changes")
+    public CompletableFuture<ResponseEntity<Object>> getAdChanges(@RequestParam(value = "since", required = false) Long since,
+                                                                  @RequestParam(value = "user_id", required = false) Integer userId) {
+        return onJdbcExecutor(() -> {
+            try {
+                DatabaseService.AdChanges changes = databaseService.getAdChanges(since, userId, maxChanges);
+                log.info("Fetched {} created and {} deleted ads since {}", changes.ads().size(), changes.deleted_ads().size(), since);
+                return ResponseEntity.ok(changes);
+            } catch (Exception e) {
+                log.error("Failed to fetch ad changes since {} {}", since, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ad changes");
+            }
+        });
+    }
+
+    /**
+     * Streams the ads created and deleted from now on as Server-Sent Events, in place of polling get_all_ads.
+     * Created ads are sent as ad_created events holding the ad, deleted ones as ad_deleted events holding its ID,
+     * and a reset event asks the client to reload the listing because events may have been missed.
+     *
+     * @param category the category of the created ads to stream (optional)
+     * @return the event stream, or 503 if the server has as many streams open as it can take
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping(value = "/api/ads/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamAds(@RequestParam(value = "category", required = false) String category) {
+        try {
+            return ResponseEntity.ok(adFeed.subscribe(category));
+        } catch (IllegalStateException e) {
+            log.warn("Rejected ad feed subscriber: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSecs))
+                    .build();
         }
     }
 
@@ -142,22 +371,32 @@ public class ServerController {
      * @param userId the user ID
      * @param pageNum the page number
      * @param adsPerPage the number of ads per page
+     * @param fields the comma separated ad fields to return, all by default (optional)
      * @return ResponseEntity with a list of user ads and the total number of user ads
      */
     @CrossOrigin(origins = "*")
     @GetMapping("/api/get_user_ads")
-    public ResponseEntity<Object> getUserAds(@RequestParam("user_id") int userId,
-                                             @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
-                                             @RequestParam(value = "adsPerPage", defaultValue = "10") int adsPerPage) {
+    public CompletableFuture<ResponseEntity<Object>> getUserAds(@RequestParam("user_id") int userId,
+                                                                @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
+                                                                @RequestParam(value = "adsPerPage", defaultValue = "10") int adsPerPage,
+                                                                @RequestParam(value = "fields", required = false) String fields) {
+        AdFields adFields;
         try {
-            List<DatabaseService.AdDetail> ads = databaseService.getUserAds(userId, pageNum, adsPerPage);
-            long totalAds = databaseService.getTotalUserAdsCount(userId);
-            log.info("User id {} created {} ads", userId, totalAds);
-            return ResponseEntity.ok(Map.of("ads", ads, "totalAds", totalAds));
-        } catch (Exception e) {
-            log.error("Failed to fetch ads for user id {} {}", userId, e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to fetch ads: " + e.getMessage());
+            adFields = AdFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
         }
+        return onJdbcExecutor(() -> {
+            try {
+                List<DatabaseService.AdDetail> ads = databaseService.getUserAds(userId, pageNum, adsPerPage, adFields);
+                long totalAds = databaseService.getTotalUserAdsCount(userId);
+                log.info("User id {} created {} ads", userId, totalAds);
+                return ResponseEntity.ok(new DatabaseService.AdPage(ads, totalAds, adFields));
+            } catch (Exception e) {
+                log.error("Failed to fetch ads for user id {} {}", userId, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ads: " + e.getMessage());
+            }
+        });
     }
 
     /**
@@ -166,21 +405,127 @@ public class ServerController {
      * @param userId the user ID
      * @param pageNum the page number
      * @param adsPerPage the number of ads per page
+     * @param fields the comma separated ad fields to return, all by default (optional)
      * @return ResponseEntity with a list of user favorite ads and the total number of user favorite ads
      */
     @CrossOrigin(origins = "*")
     @GetMapping("/api/get_user_favorites_ads")
-    public ResponseEntity<Object> getUserFavoritesAds(@RequestParam("user_id") int userId,
-                                                      @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
-                                                      @RequestParam(value = "adsPerPage", defaultValue = "10") int adsPerPage) {
+    public CompletableFuture<ResponseEntity<Object>> getUserFavoritesAds(@RequestParam("user_id") int userId,
+                                                                         @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
+                                                                         @RequestParam(value = "adsPerPage", defaultValue = "10") int adsPerPage,
+                                                                         @RequestParam(value = "fields", required = false) String fields) {
+        AdFields adFields;
+        try {
+            adFields = AdFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        return onJdbcExecutor(() -> {
+            try {
+                List<DatabaseService.AdDetail> ads = databaseService.getUserFavoritesAds(userId, pageNum, adsPerPage, adFields);
+                log.info("User id {} has {} favorite ads", userId, ads.size());
+                long totalFavAds = databaseService.getTotalUserFavoriteAdsCount(userId);
+                return ResponseEntity.ok(new DatabaseService.AdPage(ads, totalFavAds, adFields));
+            } catch (Exception e) {
+                log.error("Failed to fetch ads for user id {} {}", userId, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to fetch ads: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Starts a resumable chunked upload of an ad image, for images larger than create_new_ad takes.
+     * The chunks are then sent to /api/uploads/{id}/chunks/{index} and the upload is completed with
+     * /api/uploads/{id}/complete, after which the ad is created with the upload ID.
+     *
+     * @param userId the ID of the user uploading the image
+     * @param fileName the name of the image file
+     * @param contentType the content type of the image, jpg/jpeg/png
+     * @param size the size of the image in bytes
+     * @param sha256 the hex SHA-256 of the image, checked on completion
+     * @return ResponseEntity with the upload ID, the chunk size and the chunks to send, or 503 if the server has as
+     * many uploads in progress as it can take
+     */
+    @CrossOrigin(origins = "*")
+    @PostMapping("/api/uploads")
+    public ResponseEntity<Object> startUpload(@RequestParam("user_id") int userId,
+                                              @RequestParam("file_name") String fileName,
+                                              @RequestParam("content_type") String contentType,
+                                              @RequestParam("size") long size,
+                                              @RequestParam("sha256") String sha256) {
         try {
-            List<DatabaseService.AdDetail> ads = databaseService.getUserFavoritesAds(userId, pageNum, adsPerPage);
-            log.info("User id {} has {} favorite ads", userId, ads.size());
-            long totalFavAds = databaseService.getTotalUserFavoriteAdsCount(userId);
-            return ResponseEntity.ok(Map.of("ads", ads, "totalAds", totalFavAds));
+            return ResponseEntity.ok(imageUploads.start(userId, fileName, contentType, size, sha256));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            log.warn("Rejected image upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSecs))
+                    .build();
         } catch (Exception e) {
-            log.error("Failed to fetch ads for user id {} {}", userId, e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to fetch ads: " + e.getMessage());
+            log.error("Failed to start image upload: {}", e.getMessage());
+            return ResponseEntity.internalServerError().body("Failed to start upload");
+        }
+    }
+
+    /**
+     * Returns the state of an upload, so that an interrupted upload is resumed with its missing chunks.
+     *
+     * @param uploadId the upload ID
+     * @return ResponseEntity with the chunks still to send, or 404 if there is no such upload in progress
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/api/uploads/{id}")
+    public ResponseEntity<Object> getUpload(@PathVariable("id") String uploadId) {
+        ImageUploads.UploadStatus status = imageUploads.status(uploadId);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.status(HttpStatus.NOT_FOUND).body("Upload not found");
+    }
+
+    /**
+     * Writes a chunk of an upload, sent as the raw request body. A chunk may be sent again, in any order.
+     *
+     * @param uploadId the upload ID
+     * @param index the index of the chunk, from 0
+     * @param content the chunk, chunk_size bytes but for the last chunk
+     * @return ResponseEntity with the chunks still to send, or 404 if there is no such upload in progress
+     */
+    @CrossOrigin(origins = "*")
+    @PutMapping("/api/uploads/{id}/chunks/{index}")
+    public ResponseEntity<Object> putUploadChunk(@PathVariable("id") String uploadId,
+                                                 @PathVariable("index") int index,
+                                                 InputStream content) {
+        try {
+            ImageUploads.UploadStatus status = imageUploads.writeChunk(uploadId, index, content);
+            return status != null ? ResponseEntity.ok(status) : ResponseEntity.status(HttpStatus.NOT_FOUND).body("Upload not found");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to write chunk {} of upload {}: {}", index, uploadId, e.getMessage());
+            return ResponseEntity.internalServerError().body("Failed to write chunk");
+        }
+    }
+
+    /**
+     * Completes an upload once all its chunks were sent. The image is checked against its SHA-256, downscaled if it is
+     * larger than the stored size and stored, to be used by create_new_ad with the upload ID.
+     *
+     * @param uploadId the upload ID
+     * @param userId the ID of the user that started the upload
+     * @return ResponseEntity with the stored image, 409 if chunks are missing, 400 if the image is not valid, or 404
+     * if the user has no such upload
+     */
+    @CrossOrigin(origins = "*")
+    @PostMapping("/api/uploads/{id}/complete")
+    public ResponseEntity<Object> completeUpload(@PathVariable("id") String uploadId,
+                                                 @RequestParam("user_id") int userId) {
+        try {
+            ImageUploads.UploadedImage image = imageUploads.complete(uploadId, userId);
+            return image != null ? ResponseEntity.ok(image) : ResponseEntity.status(HttpStatus.NOT_FOUND).body("Upload not found");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to complete upload {}: {}", uploadId, e.getMessage());
+            return ResponseEntity.badRequest().body("Failed to complete upload: " + e.getMessage());
         }
     }
 
@@ -195,11 +540,12 @@ public class ServerController {
      * @param petGender the gender of the pet
      * @param adContent the content of the ad
      * @param imageFile the image file for the ad (optional)
+     * @param uploadId the ID of a completed chunked upload holding the image, in place of imageFile (optional)
      * @return ResponseEntity with a success or an error message
      */
     @CrossOrigin(origins = "*")
     @PutMapping("/api/create_new_ad")
-    public ResponseEntity<String> createNewAd(
+    public CompletableFuture<ResponseEntity<String>> createNewAd(
             @RequestParam("user_name") String userName,
             @RequestParam("user_id") String authorId,
             @RequestParam("category") String category,
@@ -207,53 +553,81 @@ public class ServerController {
             @RequestParam("pet_age") Double petAge,
             @RequestParam("pet_gender") String petGender,
             @RequestParam("ad_content") String adContent,
-            @RequestParam(value = "image", required = false) MultipartFile imageFile) {
-        String msg = null;
-        String fullImagePath = null;
-        try {
-            if(!databaseService.isAllowedToCreateAd(userName, authorId)) {
-                return ResponseEntity.badRequest().body("Must be a registered user to create an ad");
+            @RequestParam(value = "image", required = false) MultipartFile imageFile,
+            @RequestParam(value = "upload_id", required = false) String uploadId) {
+        return onJdbcExecutor(() -> {
+            String msg = null;
+            String fullImagePath = null;
+            try {
+                if(!databaseService.isAllowedToCreateAd(userName, authorId)) {
+                    return ResponseEntity.badRequest().body("Must be a registered user to create an ad");
+                }
+                String relativeImagePath = uploadId != null
+                        ? imageUploads.claim(uploadId, Integer.parseInt(authorId))
+                        : saveImageToServer.saveImage(imageFile);
+                fullImagePath = relativeImagePath.isEmpty() ? "" : "/images/" + relativeImagePath; // Construct the full URL to the image
+                int categoryId = databaseService.findCategoryIdByName(category);
+                if (authorId != null) {
+                    databaseService.createNewAd(categoryId, Integer.parseInt(authorId), petName, petAge, petGender, adContent, fullImagePath);
+                    log.info("Ad created successfully for user {} and pet {}", userName, petName);
+                    return ResponseEntity.ok("Ad created successfully for pet " + petName);
+                }
+            } catch (Exception e) {
+                msg = e.getMessage();
+                log.error("Failed to create ad: {}", msg);
             }
-            String relativeImagePath = saveImageToServer.saveImage(imageFile);
-            fullImagePath = relativeImagePath.isEmpty() ? "" : "/images/" + relativeImagePath; // Construct the full URL to the image
-            int categoryId = databaseService.findCategoryIdByName(category);
-            if (authorId != null) {
-                databaseService.createNewAd(categoryId, Integer.parseInt(authorId), petName, petAge, petGender, adContent, fullImagePath);
-                log.info("Ad created successfully for user {} and pet {}", userName, petName);
-                return ResponseEntity.ok("Ad created successfully for pet " + petName);
-            }
-        } catch (Exception e) {
-            msg = e.getMessage();
-            log.error("Failed to create ad: {}", msg);
-        }
-        deleteImageFromServer.deleteImage(fullImagePath); //deleting the image if the ad was not created successfully
-        return ResponseEntity.badRequest().body("Failed to create ad: " + msg);
+            deleteImageFromServer.deleteImage(fullImagePath); //deleting the image if the ad was not created successfully
+            return ResponseEntity.badRequest().body("Failed to create ad: " + msg);
+        });
     }
 
     /**
-     * Deletes an ad.
+     * Deletes an ad. The ad leaves the listings at once, its favorites and its image are removed in the background.
      *
      * @param adId the ID of the ad to be deleted
-     * @param imagePath the path of the image associated with the ad
      * @return ResponseEntity with a success or an error message
      */
     @CrossOrigin(origins = "*")
     @DeleteMapping("/api/delete_ad")
-    public ResponseEntity<String> deleteAd(
-            @RequestParam("ad_id") int adId,
-            @RequestParam("image_path") String imagePath) {
-        String msg = null;
-        try {
-            databaseService.deleteAd(adId);
-            if (deleteImageFromServer.deleteImage(imagePath)) {
+    public CompletableFuture<ResponseEntity<String>> deleteAd(
+            @RequestParam("ad_id") int adId) {
+        return onJdbcExecutor(() -> {
+            String msg = null;
+            try {
+                databaseService.deleteAd(adId);
                 log.info("Ad was deleted successfully");
                 return ResponseEntity.ok("Ad was deleted successfully");
+            } catch (Exception e) {
+                msg = e.getMessage();
+                log.error("Failed to delete ad: {}", msg);
             }
-        } catch (Exception e) {
-            msg = e.getMessage();
-            log.error("Failed to delete ad: {}", msg);
-        }
-        return ResponseEntity.badRequest().body("Failed to delete ad: " + msg);
+            return ResponseEntity.badRequest().body("Failed to delete ad: " + msg);
+        });
+    }
+
+    /**
+     * Marks the pet of an ad as adopted, which takes the ad off the listings and archives it.
+     *
+     * @param adId the ad ID
+     * @param userId the ID of the user that created the ad
+     * @return ResponseEntity with a success message, or 404 if the user has no such active ad
+     */
+    @CrossOrigin(origins = "*")
+    @PutMapping("/api/ads/{id}/adopted")
+    public CompletableFuture<ResponseEntity<String>> markAdopted(@PathVariable("id") int adId,
+                                                                 @RequestParam("user_id") int userId) {
+        return onJdbcExecutor(() -> {
+            try {
+                if (!databaseService.markAdopted(adId, userId)) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Ad not found");
+                }
+                log.info("Ad id {} was marked as adopted", adId);
+                return ResponseEntity.ok("Ad was marked as adopted");
+            } catch (Exception e) {
+                log.error("Failed to mark ad id {} as adopted: {}", adId, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to mark ad as adopted");
+            }
+        });
     }
 
     /**
@@ -261,23 +635,27 @@ public class ServerController {
      *
      * @param authorId the user ID
      * @param adId the ad ID
-     * @return ResponseEntity with a success or an error message
+     * @return ResponseEntity with a success or an error message, or 404 if there is no such active ad
      */
     @CrossOrigin(origins = "*")
     @PutMapping("/api/add_ads_to_favorites")
-    public ResponseEntity<Object> insertAdsToFavorites(@RequestParam("user_id") int authorId,
-                                                       @RequestParam("ad_id") int adId) {
-        try {
-            databaseService.insertAdsToFavorites(authorId, adId);
-            log.info("User id  {} now likes ad ID {} ", authorId, adId);
-            return ResponseEntity.ok("Ad was successfully added to favorites");
-        } catch (DuplicateKeyException | PSQLException e) {
-            log.warn("Failed to add to favorites", e);
-            return ResponseEntity.badRequest().body("Ad is already in favorites");
-        } catch (Exception e) {
-            log.error("Failed to add to favorites user id {} ad ID {} {}", authorId, adId, e.getMessage());
-            return ResponseEntity.badRequest().body("Failed to add to favorites: " + extractErrorDetail(e.getMessage()));
-        }
+    public CompletableFuture<ResponseEntity<Object>> insertAdsToFavorites(@RequestParam("user_id") int authorId,
+                                                                          @RequestParam("ad_id") int adId) {
+        return onJdbcExecutor(() -> {
+            try {
+                if (!databaseService.insertAdsToFavorites(authorId, adId)) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Ad not found");
+                }
+                log.info("User id  {} now likes ad ID {} ", authorId, adId);
+                return ResponseEntity.ok("Ad was successfully added to favorites");
+            } catch (DuplicateKeyException | PSQLException e) {
+                log.warn("Failed to add to favorites", e);
+                return ResponseEntity.badRequest().body("Ad is already in favorites");
+            } catch (Exception e) {
+                log.error("Failed to add to favorites user id {} ad ID {} {}", authorId, adId, e.getMessage());
+                return ResponseEntity.badRequest().body("Failed to add to favorites: " + extractErrorDetail(e.getMessage()));
+            }
+        });
     }
 
     /**
@@ -289,18 +667,20 @@ public class ServerController {
      */
     @CrossOrigin(origins = "*")
     @DeleteMapping("/api/delete_ad_from_favorites")
-    public ResponseEntity<String> deleteAdFromFavorites(
+    public CompletableFuture<ResponseEntity<String>> deleteAdFromFavorites(
             @RequestParam("user_id") int userId,
             @RequestParam("ad_id") int adId) {
-        String msg = null;
-        try {
-            databaseService.deleteAdFromFavorites(userId, adId);
-            log.info("Favorite ad was removed successfully from the favorites of the user");
-            return ResponseEntity.ok("Favorite ad was removed successfully from the favorites of the user");
-        } catch (Exception e) {
-            msg = e.getMessage();
-            log.error("Failed to removed favorite ad: {}", msg);
-        }
-        return ResponseEntity.badRequest().body("Failed to removed favorite ad: " + msg);
+        return onJdbcExecutor(() -> {
+            String msg = null;
+            try {
+                databaseService.deleteAdFromFavorites(userId, adId);
+                log.info("Favorite ad was removed successfully from the favorites of the user");
+                return ResponseEntity.ok("Favorite ad was removed successfully from the favorites of the user");
+            } catch (Exception e) {
+                msg = e.getMessage();
+                log.error("Failed to removed favorite ad: {}", msg);
+            }
+            return ResponseEntity.badRequest().body("Failed to removed favorite ad: " + msg);
+        });
     }
 }
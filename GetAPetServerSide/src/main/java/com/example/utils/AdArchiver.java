@@ -0,0 +1,124 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the ads past their expires_at, which includes the adopted ones, out of the live tables, so that the listing
+ * reads and their indexes only cover the ads that can still be answered. An ad is moved with its favorites to
+ * ads_archive and favorites_archive in one transaction per batch, and its image to the image archive once the batch
+ * has committed, and its favorites are dropped from the {@link FavoritesIndex}. The batch is locked with SKIP LOCKED, so the archivers of several nodes take different ads instead
+ * of waiting on each other, and a user writing to an ad never waits for the archiver.
+ */
+@Service
+@Slf4j
+public class AdArchiver {
+
+    // The favorites are deleted in the same statement as their ads, the foreign key is checked at its end
+    static final String SQL_ARCHIVE_EXPIRED_ADS = """
+            WITH expired AS (
+                SELECT id FROM ads
+                WHERE expires_at <= (CURRENT_TIMESTAMP AT TIME ZONE 'UTC') AND deleted_at IS NULL
+                order by expires_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ), archived_favorites AS (
+                DELETE FROM favorites f USING expired e WHERE f.ad_id = e.id
+                RETURNING f.user_id, f.ad_id
+            ), saved_favorites AS (
+                INSERT INTO favorites_archive (user_id, ad_id)
+                SELECT user_id, ad_id FROM archived_favorites
+                ON CONFLICT DO NOTHING
+            ), archived AS (
+                DELETE FROM ads a USING expired e WHERE a.id = e.id
+                RETURNING a.*
+            ), saved AS (
+                INSERT INTO ads_archive (id, author_id, category_id, pet_name, pet_age, pet_gender, ad_content, image_path, created_at, status, expires_at)
+                SELECT id, author_id, category_id, pet_name, pet_age, pet_gender, ad_content, image_path, created_at, status, expires_at
+                FROM archived
+            )
+            SELECT a.id AS ad_id, a.image_path,
+                   (SELECT string_agg(f.user_id::text, ',') FROM archived_favorites f WHERE f.ad_id = a.id) AS liked_by
+            FROM archived a;
+            """;
+    private static final String IMAGES = "/images/";
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    private final ImageStore imageStore;
+    private final AdCache adCache;
+    private final AdFeed adFeed;
+    private final FavoritesIndex favoritesIndex;
+    private final boolean enabled;
+    private final int batchSize;
+
+    @Autowired
+    public AdArchiver(ExecuteQuery executeQuery, ImageStore imageStore, AdCache adCache, AdFeed adFeed, FavoritesIndex favoritesIndex,
+                      @Value("${ads.archive.enabled:true}") boolean enabled,
+                      @Value("${ads.archive.batch-size:500}") int batchSize) {
+        this.eq = executeQuery;
+        this.imageStore = imageStore;
+        this.adCache = adCache;
+        this.adFeed = adFeed;
+        this.favoritesIndex = favoritesIndex;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Archives the expired ads, one batch per transaction until there are none left.
+     * The other nodes drop the archived ads from their caches through the cache events of the deletes, this node
+     * drops them itself and sends their deletion to the ad feed.
+     *
+     * @return the number of ads archived
+     */
+    @Scheduled(fixedDelayString = "${ads.archive.run-ms:60000}", initialDelayString = "${ads.archive.run-ms:60000}")
+    public long archive() {
+        if (!enabled) {
+            return 0;
+        }
+        long total = 0;
+        int failedImages = 0;
+        try {
+            List<Map<String, Object>> archived;
+            do {
+                archived = eq.queryDB(RETRY, SQL_ARCHIVE_EXPIRED_ADS, batchSize);
+                for (Map<String, Object> row : archived) {
+                    int adId = (Integer) row.get("ad_id");
+                    adCache.invalidate(adId);
+                    adFeed.publishDeleted(adId);
+                    String likedBy = (String) row.get("liked_by");
+                    if (likedBy != null) {
+                        for (String userId : likedBy.split(",")) {
+                            favoritesIndex.remove(Integer.parseInt(userId), adId);
+                        }
+                    }
+                    if (!archiveImage((String) row.get("image_path"))) {
+                        failedImages++;
+                    }
+                }
+                total += archived.size();
+            } while (archived.size() == batchSize);
+        } catch (SQLException e) {
+            log.error("Failed to archive the expired ads: {}", e.getMessage());
+        }
+        if (total > 0) {
+            log.info("Archived {} expired ads, {} of their images could not be archived", total, failedImages);
+        }
+        return total;
+    }
+
+    private boolean archiveImage(String imagePath) {
+        if (imagePath == null || imagePath.isEmpty()) {
+            return true;
+        }
+        return imageStore.archive(imagePath.startsWith(IMAGES) ? imagePath.substring(IMAGES.length()) : imagePath);
+    }
+}
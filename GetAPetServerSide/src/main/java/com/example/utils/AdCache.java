@@ -0,0 +1,124 @@
+package com.example.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of single ads, keyed by ad ID and evicted least recently used first.
+ * Ads are never edited, so an entry only goes stale when its ad is deleted, which {@link DatabaseService#deleteAd(int)}
+ * reports through {@link #invalidate(int)}, and the deletes of other nodes reach it through the {@link CacheInvalidationBus}.
+ * Cached ads carry no is_favorite flag, it is set per request.
+ */
+@Service
+public class AdCache implements CacheInvalidationListener {
+
+    private final int maxEntries;
+    // Access ordered, so that the eldest entry is the least recently used one. Guarded by this
+    private final LinkedHashMap<Integer, DatabaseService.AdDetail> ads;
+    // Bumped by every invalidation, so that a load that raced with a delete doesn't cache the deleted ad
+    private long invalidations;
+
+    @Autowired
+    public AdCache(@Value("${ads.cache.max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.ads = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, DatabaseService.AdDetail> eldest) {
+                return size() > AdCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached ad.
+     *
+     * @param adId the ad ID
+     * @return the ad, or null if it is not cached
+     */
+    public synchronized DatabaseService.AdDetail get(int adId) {
+        return ads.get(adId);
+    }
+
+    /**
+     * Returns the cached ones of several ads.
+     *
+     * @param adIds the ad IDs
+     * @return the cached ads by ad ID, a mutable map without the ads that are not cached
+     */
+    public synchronized Map<Integer, DatabaseService.AdDetail> getAll(Collection<Integer> adIds) {
+        Map<Integer, DatabaseService.AdDetail> found = new HashMap<>();
+        for (Integer adId : adIds) {
+            DatabaseService.AdDetail ad = ads.get(adId);
+            if (ad != null) {
+                found.put(adId, ad);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the current invalidation stamp, to be taken before loading ads that will be passed to {@link #putAll}.
+     *
+     * @return the number of invalidations so far
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches ads loaded from the database, unless an ad was invalidated since the load started,
+     * in which case the loaded ads may include it and none of them is cached.
+     *
+     * @param loaded the loaded ads
+     * @param stamp  the stamp taken before the load
+     */
+    public synchronized void putAll(Collection<DatabaseService.AdDetail> loaded, long stamp) {
+        if (stamp != invalidations) {
+            return;
+        }
+        for (DatabaseService.AdDetail ad : loaded) {
+            ads.put(ad.ad_id(), ad);
+        }
+    }
+
+    /**
+     * Drops an ad that was deleted.
+     *
+     * @param adId the ad ID
+     */
+    public synchronized void invalidate(int adId) {
+        invalidations++;
+        ads.remove(adId);
+    }
+
+    /**
+     * Drops an ad deleted by another node, this node's deletes were already invalidated by {@link DatabaseService#deleteAd(int)}.
+     */
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (event.change() == Change.AD_DELETED && !event.local()) {
+            invalidate(event.adId());
+        }
+    }
+
+    @Override
+    public synchronized void onFlush() {
+        invalidations++;
+        ads.clear();
+    }
+
+    /**
+     * Returns the number of cached ads.
+     *
+     * @return the number of cached ads
+     */
+    public synchronized int size() {
+        return ads.size();
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+
+/**
+ * Trims the ad_changes log read by /api/ads/changes, which would otherwise keep a row for every ad and favorite
+ * ever written. Changes older than the retention are deleted in batches, and the horizon is raised past them in the
+ * same transaction, so that a client whose cursor is older than what the log holds is told to reload instead of
+ * silently missing changes.
+ */
+@Service
+@Slf4j
+public class AdChangeCompactor {
+
+    // Every deleted change is below the new horizon, even when an older transaction's changes are kept
+    static final String SQL_COMPACT_AD_CHANGES = """
+            WITH removed AS (
+                DELETE FROM ad_changes WHERE seq IN (
+                    SELECT seq FROM ad_changes
+                    WHERE changed_at < (CURRENT_TIMESTAMP AT TIME ZONE 'UTC') - make_interval(hours => ?)
+                    LIMIT ?
+                )
+                RETURNING txid
+            )
+            UPDATE ad_changes_horizon SET txid = GREATEST(txid, (SELECT MAX(txid) + 1 FROM removed))
+            RETURNING (SELECT COUNT(*) FROM removed) AS count;
+            """;
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    private final int retentionHours;
+    private final int batchSize;
+
+    @Autowired
+    public AdChangeCompactor(ExecuteQuery executeQuery,
+                             @Value("${ads.changes.retention-hours:168}") int retentionHours,
+                             @Value("${ads.changes.compact-batch-size:10000}") int batchSize) {
+        this.eq = executeQuery;
+        this.retentionHours = retentionHours;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Deletes the changes older than the retention, one batch per transaction so that writers are never held up long.
+     *
+     * @return the number of changes deleted
+     */
+    @Scheduled(fixedDelayString = "${ads.changes.compact-ms:3600000}", initialDelayString = "${ads.changes.compact-ms:3600000}")
+    public long compact() {
+        long total = 0;
+        try {
+            long removed;
+            do {
+                removed = (Long) eq.queryDB(RETRY, SQL_COMPACT_AD_CHANGES, retentionHours, batchSize).get(0).get("count");
+                total += removed;
+            } while (removed == batchSize);
+        } catch (SQLException e) {
+            log.error("Failed to compact the ad changes: {}", e.getMessage());
+        }
+        if (total > 0) {
+            log.info("Compacted {} ad changes older than {} hours", total, retentionHours);
+        }
+        return total;
+    }
+}
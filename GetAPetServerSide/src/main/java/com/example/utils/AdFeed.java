@@ -0,0 +1,235 @@
+package com.example.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live feed of created and deleted ads, pushed to the clients of /api/ads/stream as Server-Sent Events.
+ * The feed is driven by the ad write paths of {@link DatabaseService}, and by the {@link CacheInvalidationBus} for the
+ * ads written by other nodes. Each event is serialized once and handed to every subscriber.
+ * A subscriber holds no thread while idle, its events wait in a bounded queue that a small shared pool of sender
+ * threads drains. A subscriber whose queue fills up is too slow to keep up and is dropped, its client reconnects.
+ */
+@Service
+@Slf4j
+public class AdFeed implements CacheInvalidationListener {
+
+    private static final int RETRY = 0;
+    private static final long RECONNECT_MILLIS = 3000;
+
+    private final ExecuteQuery eq;
+    private final int maxSubscribers;
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final Executor senders;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A connected client, the category it follows and the events waiting to be written to it.
+     */
+    private record Subscriber(SseEmitter emitter, String category, BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue,
+                              AtomicBoolean draining) {}
+
+    @Autowired
+    public AdFeed(ExecuteQuery executeQuery,
+                  @Value("${ads.stream.max-subscribers:10000}") int maxSubscribers,
+                  @Value("${ads.stream.buffer-size:32}") int bufferSize,
+                  @Value("${ads.stream.timeout-ms:1800000}") long timeoutMillis,
+                  @Value("${ads.stream.sender-threads:4}") int senderThreads) {
+        this(executeQuery, maxSubscribers, bufferSize, timeoutMillis, Executors.newFixedThreadPool(senderThreads, senderThreadFactory()));
+    }
+
+    AdFeed(ExecuteQuery executeQuery, int maxSubscribers, int bufferSize, long timeoutMillis, Executor senders) {
+        this.eq = executeQuery;
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.senders = senders;
+    }
+
+    private static ThreadFactory senderThreadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "ad-feed-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Subscribes a client to the feed.
+     *
+     * @param category the category of the created ads to send, null for all of them. Deleted ads are sent to every
+     *                 subscriber, since the deleted ad may be on any of its client's pages
+     * @return the emitter streaming the events to the client
+     * @throws IllegalStateException if the feed already has as many subscribers as it can take
+     */
+    public SseEmitter subscribe(String category) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("The ad feed is full");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, category == null || category.isEmpty() ? null : category,
+                new ArrayBlockingQueue<>(bufferSize), new AtomicBoolean());
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        // The client reconnects once the stream times out
+        emitter.onTimeout(emitter::complete);
+        subscribers.add(subscriber);
+        // Commits the response, so that the client knows it is connected
+        enqueue(subscriber, SseEmitter.event().reconnectTime(RECONNECT_MILLIS).comment("connected").build());
+        return emitter;
+    }
+
+    /**
+     * Sends a created ad to the subscribers of its category.
+     *
+     * @param ad the created ad
+     */
+    public void publishCreated(DatabaseService.AdDetail ad) {
+        if (!subscribers.isEmpty()) {
+            publish(ad.category(), SseEmitter.event().name("ad_created").data(JsonWriter.toJson(ad)).build());
+        }
+    }
+
+    /**
+     * Sends a deleted ad to every subscriber.
+     *
+     * @param adId the ID of the deleted ad
+     */
+    public void publishDeleted(int adId) {
+        if (!subscribers.isEmpty()) {
+            publish(null, SseEmitter.event().name("ad_deleted").data("{\"ad_id\":" + adId + "}").build());
+        }
+    }
+
+    /**
+     * Sends a comment to every subscriber, so that proxies keep idle streams open and dead clients are noticed.
+     */
+    @Scheduled(fixedDelayString = "${ads.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        publish(null, SseEmitter.event().comment("heartbeat").build());
+    }
+
+    /**
+     * Returns the number of connected clients.
+     *
+     * @return the number of subscribers
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Sends the ads created and deleted by other nodes, this node's own were sent by its write paths.
+     */
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (event.local() || subscribers.isEmpty()) {
+            return;
+        }
+        if (event.change() == Change.AD_DELETED) {
+            publishDeleted(event.adId());
+        } else if (event.change() == Change.AD_CREATED) {
+            try {
+                for (Map<String, Object> row : eq.queryDB(RETRY, DatabaseService.SQL_GET_AD, event.adId())) {
+                    publishCreated(ResultSetMapper.mapRowToRecord(row, DatabaseService.AdDetail.class));
+                }
+            } catch (SQLException e) {
+                log.error("Failed to load created ad id {} for the ad feed: {}", event.adId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tells every subscriber that ads may have been missed, so that its client reloads the listing.
+     */
+    @Override
+    public void onFlush() {
+        publish(null, SseEmitter.event().name("reset").data("{}").build());
+    }
+
+    /**
+     * Ends every stream when the server shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter().complete();
+        }
+        if (senders instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    private void publish(String category, Set<ResponseBodyEmitter.DataWithMediaType> event) {
+        for (Subscriber subscriber : subscribers) {
+            if (category == null || subscriber.category() == null || subscriber.category().equals(category)) {
+                enqueue(subscriber, event);
+            }
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, Set<ResponseBodyEmitter.DataWithMediaType> event) {
+        if (!subscriber.queue().offer(event)) {
+            drop(subscriber);
+            return;
+        }
+        if (subscriber.draining().compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    /**
+     * Writes the queued events of a subscriber. At most one sender drains a subscriber at a time, so its events
+     * keep their order.
+     */
+    private void drain(Subscriber subscriber) {
+        try {
+            do {
+                Set<ResponseBodyEmitter.DataWithMediaType> event;
+                while ((event = subscriber.queue().poll()) != null) {
+                    subscriber.emitter().send(event);
+                }
+                subscriber.draining().set(false);
+            } while (!subscriber.queue().isEmpty() && subscriber.draining().compareAndSet(false, true));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away, or the stream was completed
+            subscribers.remove(subscriber);
+            subscriber.queue().clear();
+            log.debug("Ad feed subscriber disconnected: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Drops a subscriber that doesn't keep up. The stream is completed on a sender thread, so that the publishing
+     * write path doesn't wait for a write in progress to the slow client.
+     */
+    private void drop(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            log.warn("Dropped a slow ad feed subscriber with {} events pending", subscriber.queue().size());
+            subscriber.queue().clear();
+            senders.execute(() -> subscriber.emitter().complete());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fields of {@link DatabaseService.AdDetail} a client asked for with the fields parameter of a listing endpoint.
+ * The listing queries select only the matching columns, and {@link JsonWriter} writes only these fields, so a view
+ * showing cards never reads or sends the content and contact details of the ads.
+ * ad_id is always part of the fields, it is what the client keys the ads by.
+ * Instances are shared per set of fields, together with the queries rewritten for them.
+ */
+public final class AdFields {
+
+    /**
+     * The fields of an ad, named like its columns. is_favorite is not a column, it is set from the favorites index.
+     */
+    public enum Field {
+        AD_ID, DISPLAY_NAME, EMAIL, PHONE, PET_NAME, CATEGORY, PET_AGE, PET_GENDER, AD_CONTENT, IMAGE_PATH, CREATED_AT, IS_FAVORITE;
+
+        private final String column = name().toLowerCase();
+
+        public String column() {
+            return column;
+        }
+
+        private int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+    private static final AdFields[] INSTANCES = new AdFields[1 << FIELDS.length];
+    public static final AdFields ALL = of((1 << FIELDS.length) - 1);
+    // The select list of the listing queries, with and without the ad_listing alias they use
+    private static final String ALL_COLUMNS = ALL.columns("");
+    private static final String ALL_ALIASED_COLUMNS = ALL.columns("l.");
+
+    private final int mask;
+    private final Map<String, String> projectedQueries = new ConcurrentHashMap<>();
+
+    private AdFields(int mask) {
+        this.mask = mask;
+    }
+
+    private static synchronized AdFields of(int mask) {
+        int withId = mask | Field.AD_ID.bit();
+        if (INSTANCES[withId] == null) {
+            INSTANCES[withId] = new AdFields(withId);
+        }
+        return INSTANCES[withId];
+    }
+
+    /**
+     * Parses the fields parameter of a listing endpoint.
+     *
+     * @param fields the comma separated field names, null or blank for every field
+     * @return the fields
+     * @throws IllegalArgumentException if a field name is unknown
+     */
+    public static AdFields parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        int mask = 0;
+        for (String name : fields.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                mask |= Field.valueOf(trimmed.toUpperCase()).bit();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown field " + trimmed);
+            }
+        }
+        return of(mask);
+    }
+
+    /**
+     * Checks if a field was asked for.
+     *
+     * @param field the field
+     * @return true if the field is to be read and written
+     */
+    public boolean contains(Field field) {
+        return (mask & field.bit()) != 0;
+    }
+
+    /**
+     * Rewrites a listing query that selects every ad column to select only these fields.
+     *
+     * @param sql a query whose select list is every ad column, in their order, optionally with the l. alias
+     * @return the query selecting only these fields
+     */
+    public String project(String sql) {
+        if (this == ALL) {
+            return sql;
+        }
+        return projectedQueries.computeIfAbsent(sql, query -> query
+                .replace(ALL_ALIASED_COLUMNS, columns("l."))
+                .replace(ALL_COLUMNS, columns("")));
+    }
+
+    private String columns(String alias) {
+        StringBuilder columns = new StringBuilder();
+        for (Field field : FIELDS) {
+            if (field != Field.IS_FAVORITE && contains(field)) {
+                columns.append(columns.isEmpty() ? "" : ", ").append(alias).append(field.column());
+            }
+        }
+        return columns.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder names = new StringBuilder();
+        for (Field field : FIELDS) {
+            if (contains(field)) {
+                names.append(names.isEmpty() ? "" : ",").append(field.column());
+            }
+        }
+        return names.toString();
+    }
+}
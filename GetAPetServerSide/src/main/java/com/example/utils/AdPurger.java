@@ -0,0 +1,107 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes the ads deleted by their authors, which {@link DatabaseService#deleteAd(int)} only flags with deleted_at.
+ * The favorites of the deleted ads are removed first, a batch of favorites per transaction so that an ad liked by
+ * many users never makes one long transaction, then the ads left without favorites, a batch of ads per transaction,
+ * and last their images. The purged favorites are dropped from the {@link FavoritesIndex}. Rows are locked with
+ * SKIP LOCKED, so the purgers of several nodes and users liking an ad never wait on each other. An ad that was liked
+ * in the meantime is skipped and purged on the next run.
+ */
+@Service
+@Slf4j
+public class AdPurger {
+
+    static final String SQL_PURGE_DELETED_FAVORITES = """
+            DELETE FROM favorites f USING (
+                SELECT f.user_id, f.ad_id FROM ads a
+                JOIN favorites f ON f.ad_id = a.id
+                WHERE a.deleted_at IS NOT NULL
+                LIMIT ?
+                FOR UPDATE OF f SKIP LOCKED
+            ) d
+            WHERE f.user_id = d.user_id AND f.ad_id = d.ad_id
+            RETURNING f.user_id, f.ad_id;
+            """;
+    static final String SQL_PURGE_DELETED_ADS = """
+            WITH purged AS (
+                SELECT id FROM ads a
+                WHERE deleted_at IS NOT NULL AND NOT EXISTS (SELECT 1 FROM favorites f WHERE f.ad_id = a.id)
+                order by deleted_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            DELETE FROM ads a USING purged p WHERE a.id = p.id
+            RETURNING a.id AS ad_id, a.image_path;
+            """;
+    private static final String IMAGES = "/images/";
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    private final ImageStore imageStore;
+    private final FavoritesIndex favoritesIndex;
+    private final int batchSize;
+
+    @Autowired
+    public AdPurger(ExecuteQuery executeQuery, ImageStore imageStore, FavoritesIndex favoritesIndex,
+                    @Value("${ads.purge.batch-size:1000}") int batchSize) {
+        this.eq = executeQuery;
+        this.imageStore = imageStore;
+        this.favoritesIndex = favoritesIndex;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Purges the deleted ads, their favorites and their images, one batch per transaction until there are none left.
+     *
+     * @return the number of ads purged
+     */
+    @Scheduled(fixedDelayString = "${ads.purge.run-ms:5000}", initialDelayString = "${ads.purge.run-ms:5000}")
+    public long purge() {
+        long favorites = 0;
+        long ads = 0;
+        int failedImages = 0;
+        try {
+            List<Map<String, Object>> purgedFavorites;
+            do {
+                purgedFavorites = eq.queryDB(RETRY, SQL_PURGE_DELETED_FAVORITES, batchSize);
+                for (Map<String, Object> row : purgedFavorites) {
+                    favoritesIndex.remove((Integer) row.get("user_id"), (Integer) row.get("ad_id"));
+                }
+                favorites += purgedFavorites.size();
+            } while (purgedFavorites.size() == batchSize);
+            List<Map<String, Object>> purged;
+            do {
+                purged = eq.queryDB(RETRY, SQL_PURGE_DELETED_ADS, batchSize);
+                List<String> keys = new ArrayList<>();
+                for (Map<String, Object> row : purged) {
+                    String imagePath = (String) row.get("image_path");
+                    if (imagePath != null && !imagePath.isEmpty()) {
+                        keys.add(imagePath.startsWith(IMAGES) ? imagePath.substring(IMAGES.length()) : imagePath);
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    failedImages += imageStore.deleteAll(keys);
+                }
+                ads += purged.size();
+            } while (purged.size() == batchSize);
+        } catch (SQLException e) {
+            log.error("Failed to purge the deleted ads: {}", e.getMessage());
+        }
+        if (ads > 0 || favorites > 0) {
+            log.info("Purged {} deleted ads and {} of their favorites, {} of their images could not be deleted", ads, favorites, failedImages);
+        }
+        return ads;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limiter whose limit adapts to the observed latency (AIMD).
+ * Up to the current limit calls run at once, and calls beyond it are rejected at once instead of waiting for a slot,
+ * so a rejected call never holds the thread of its caller.
+ * Every call that completes within the target latency while the limit was in use raises the limit by 1/limit,
+ * so about one slot per limit's worth of calls, and every call slower than the target, or failed, cuts the limit
+ * by the backoff ratio. The limit stays between minLimit and maxLimit.
+ */
+@Slf4j
+public class AdaptiveLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private double limit;
+    private int inFlight;
+
+    /**
+     * The settings of a limiter.
+     *
+     * @param initialLimit    the limit to start with
+     * @param minLimit        the lowest the limit can be cut to
+     * @param maxLimit        the highest the limit can be raised to
+     * @param targetLatencyMs calls slower than this cut the limit
+     */
+    public record Settings(int initialLimit, int minLimit, int maxLimit, long targetLatencyMs) {}
+
+    public AdaptiveLimiter(String name, Settings settings) {
+        this.name = name;
+        this.minLimit = settings.minLimit();
+        this.maxLimit = settings.maxLimit();
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(settings.targetLatencyMs());
+        this.limit = Math.max(minLimit, Math.min(maxLimit, settings.initialLimit()));
+    }
+
+    /**
+     * Acquires a slot if the limit is not reached, without waiting.
+     * Every accepted call must be followed by {@link #release(long, boolean)}.
+     *
+     * @return true if the call may run, false if it is rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Releases a slot and adapts the limit to the latency of the call.
+     *
+     * @param latencyNanos how long the call held its slot
+     * @param failed       true if the call failed, which cuts the limit like a slow call
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+        boolean limitInUse = inFlight * 2 >= limit;
+        inFlight--;
+        if (failed || latencyNanos > targetLatencyNanos) {
+            double previous = limit;
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            if ((int) limit < (int) previous) {
+                log.debug("Limit of {} cut to {}", name, (int) limit);
+            }
+        } else if (limitInUse) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe Bloom filter of strings.
+ * A "no" from {@link #mightContain(String)} is definite, a "yes" is wrong with about the false positive probability
+ * the filter was sized for, as long as it holds no more than the expected number of strings.
+ * The k bit positions are derived from a single 128-bit hash by double hashing (Kirsch and Mitzenmacher).
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Constructor sizing the filter.
+     *
+     * @param expectedInsertions       The number of strings the filter is expected to hold.
+     * @param falsePositiveProbability The wanted probability of a false "yes", between 0 and 1.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.max(1, (m + 63) / 64));
+        this.bitCount = bits.length() * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a string.
+     *
+     * @param value the string
+     */
+    public void put(String value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits.get(word) & mask) == 0) {
+                bits.getAndAccumulate(word, mask, (current, set) -> current | set);
+            }
+        }
+    }
+
+    /**
+     * Checks if a string may have been added.
+     *
+     * @param value the string
+     * @return false if the string was definitely never added, true if it probably was
+     */
+    public boolean mightContain(String value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hash, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the filter in bytes.
+     *
+     * @return the number of bytes of the bit array
+     */
+    public long sizeInBytes() {
+        return bitCount / 8;
+    }
+
+    private long index(long[] hash, int i) {
+        return Math.floorMod(hash[0] + i * hash[1], bitCount);
+    }
+
+    /**
+     * Hashes the UTF-8 bytes of a string into two 64-bit halves, FNV-1a with two offsets finished by the murmur3 mix.
+     */
+    private static long[] hash(String value) {
+        long h1 = 0xcbf29ce484222325L;
+        long h2 = 0x84222325cbf29ce4L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h1 = (h1 ^ (b & 0xff)) * 0x100000001b3L;
+            h2 = (h2 ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        // A zero second hash would put all k positions on the same bit
+        return new long[]{mix(h1), mix(h2 ^ h1) | 1};
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
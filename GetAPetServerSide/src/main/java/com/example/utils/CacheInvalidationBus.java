@@ -0,0 +1,167 @@
+package com.example.utils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the in-memory caches of every server node coherent with the writes of the other nodes.
+ * The database triggers publish every committed change of ads, favorites and users on the cache_events channel,
+ * and each node listens to it on a dedicated connection and fans the changes out to its {@link CacheInvalidationListener}s.
+ * Postgres delivers every notification to a listening session in commit order, so changes can only be missed while
+ * the session is down. The listener therefore reconnects on any error, and flushes every cache once it listens again.
+ */
+@Slf4j
+public class CacheInvalidationBus {
+
+    static final String CHANNEL = "cache_events";
+    private static final long MIN_RECONNECT_DELAY_MS = 100;
+    private static final long MAX_RECONNECT_DELAY_MS = 5000;
+
+    private final String url;
+    private final Properties connectionProperties = new Properties();
+    private final String nodeId;
+    private final List<CacheInvalidationListener> listeners;
+    private final boolean enabled;
+    private final int keepaliveMillis;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructor to initialize the bus.
+     *
+     * @param url             The URL of the primary database, the only one that publishes changes.
+     * @param username        The database username.
+     * @param password        The database password.
+     * @param nodeId          The ID of this node, the application_name of its connections.
+     * @param listeners       The caches to keep coherent, in the order they are told about changes.
+     * @param enabled         False to leave the caches to this node's own writes, for a single node setup.
+     * @param keepaliveMillis How long the connection may stay silent before it is checked.
+     */
+    public CacheInvalidationBus(String url, String username, String password, String nodeId,
+                                List<CacheInvalidationListener> listeners, boolean enabled, int keepaliveMillis) {
+        this.url = url;
+        this.connectionProperties.setProperty("user", username);
+        this.connectionProperties.setProperty("password", password);
+        this.connectionProperties.setProperty("ApplicationName", nodeId);
+        this.nodeId = nodeId;
+        this.listeners = listeners;
+        this.enabled = enabled;
+        this.keepaliveMillis = keepaliveMillis;
+    }
+
+    /**
+     * Starts the listener thread.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Cache invalidation across nodes is disabled");
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "cache-invalidation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the listener thread, which closes its connection on the way out.
+     */
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+        while (running) {
+            try (Connection con = DriverManager.getConnection(url, connectionProperties)) {
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                // Changes committed while this node wasn't listening are unknown
+                flushAll();
+                log.info("Listening to cache invalidations as node {}", nodeId);
+                reconnectDelay = MIN_RECONNECT_DELAY_MS;
+                listen(con);
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Cache invalidation connection failed, reconnecting in {} ms: {}", reconnectDelay, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+        }
+    }
+
+    private void listen(Connection con) throws SQLException {
+        PGConnection pgConnection = con.unwrap(PGConnection.class);
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(keepaliveMillis);
+            if (notifications == null || notifications.length == 0) {
+                // A silent connection may be a dead one, and a dead one misses changes
+                if (!con.isValid(Math.max(1, keepaliveMillis / 1000))) {
+                    throw new SQLException("Connection is no longer valid");
+                }
+                continue;
+            }
+            for (PGNotification notification : notifications) {
+                dispatch(notification.getParameter());
+            }
+        }
+    }
+
+    /**
+     * Parses a change published by the triggers and passes it to the listeners.
+     *
+     * @param payload the payload of the notification, origin:change:ids
+     */
+    void dispatch(String payload) {
+        CacheInvalidationListener.ChangeEvent event;
+        try {
+            String[] parts = payload.split(":");
+            boolean local = parts[0].equals(nodeId);
+            event = switch (parts[1]) {
+                case "ad_created" -> new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_CREATED, Integer.parseInt(parts[2]), 0, local);
+                case "ad_deleted" -> new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_DELETED, Integer.parseInt(parts[2]), 0, local);
+                case "favorite_added" -> new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_ADDED, Integer.parseInt(parts[3]), Integer.parseInt(parts[2]), local);
+                case "favorite_removed" -> new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_REMOVED, Integer.parseInt(parts[3]), Integer.parseInt(parts[2]), local);
+                case "user_created" -> new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.USER_CREATED, 0, Integer.parseInt(parts[2]), local);
+                default -> throw new IllegalArgumentException("Unknown change " + parts[1]);
+            };
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed cache event {}: {}", payload, e.getMessage());
+            return;
+        }
+        for (CacheInvalidationListener listener : listeners) {
+            try {
+                listener.onChange(event);
+            } catch (RuntimeException e) {
+                log.error("Cache listener {} failed on {}: {}", listener.getClass().getSimpleName(), event, e.getMessage());
+            }
+        }
+    }
+
+    private void flushAll() {
+        for (CacheInvalidationListener listener : listeners) {
+            listener.onFlush();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.utils;
+
+/**
+ * A local cache kept coherent with the writes of every server node by the {@link CacheInvalidationBus}.
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * The kinds of change published by the database triggers.
+     */
+    enum Change { AD_CREATED, AD_DELETED, FAVORITE_ADDED, FAVORITE_REMOVED, USER_CREATED }
+
+    /**
+     * A committed change.
+     *
+     * @param change the kind of change
+     * @param adId   the ad ID, 0 for user changes
+     * @param userId the user ID of a favorite or user change, 0 for ad changes
+     * @param local  true if the change was written by this node, whose caches were already updated by the write path
+     */
+    record ChangeEvent(Change change, int adId, int userId, boolean local) {}
+
+    /**
+     * Applies a change. Called on the listener thread, in commit order.
+     *
+     * @param event the change
+     */
+    void onChange(ChangeEvent event);
+
+    /**
+     * Drops everything the cache holds, called when changes may have been missed.
+     */
+    void onFlush();
+}
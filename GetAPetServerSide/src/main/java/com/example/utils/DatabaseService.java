@@ -1,16 +1,19 @@
 package com.example.utils;
 
-import com.google.gson.Gson;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.lambdaworks.crypto.SCryptUtil;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -20,82 +23,212 @@ import java.util.regex.Pattern;
  * Service class for handling database operations.
  * This class includes methods for user management, ad management, and utility functions
  * related to database operations.
+ * Query-only methods read from a replica, writes go to the primary and pin the writing user to it
+ * for a short window so that the user's next reads see the write.
  */
 @Service
 @Slf4j
 public class DatabaseService {
     private final ExecuteQuery eq;
-    private final Gson gson = new Gson();
+    private final FavoritesIndex favoritesIndex;
+    private final FavoritesWriteBehind favoritesWriteBehind;
+    private final AdCache adCache;
+    private final UserAvailability userAvailability;
+    private final AdFeed adFeed;
+    private final FavoriteCounts favoriteCounts;
     private static final int RETRY = 0;
 
     @Autowired
-    public DatabaseService(ExecuteQuery executeQuery) {
+    public DatabaseService(ExecuteQuery executeQuery, FavoritesIndex favoritesIndex, FavoritesWriteBehind favoritesWriteBehind, AdCache adCache,
+                           UserAvailability userAvailability, AdFeed adFeed, FavoriteCounts favoriteCounts) {
         this.eq = executeQuery;
+        this.favoritesIndex = favoritesIndex;
+        this.favoritesWriteBehind = favoritesWriteBehind;
+        this.adCache = adCache;
+        this.userAvailability = userAvailability;
+        this.adFeed = adFeed;
+        this.favoriteCounts = favoriteCounts;
     }
 
     public record UserProfile(int id, String username, String display_name, String email, String phone) {}
 
-    public record AdDetail(int ad_id, String display_name, String email, String phone, String pet_name, String category, int pet_age, String pet_gender, String ad_content, String image_path, LocalDateTime created_at) {}
+    public record AdDetail(int ad_id, String display_name, String email, String phone, String pet_name, String category, int pet_age, String pet_gender, String ad_content, String image_path, LocalDateTime created_at, Boolean is_favorite) {
+        public AdDetail withFavorite(boolean isFavorite) {
+            return new AdDetail(ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at, isFavorite);
+        }
+    }
+
+    /**
+     * A page of ads, written with the given fields only.
+     * next is the cursor of the following page for the listings paged by cursor, null for the others or on the last page.
+     */
+    public record AdPage(List<AdDetail> ads, long totalAds, @JsonIgnore AdFields fields, @JsonInclude(JsonInclude.Include.NON_NULL) String next) {
+        public AdPage(List<AdDetail> ads, long totalAds) {
+            this(ads, totalAds, AdFields.ALL);
+        }
+
+        public AdPage(List<AdDetail> ads, long totalAds, AdFields fields) {
+            this(ads, totalAds, fields, null);
+        }
+    }
+
+    /**
+     * The position after the last ad of a page of the popular listing, sent to clients as favoriteCount_adId.
+     * The next page starts with the ads liked less, or liked as much but older.
+     */
+    public record PopularCursor(int favoriteCount, int adId) {
+        public static final PopularCursor FIRST = new PopularCursor(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        /**
+         * Parses a cursor sent by a client.
+         *
+         * @param cursor the cursor, null or blank for the first page
+         * @return the cursor
+         * @throws IllegalArgumentException if the cursor is malformed
+         */
+        public static PopularCursor parse(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return FIRST;
+            }
+            int separator = cursor.indexOf('_');
+            try {
+                return new PopularCursor(Integer.parseInt(cursor.substring(0, separator)), Integer.parseInt(cursor.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return favoriteCount + "_" + adId;
+        }
+    }
+
+    /**
+     * What changed since a cursor. With reset set the changes are not listed, and the client reloads its listings.
+     *
+     * @param next the cursor to sync from next time
+     * @param reset true if the client has to reload, because the changes since its cursor were compacted away or are too many
+     * @param ads the ads created since the cursor that still exist
+     * @param deleted_ads the IDs of the ads deleted since the cursor
+     * @param favorites_added the IDs of the ads the user liked since the cursor
+     * @param favorites_removed the IDs of the ads the user stopped liking since the cursor
+     */
+    public record AdChanges(long next, boolean reset, List<AdDetail> ads, List<Integer> deleted_ads,
+                            List<Integer> favorites_added, List<Integer> favorites_removed) {}
 
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^[^@\\s]+@[^@\\s]+\\.[^@\\s]+$");
     private static final Pattern PHONE_PATTERN = Pattern.compile("^[\\d-]+$");
 
-    static final String SQL_CREATE_NEW_AD = "INSERT INTO ads (category_id, author_id, pet_name, pet_age, pet_gender, ad_content, image_path) VALUES (?, ?, ?, ?, ?, ?, ?)";
-    static final String SQL_DELETE_AD = "DELETE FROM ads WHERE id = ?";
-    static final String SQL_DELETE_FAVORITE_AD = "DELETE FROM favorites WHERE ad_id = ?";
+    static final String SQL_CREATE_NEW_AD = """
+            WITH new_ad AS (
+                INSERT INTO ads (category_id, author_id, pet_name, pet_age, pet_gender, ad_content, image_path) VALUES (?, ?, ?, ?, ?, ?, ?)
+                RETURNING id, author_id, category_id, pet_name, pet_age, pet_gender, ad_content, image_path, created_at
+            )
+            INSERT INTO ad_listing (ad_id, author_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at)
+            SELECT ad.id, ad.author_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
+            FROM new_ad ad
+            JOIN users u ON u.id = ad.author_id
+            JOIN categories c on c.id = ad.category_id
+            RETURNING ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at;
+            """;
+    // The ad leaves the listings at once, AdPurger removes its favorites, row and image later
+    static final String SQL_DELETE_AD = """
+            WITH deleted AS (
+                UPDATE ads SET deleted_at = (CURRENT_TIMESTAMP AT TIME ZONE 'UTC')
+                WHERE id = ? AND deleted_at IS NULL
+                RETURNING id, author_id
+            ), unlisted AS (
+                DELETE FROM ad_listing l USING deleted d WHERE l.ad_id = d.id
+            )
+            SELECT id AS ad_id, author_id FROM deleted;
+            """;
+    // The ad expires at once, so that AdArchiver archives it on its next run
+    static final String SQL_MARK_AD_ADOPTED = """
+            WITH adopted AS (
+                UPDATE ads SET status = 'adopted', expires_at = (CURRENT_TIMESTAMP AT TIME ZONE 'UTC')
+                WHERE id = ? AND author_id = ? AND status = 'active' AND deleted_at IS NULL
+                RETURNING id
+            )
+            DELETE FROM ad_listing l USING adopted a WHERE l.ad_id = a.id
+            RETURNING l.ad_id;
+            """;
     static final String SQL_DELETE_USER_FAVORITE_AD = "DELETE FROM favorites WHERE user_id = ? and ad_id = ?";
-    static final String SQL_CREATE_NEW_USER = "INSERT INTO users (username, password, display_name, email, phone) VALUES (?, ?, ?, ?, ?)";
-    static final String SQL_CREATE_NEW_FAVORITE_AD = "INSERT INTO favorites (user_id, ad_id) VALUES (?, ?)";
+    static final String SQL_CREATE_NEW_USER = "INSERT INTO users (username, password, display_name, email, phone) VALUES (?, ?, ?, ?, ?) RETURNING id";
+    // Deleted and adopted ads can't be liked, the foreign key alone would accept them until they are purged or archived
+    static final String SQL_CREATE_NEW_FAVORITE_AD =
+            "INSERT INTO favorites (user_id, ad_id) SELECT ?, id FROM ads WHERE id = ? AND status = 'active' AND deleted_at IS NULL";
+    static final String SQL_IS_AD_ACTIVE = "SELECT id FROM ads WHERE id = ? AND status = 'active' AND deleted_at IS NULL";
     static final String SQL_GET_CATEGORY_ID = "SELECT id FROM categories WHERE category = ?";
     private static final String SQL_VALIDATE_USER = "SELECT * from users where username = ? and id = ?";
     static final String SQL_GET_USER_PROFILE_DATA = "SELECT id, password, username, display_name, email, phone FROM users WHERE username = ?";
     static final String SQL_GET_ALL_ADS = """
-            SELECT ad.id as ad_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
-            FROM users u
-            JOIN ads ad ON u.id = ad.author_id
-            JOIN categories c on c.id = ad.category_id
-            order by ad.id desc
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at
+            FROM ad_listing
+            order by ad_id desc
             LIMIT ? OFFSET ?;
             """;
     static final String SQL_GET_ALL_ADS_SPECIFIC_CATEGORIES = """
-            SELECT ad.id as ad_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
-            FROM users u
-            JOIN ads ad ON u.id = ad.author_id
-            JOIN categories c on c.id = ad.category_id
-            WHERE
-            c.category = ?
-            order by ad.id desc
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at
+            FROM ad_listing
+            WHERE category = ?
+            order by ad_id desc
             LIMIT ? OFFSET ?;
             """;
+    static final String SQL_GET_POPULAR_ADS = """
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at, favorite_count
+            FROM ad_listing
+            WHERE (favorite_count, ad_id) < (?, ?)
+            order by favorite_count desc, ad_id desc
+            LIMIT ?;
+            """;
+    static final String SQL_GET_POPULAR_ADS_SPECIFIC_CATEGORIES = """
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at, favorite_count
+            FROM ad_listing
+            WHERE category = ? AND (favorite_count, ad_id) < (?, ?)
+            order by favorite_count desc, ad_id desc
+            LIMIT ?;
+            """;
     static final String SQL_GET_USER_ADS = """
-            SELECT ad.id as ad_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
-            FROM users u
-            JOIN ads ad ON u.id = ad.author_id
-            JOIN categories c on c.id = ad.category_id
-            WHERE u.id = ?
-            order by ad.id desc
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at
+            FROM ad_listing
+            WHERE author_id = ?
+            order by ad_id desc
             LIMIT ? OFFSET ?;
             """;
     static final String SQL_GET_USER_FAVORITE_ADS = """
-            SELECT ad.id as ad_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
-            FROM users u
-            JOIN ads ad ON u.id = ad.author_id
-            JOIN categories c on c.id = ad.category_id
-            JOIN favorites f on f.ad_id = ad.id
+            SELECT l.ad_id, l.display_name, l.email, l.phone, l.pet_name, l.category, l.pet_age, l.pet_gender, l.ad_content, l.image_path, l.created_at
+            FROM favorites f
+            JOIN ad_listing l on l.ad_id = f.ad_id
             WHERE f.user_id = ?
-            order by ad.id desc
+            order by f.ad_id desc
             LIMIT ? OFFSET ?;
             """;
-    static final String SQL_COUNT_ALL_ADS = "SELECT COUNT(*) as count FROM ads;";
-    static final String SQL_COUNT_ALL_ADS_OF_USER = "SELECT COUNT(*) as count FROM ads where author_id=? ;";
-    static final String SQL_COUNT_ALL_FAVORITE_ADS_OF_USER =
-            """
-                    SELECT COUNT(*)
-                    FROM ads ad
-                    JOIN favorites f on f.ad_id = ad.id
-                    WHERE f.user_id = ?
-                    """;
-    static final String SQL_COUNT_ADS_SPECIFIC_CATEGORIES = "SELECT COUNT(*) as count FROM ads ad JOIN categories c on c.id = ad.category_id WHERE c.category = ?;";
+    static final String SQL_GET_AD = """
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at
+            FROM ad_listing
+            WHERE ad_id = ?;
+            """;
+    static final String SQL_GET_ADS_BY_IDS = """
+            SELECT ad_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at
+            FROM ad_listing
+            WHERE ad_id = ANY(?);
+            """;
+    // A single statement, so that the cursor, the horizon and the changes come from the same snapshot. The changes of
+    // the transactions from the current xmin on may not have committed yet, they are left to the next sync
+    static final String SQL_GET_AD_CHANGES = """
+            SELECT s.next, h.txid AS horizon, c.ad_id, c.user_id, c.deleted
+            FROM (SELECT (pg_snapshot_xmin(pg_current_snapshot())::text)::bigint AS next) s
+            CROSS JOIN ad_changes_horizon h
+            LEFT JOIN ad_changes c ON c.txid >= ? AND c.txid < s.next AND (c.user_id IS NULL OR c.user_id = ?)
+            order by c.txid, c.seq
+            LIMIT ?;
+            """;
+    static final String SQL_COUNT_ALL_ADS = "SELECT COUNT(*) as count FROM ad_listing;";
+    static final String SQL_COUNT_ALL_ADS_OF_USER = "SELECT COUNT(*) as count FROM ad_listing where author_id=? ;";
+    // Favorites of deleted and adopted ads are left out until they are purged or archived
+    static final String SQL_COUNT_ALL_FAVORITE_ADS_OF_USER = "SELECT COUNT(*) as count FROM favorites f JOIN ad_listing l on l.ad_id = f.ad_id where f.user_id=? ;";
+    static final String SQL_COUNT_ADS_SPECIFIC_CATEGORIES = "SELECT COUNT(*) as count FROM ad_listing WHERE category = ?;";
 
     /**
      * Creates a new user in the database.
@@ -103,12 +236,14 @@ public class DatabaseService {
      * and inserts the user details into the database. If the email or phone number
      * are invalid, or if the user could not be created,
      * it throws a RuntimeException.
+     * A username, display name, email or phone that is taken is rejected before the password is hashed.
      *
      * @param username    The username of the new user.
      * @param password    The password of the new user, which will be hashed before storing.
      * @param displayName The display name of the new user.
      * @param email       The email address of the new user, which must be valid.
      * @param phone       The phone number of the new user, which must be valid.
+     * @throws DuplicateKeyException if the username, display name, email or phone is taken.
      * @throws DataAccessException if there is an error accessing the database.
      * @throws SQLException        if a database access error occurs.
      */
@@ -119,13 +254,34 @@ public class DatabaseService {
         if (!validPhone(phone)) {
             throw new RuntimeException("Invalid phone number");
         }
+        userAvailability.checkAvailable(username, displayName, email, phone);
 
         String hashedPassword = hashPassword(password);
-        int affectedRows = eq.updateDB(RETRY, SQL_CREATE_NEW_USER, username, hashedPassword, displayName, email, phone);
-        if (affectedRows < 1) {
+        List<Map<String, Object>> created = eq.queryDB(RETRY, SQL_CREATE_NEW_USER, username, hashedPassword, displayName, email, phone);
+        if (created.isEmpty()) {
             log.warn("User wasn't created");
             throw new RuntimeException("An unexpected error occurred - user should have been created");
         }
+        eq.pinToPrimary((Integer) created.get(0).get("id"));
+        userAvailability.add(username, displayName, email, phone);
+    }
+
+    /**
+     * Checks which of the given values of the unique user columns are still free, e.g. while a user fills in the
+     * registration form.
+     *
+     * @param values the values to check by column, null values are skipped
+     * @return whether each given value is free, by column name
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<String, Boolean> checkAvailability(Map<UserAvailability.Field, String> values) throws SQLException {
+        Map<String, Boolean> availability = new LinkedHashMap<>();
+        for (Map.Entry<UserAvailability.Field, String> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                availability.put(entry.getKey().column(), userAvailability.isAvailable(entry.getKey(), entry.getValue()));
+            }
+        }
+        return availability;
     }
 
     /**
@@ -137,7 +293,7 @@ public class DatabaseService {
      * @param email The email address to validate.
      * @return true if the email address is valid, false otherwise.
      */
-    private boolean validEmail(String email) {
+    boolean validEmail(String email) {
         return EMAIL_PATTERN.matcher(email).matches();
     }
 
@@ -149,14 +305,15 @@ public class DatabaseService {
      * @param phone The phone number to validate.
      * @return true if the phone number is valid, false otherwise.
      */
-    private boolean validPhone(String phone) {
+    boolean validPhone(String phone) {
         return PHONE_PATTERN.matcher(phone).matches();
     }
 
     /**
      * Checks if a given username and password match.
      * This method verifies if the username exists and if the provided password matches
-     * the stored password for that user.
+     * the stored password for that user. A username that the replica doesn't have is looked up again on the primary,
+     * since the user may have just registered.
      *
      * @param username the username trying to log in
      * @param password the password provided by the user
@@ -164,12 +321,15 @@ public class DatabaseService {
      */
     public String isAllowedToLogin(String username, String password) {
         try {
-            val res = eq.queryDB(RETRY, SQL_GET_USER_PROFILE_DATA, username);
-            if (res.size() < 1) {
+            List<Map<String, Object>> res = eq.queryReplica(RETRY, null, SQL_GET_USER_PROFILE_DATA, username);
+            if (res.isEmpty()) {
+                res = eq.queryDB(RETRY, SQL_GET_USER_PROFILE_DATA, username);
+            }
+            if (res.isEmpty()) {
                 return null;
             }
             String retrievedPassword = (String) res.get(0).getOrDefault("password", "");
-            return checkPassword(password, retrievedPassword) ? gson.toJson(ResultSetMapper.mapRowToRecord(res.get(0), UserProfile.class)) : null;
+            return checkPassword(password, retrievedPassword) ? JsonWriter.toJson(ResultSetMapper.mapRowToRecord(res.get(0), UserProfile.class)) : null;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } catch (IndexOutOfBoundsException e) {
@@ -196,6 +356,8 @@ public class DatabaseService {
 
     /**
      * Creates a new ad in the database.
+     * The ad is inserted together with its row in the ad_listing read model, in a single statement,
+     * and the new listing row is sent to the ad feed.
      *
      * @param categoryId the category ID of the ad
      * @param authorId the user ID of the ad author
@@ -208,33 +370,61 @@ public class DatabaseService {
      * @throws SQLException if a database access error occurs
      */
     public synchronized void createNewAd(int categoryId, int authorId, String petName, Double petAge, String petGender, String adContent, String imagePath) throws DataAccessException, SQLException {
-        int affectedRows = eq.updateDB(RETRY, SQL_CREATE_NEW_AD, categoryId, authorId, petName, petAge, petGender, adContent, imagePath);
-        if (affectedRows < 1) {
+        List<AdDetail> created = adsList(eq.queryDB(RETRY, SQL_CREATE_NEW_AD, categoryId, authorId, petName, petAge, petGender, adContent, imagePath));
+        eq.pinToPrimary(authorId);
+        if (created.isEmpty()) {
             log.warn("Ad wasn't created");
             throw new RuntimeException("Ad was not created");
         }
+        adFeed.publishCreated(created.get(0));
     }
 
     /**
      * Deletes an ad from the database.
+     * The ad is only flagged as deleted and its ad_listing row removed, so the delete takes the same time however
+     * many users like the ad. {@link AdPurger} removes its favorites, its row and its image in the background.
+     * The ad is dropped from the ad cache and its deletion is sent to the ad feed.
      *
      * @param adId the ID of the ad to be deleted
      * @throws DataAccessException if there is an error accessing the database
      * @throws SQLException if a database access error occurs
      */
     public synchronized void deleteAd(int adId) throws DataAccessException, SQLException {
-        int affectedRowsFavoriteTable = eq.updateDB(RETRY, SQL_DELETE_FAVORITE_AD, adId);
-        log.info("Deleted {} ads from favorites", affectedRowsFavoriteTable);
-
-        int affectedRowsAdTable = eq.updateDB(RETRY, SQL_DELETE_AD, adId);
-        if (affectedRowsAdTable < 1) {
+        List<Map<String, Object>> deleted = eq.queryDB(RETRY, SQL_DELETE_AD, adId);
+        if (deleted.isEmpty()) {
             log.warn("Ad wasn't deleted from ads table");
             throw new RuntimeException("Ad wasn't deleted from ads table");
         }
+        eq.pinToPrimary((Integer) deleted.get(0).get("author_id"));
+        adCache.invalidate(adId);
+        adFeed.publishDeleted(adId);
+    }
+
+    /**
+     * Marks the pet of an ad as adopted. The ad leaves the listings at once, is dropped from the ad cache and its
+     * deletion is sent to the ad feed, and it is moved to the archive with its favorites by the next archiver run.
+     *
+     * @param adId the ad ID
+     * @param authorId the ID of the user that created the ad
+     * @return true if the ad was marked, false if the user has no such ad or it was already marked
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean markAdopted(int adId, int authorId) throws SQLException {
+        List<Map<String, Object>> adopted = eq.queryDB(RETRY, SQL_MARK_AD_ADOPTED, adId, authorId);
+        eq.pinToPrimary(authorId);
+        adCache.invalidate(adId);
+        if (adopted.isEmpty()) {
+            log.info("User id {} has no active ad with ad id {}", authorId, adId);
+            return false;
+        }
+        adFeed.publishDeleted(adId);
+        return true;
     }
 
     /**
      * Deletes an ad from a user's favorites.
+     * With write-behind on, the delete is buffered and written later in a batch.
+     * The ad's favorite count is lowered with the next flush of {@link FavoriteCounts}.
      *
      * @param userId the user ID
      * @param adId the ad ID
@@ -242,7 +432,20 @@ public class DatabaseService {
      * @throws SQLException if a database access error occurs
      */
     public void deleteAdFromFavorites(int userId, int adId) throws DataAccessException, SQLException {
+        if (favoritesWriteBehind.isEnabled()) {
+            boolean wasFavorite = favoritesIndex.isFavorite(userId, adId);
+            favoritesWriteBehind.enqueue(userId, adId, false, wasFavorite);
+            favoritesIndex.remove(userId, adId);
+            if (wasFavorite) {
+                favoriteCounts.add(adId, -1);
+            }
+            eq.pinToPrimary(userId);
+            return;
+        }
         int affectedRowsFavoriteTable = eq.updateDB(RETRY, SQL_DELETE_USER_FAVORITE_AD, userId, adId);
+        eq.pinToPrimary(userId);
+        favoritesIndex.remove(userId, adId);
+        favoriteCounts.add(adId, -affectedRowsFavoriteTable);
         log.info("Deleted {} ads from the favorites of the user", affectedRowsFavoriteTable);
     }
 
@@ -276,34 +479,203 @@ public class DatabaseService {
      * @return a list of ads
      */
     public List<AdDetail> getGeneralAds(int page, int limit, String category) {
+        return getGeneralAds(page, limit, category, null);
+    }
+
+    /**
+     * Fetches general ads with pagination and optional category filtering.
+     * When a user is given, every ad is flagged with whether the user likes it, using the favorites index.
+     *
+     * @param page the page number
+     * @param limit the number of ads per page
+     * @param category the category to filter by (optional)
+     * @param userId the user viewing the ads (optional)
+     * @return a list of ads
+     */
+    public List<AdDetail> getGeneralAds(int page, int limit, String category, Integer userId) {
+        return getGeneralAds(page, limit, category, userId, AdFields.ALL);
+    }
+
+    /**
+     * Fetches general ads with pagination and optional category filtering, reading only the given fields.
+     * The other components of the returned ads are null, or 0 for pet_age.
+     *
+     * @param page the page number
+     * @param limit the number of ads per page
+     * @param category the category to filter by (optional)
+     * @param userId the user viewing the ads (optional)
+     * @param fields the fields to read, is_favorite is only set if it is one of them
+     * @return a list of ads
+     */
+    public List<AdDetail> getGeneralAds(int page, int limit, String category, Integer userId, AdFields fields) {
         List<AdDetail> ads = new ArrayList<>();
         List<Map<String, Object>> results;
         int offset = (page - 1) * limit;
         try {
             if (category != null && !category.isEmpty()) {
-                results = eq.queryDB(RETRY, SQL_GET_ALL_ADS_SPECIFIC_CATEGORIES, category, limit, offset);
+                results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_ALL_ADS_SPECIFIC_CATEGORIES), category, limit, offset);
             } else {
-                results = eq.queryDB(RETRY, SQL_GET_ALL_ADS, limit, offset);
+                results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_ALL_ADS), limit, offset);
             }
-            return adsList(results);
+            return userId != null && fields.contains(AdFields.Field.IS_FAVORITE)
+                    ? favoritesIndex.markFavorites(userId, adsList(results)) : adsList(results);
         } catch (SQLException e) {
             log.error("Error fetching ads: {}", e.getMessage());
         }
         return ads;
     }
 
+    /**
+     * Fetches the most liked ads, with optional category filtering, reading only the given fields.
+     * Pages are read from the position of the cursor on (keyset pagination on favorite_count, ad_id), so that they
+     * don't shift while the favorite counts change and a deep page costs no more than the first one.
+     *
+     * @param limit the number of ads per page
+     * @param category the category to filter by (optional)
+     * @param userId the user viewing the ads (optional)
+     * @param fields the fields to read, is_favorite is only set if it is one of them
+     * @param after the cursor of the page to read, {@link PopularCursor#FIRST} for the first page
+     * @return the page of ads, with the cursor of the next page unless it is the last page
+     */
+    public AdPage getPopularAds(int limit, String category, Integer userId, AdFields fields, PopularCursor after) {
+        List<AdDetail> ads = new ArrayList<>();
+        String next = null;
+        try {
+            List<Map<String, Object>> results;
+            if (category != null && !category.isEmpty()) {
+                results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_POPULAR_ADS_SPECIFIC_CATEGORIES), category,
+                        after.favoriteCount(), after.adId(), limit);
+            } else {
+                results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_POPULAR_ADS), after.favoriteCount(), after.adId(), limit);
+            }
+            if (results.size() == limit) {
+                Map<String, Object> last = results.get(results.size() - 1);
+                next = new PopularCursor((Integer) last.get("favorite_count"), (Integer) last.get("ad_id")).toString();
+            }
+            ads = userId != null && fields.contains(AdFields.Field.IS_FAVORITE)
+                    ? favoritesIndex.markFavorites(userId, adsList(results)) : adsList(results);
+        } catch (SQLException e) {
+            log.error("Error fetching popular ads: {}", e.getMessage());
+        }
+        return new AdPage(ads, getTotalAdsCount(category, userId), fields, next);
+    }
+
+    /**
+     * Fetches a single ad, from the ad cache or else by its primary key.
+     * Cache misses are read from the primary, so that a lagging replica can't put an ad that was just deleted back
+     * into the cache.
+     *
+     * @param adId the ad ID
+     * @param userId the user viewing the ad, to flag whether the user likes it (optional)
+     * @return the ad, or null if there is no such ad
+     * @throws SQLException if a database access error occurs
+     */
+    public AdDetail getAd(int adId, Integer userId) throws SQLException {
+        AdDetail ad = adCache.get(adId);
+        if (ad == null) {
+            long stamp = adCache.stamp();
+            List<AdDetail> loaded = adsList(eq.queryDB(RETRY, SQL_GET_AD, adId));
+            if (loaded.isEmpty()) {
+                return null;
+            }
+            adCache.putAll(loaded, stamp);
+            ad = loaded.get(0);
+        }
+        return userId != null ? ad.withFavorite(favoritesIndex.isFavorite(userId, adId)) : ad;
+    }
+
+    /**
+     * Fetches several ads at once. Cached ads are served from the ad cache and the rest are loaded in a single query.
+     *
+     * @param adIds the ad IDs, duplicates are returned once
+     * @param userId the user viewing the ads, to flag the ads the user likes (optional)
+     * @return the ads that exist, in the order of their IDs in adIds
+     * @throws SQLException if a database access error occurs
+     */
+    public List<AdDetail> getAds(List<Integer> adIds, Integer userId) throws SQLException {
+        List<Integer> distinctIds = adIds.stream().distinct().toList();
+        Map<Integer, AdDetail> found = adCache.getAll(distinctIds);
+        Integer[] misses = distinctIds.stream().filter(adId -> !found.containsKey(adId)).toArray(Integer[]::new);
+        if (misses.length > 0) {
+            long stamp = adCache.stamp();
+            // Cast so that the array is bound as a single array parameter and not spread as varargs
+            List<AdDetail> loaded = adsList(eq.queryDB(RETRY, SQL_GET_ADS_BY_IDS, (Object) misses));
+            adCache.putAll(loaded, stamp);
+            for (AdDetail ad : loaded) {
+                found.put(ad.ad_id(), ad);
+            }
+        }
+        List<AdDetail> ads = distinctIds.stream().map(found::get).filter(Objects::nonNull).toList();
+        return userId != null ? favoritesIndex.markFavorites(userId, ads) : ads;
+    }
+
+    /**
+     * Fetches what changed in the ads, and in the favorites of a user, since a cursor returned by a previous sync.
+     * An ad created and deleted between two syncs is sent as deleted only, and the last toggle of a favorite wins.
+     * Without a cursor only the current cursor is returned, to be taken before the listings are first loaded.
+     *
+     * @param since the cursor of the previous sync (optional)
+     * @param userId the user whose favorites to sync, and to flag the ads the user likes (optional)
+     * @param maxChanges the number of changes over which the client is told to reload instead
+     * @return the changes since the cursor and the next cursor
+     * @throws SQLException if a database access error occurs
+     */
+    public AdChanges getAdChanges(Long since, Integer userId, int maxChanges) throws SQLException {
+        if (userId != null && favoritesWriteBehind.isEnabled()) {
+            favoritesWriteBehind.flushUser(userId);
+        }
+        // User IDs start from 1, so 0 matches the ad changes only
+        List<Map<String, Object>> rows = eq.queryReplica(RETRY, userId, SQL_GET_AD_CHANGES, since != null ? since : Long.MAX_VALUE,
+                userId != null ? userId : 0, maxChanges + 1);
+        long next = (Long) rows.get(0).get("next");
+        long horizon = (Long) rows.get(0).get("horizon");
+        if (since == null) {
+            return new AdChanges(next, false, List.of(), List.of(), List.of(), List.of());
+        }
+        if (since < horizon || rows.size() > maxChanges) {
+            log.info("Ad changes since {} are {}, the client has to reload", since, since < horizon ? "compacted" : "too many");
+            return new AdChanges(next, true, List.of(), List.of(), List.of(), List.of());
+        }
+        // Whether the last change of each ad, and of each of the user's favorites, is a delete
+        Map<Integer, Boolean> adChanges = new LinkedHashMap<>();
+        Map<Integer, Boolean> favoriteChanges = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            Integer adId = (Integer) row.get("ad_id");
+            if (adId == null) {
+                // Nothing changed, the row only holds the cursor
+                continue;
+            }
+            Map<Integer, Boolean> changes = row.get("user_id") == null ? adChanges : favoriteChanges;
+            changes.remove(adId);
+            changes.put(adId, (Boolean) row.get("deleted"));
+        }
+        List<Integer> created = new ArrayList<>();
+        List<Integer> deleted = new ArrayList<>();
+        adChanges.forEach((adId, isDeleted) -> (isDeleted ? deleted : created).add(adId));
+        List<Integer> favoritesAdded = new ArrayList<>();
+        List<Integer> favoritesRemoved = new ArrayList<>();
+        favoriteChanges.forEach((adId, isDeleted) -> (isDeleted ? favoritesRemoved : favoritesAdded).add(adId));
+        // Cast so that the array is bound as a single array parameter and not spread as varargs
+        List<AdDetail> ads = created.isEmpty() ? List.of()
+                : adsList(eq.queryReplica(RETRY, userId, SQL_GET_ADS_BY_IDS, (Object) created.toArray(Integer[]::new)));
+        // A lagging replica may be behind the cursor, which never moves back
+        return new AdChanges(Math.max(next, since), false, userId != null ? favoritesIndex.markFavorites(userId, ads) : ads,
+                deleted, favoritesAdded, favoritesRemoved);
+    }
+
     /**
      * Gets the total count of ads, optionally filtered by category.
      *
      * @param category the category to filter by (optional)
+     * @param userId the user viewing the ads, whose own writes the count must include (optional)
      * @return the total number of ads
      */
-    public long getTotalAdsCount(String category) {
+    public long getTotalAdsCount(String category, Integer userId) {
         try {
             if (category != null && !category.isEmpty()) {
-                return (Long) eq.queryDB(RETRY, SQL_COUNT_ADS_SPECIFIC_CATEGORIES, category).get(0).get("count");
+                return (Long) eq.queryReplica(RETRY, userId, SQL_COUNT_ADS_SPECIFIC_CATEGORIES, category).get(0).get("count");
             } else {
-                return (Long) eq.queryDB(RETRY, SQL_COUNT_ALL_ADS).get(0).get("count");
+                return (Long) eq.queryReplica(RETRY, userId, SQL_COUNT_ALL_ADS).get(0).get("count");
             }
         } catch (SQLException e) {
             log.error("Error fetching ads: {}", e.getMessage());
@@ -321,7 +693,7 @@ public class DatabaseService {
      */
     public long getTotalUserAdsCount(int userId) {
         try {
-            return (Long) eq.queryDB(RETRY, SQL_COUNT_ALL_ADS_OF_USER, userId).get(0).getOrDefault("count", 0);
+            return (Long) eq.queryReplica(RETRY, userId, SQL_COUNT_ALL_ADS_OF_USER, userId).get(0).getOrDefault("count", 0);
         } catch (SQLException e) {
             log.error("Error fetching ads: {}", e.getMessage());
         } catch (IndexOutOfBoundsException e) {
@@ -332,13 +704,15 @@ public class DatabaseService {
 
     /**
      * Gets the total count of favorite ads of a specific user.
+     * With write-behind on, the user's buffered toggles are added on top of the count in the database.
      *
      * @param userId the user ID
      * @return the total number of user favorite ads
      */
     public long getTotalUserFavoriteAdsCount(int userId) {
         try {
-            return (Long) eq.queryDB(RETRY, SQL_COUNT_ALL_FAVORITE_ADS_OF_USER, userId).get(0).getOrDefault("count", 0);
+            long count = (Long) eq.queryReplica(RETRY, userId, SQL_COUNT_ALL_FAVORITE_ADS_OF_USER, userId).get(0).getOrDefault("count", 0);
+            return favoritesWriteBehind.isEnabled() ? count + favoritesWriteBehind.pendingCountDelta(userId) : count;
         } catch (SQLException e) {
             log.error("Error fetching ads: {}", e.getMessage());
         } catch (IndexOutOfBoundsException e) {
@@ -356,9 +730,22 @@ public class DatabaseService {
      * @return a list of user ads
      */
     public List<AdDetail> getUserAds(int userId, int page, int limit) {
+        return getUserAds(userId, page, limit, AdFields.ALL);
+    }
+
+    /**
+     * Fetches ads created by a specific user with pagination, reading only the given fields.
+     *
+     * @param userId the user ID
+     * @param page the page number
+     * @param limit the number of ads per page
+     * @param fields the fields to read
+     * @return a list of user ads
+     */
+    public List<AdDetail> getUserAds(int userId, int page, int limit, AdFields fields) {
         try {
             int offset = (page - 1) * limit;
-            List<Map<String, Object>> results = eq.queryDB(RETRY, SQL_GET_USER_ADS, userId, limit, offset);
+            List<Map<String, Object>> results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_USER_ADS), userId, limit, offset);
             return adsList(results);
         } catch (SQLException e) {
             log.error("Error fetching user ads: {}", e.getMessage());
@@ -368,6 +755,7 @@ public class DatabaseService {
 
     /**
      * Fetches favorite ads of a specific user with pagination.
+     * With write-behind on, the user's buffered toggles are flushed first so that the page sees them.
      *
      * @param userId the user ID
      * @param page the page number
@@ -375,9 +763,25 @@ public class DatabaseService {
      * @return a list of user favorite ads
      */
     public List<AdDetail> getUserFavoritesAds(int userId, int page, int limit) {
+        return getUserFavoritesAds(userId, page, limit, AdFields.ALL);
+    }
+
+    /**
+     * Fetches favorite ads of a specific user with pagination, reading only the given fields.
+     *
+     * @param userId the user ID
+     * @param page the page number
+     * @param limit the number of ads per page
+     * @param fields the fields to read
+     * @return a list of user favorite ads
+     */
+    public List<AdDetail> getUserFavoritesAds(int userId, int page, int limit, AdFields fields) {
         try {
             int offset = (page - 1) * limit;
-            List<Map<String, Object>> results = eq.queryDB(RETRY, SQL_GET_USER_FAVORITE_ADS, userId, limit, offset);
+            if (favoritesWriteBehind.isEnabled()) {
+                favoritesWriteBehind.flushUser(userId);
+            }
+            List<Map<String, Object>> results = eq.queryReplica(RETRY, userId, fields.project(SQL_GET_USER_FAVORITE_ADS), userId, limit, offset);
             return adsList(results);
         } catch (SQLException e) {
             log.error("Error fetching user ads: {}", e.getMessage());
@@ -427,13 +831,42 @@ public class DatabaseService {
 
     /**
      * Inserts an ad into the user's favorites.
+     * An ad that is already a favorite is rejected by the favorites index, without a round trip to the database.
+     * Only an active ad that is not deleted can be added.
+     * With write-behind on, the insert is buffered and written later in a batch, once the ad is found active on the
+     * primary. The buffered insert checks the ad again and is undone if the ad left the listings in the meantime.
+     * The ad's favorite count is raised with the next flush of {@link FavoriteCounts}.
      *
      * @param authorId the user ID
      * @param adId the ad ID
+     * @return true if the ad was added, false if there is no such active ad
+     * @throws DuplicateKeyException if the ad is already in the user's favorites
      * @throws SQLException if a database access error occurs
      */
-    public synchronized void insertAdsToFavorites(int authorId, int adId) throws SQLException {
+    public synchronized boolean insertAdsToFavorites(int authorId, int adId) throws SQLException {
+        if (favoritesIndex.isFavorite(authorId, adId)) {
+            throw new DuplicateKeyException("Ad id " + adId + " is already in the favorites of user id " + authorId);
+        }
+        if (favoritesWriteBehind.isEnabled()) {
+            if (eq.queryDB(RETRY, SQL_IS_AD_ACTIVE, adId).isEmpty()) {
+                log.info("No active ad with ad id {} to add to the favorites of user id {}", adId, authorId);
+                return false;
+            }
+            favoritesWriteBehind.enqueue(authorId, adId, true, false);
+            favoritesIndex.add(authorId, adId);
+            favoriteCounts.add(adId, 1);
+            eq.pinToPrimary(authorId);
+            return true;
+        }
         int affectedRows = eq.updateDB(RETRY, SQL_CREATE_NEW_FAVORITE_AD, authorId, adId);
+        if (affectedRows == 0) {
+            log.info("No active ad with ad id {} to add to the favorites of user id {}", adId, authorId);
+            return false;
+        }
+        eq.pinToPrimary(authorId);
+        favoritesIndex.add(authorId, adId);
+        favoriteCounts.add(adId, affectedRows);
         log.info("Inserted {} ads to favorites for user id {}", affectedRows, authorId);
+        return true;
     }
 }
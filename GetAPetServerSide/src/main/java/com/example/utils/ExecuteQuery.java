@@ -1,6 +1,5 @@
 package com.example.utils;
 
-import org.apache.commons.dbcp2.BasicDataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.postgresql.util.PSQLException;
 import org.postgresql.util.ServerErrorMessage;
@@ -8,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -17,25 +17,28 @@ import java.util.concurrent.TimeUnit;
  * This class supports executing both query and update operations on a database,
  * utilizing a retry mechanism to handle transient and recoverable SQL exceptions.
  * Uses Apache DBCP for connection pooling and SLF4J for logging.
+ * Read-only queries can be routed to a read replica through the {@link ReplicaRouter}.
  * JDBC is used directly for executing SQL queries and updates, providing precise control over database interactions.
  */
 @Service
 @Slf4j
 public class ExecuteQuery {
 
-    private final BasicDataSource dataSource;
+    private final DataSource dataSource;
+    private final ReplicaRouter replicaRouter;
     private static final Random rand = new Random();
     private static final int INITIAL_SLEEP_DURATION_MS = 1000;
     private static final int MAX_RETRIES = 3;
 
     /**
-     * Constructor to initialize the data source.
+     * Constructor to initialize the data sources.
      *
-     * @param dataSource The data source for database connections.
+     * @param replicaRouter The router holding the primary data source and the read replicas.
      */
     @Autowired
-    public ExecuteQuery(BasicDataSource dataSource) {
-        this.dataSource = dataSource;
+    public ExecuteQuery(ReplicaRouter replicaRouter) {
+        this.dataSource = replicaRouter.primary();
+        this.replicaRouter = replicaRouter;
     }
 
     /**
@@ -50,15 +53,16 @@ public class ExecuteQuery {
     /**
      * Executes a database query with a retry mechanism.
      *
-     * @param retry     The current retry attempt.
-     * @param query     The SQL query to execute.
-     * @param params    The parameters for the SQL query.
-     * @param operation The operation to perform on the database.
-     * @param <T>       The type of the result of the operation.
+     * @param dataSource The data source to run the query on.
+     * @param retry      The current retry attempt.
+     * @param query      The SQL query to execute.
+     * @param params     The parameters for the SQL query.
+     * @param operation  The operation to perform on the database.
+     * @param <T>        The type of the result of the operation.
      * @return The result of the database operation.
      * @throws SQLException if a database access error occurs.
      */
-    private <T> T executeQuery(int retry, String query, Object[] params, DBOperation<T> operation) throws SQLException {
+    private <T> T executeQuery(DataSource dataSource, int retry, String query, Object[] params, DBOperation<T> operation) throws SQLException {
         Connection con = null;
         PreparedStatement preparedStatement = null;
         try {
@@ -78,7 +82,7 @@ public class ExecuteQuery {
             log.warn("Recoverable exception occurred, retry attempt: {}", retry, e);
             if (shouldRetry(retry)) {
                 sleepUntilNextTry(retry);
-                return executeQuery(retry + 1, query, params, operation);
+                return executeQuery(dataSource, retry + 1, query, params, operation);
             }
             throw new SQLException(e);
         } catch (PSQLException e) {
@@ -179,21 +183,80 @@ public class ExecuteQuery {
      * @throws SQLException if a database access error occurs.
      */
     public List<Map<String, Object>> queryDB(int retry, String query, Object... params) throws SQLException {
-        return executeQuery(retry, query, params, (con, preparedStatement) -> {
-            List<Map<String, Object>> results = new ArrayList<>();
-            try (ResultSet rs = preparedStatement.executeQuery()) {
-                ResultSetMetaData metaData = rs.getMetaData();
-                int columnCount = metaData.getColumnCount();
-                while (rs.next()) {
-                    Map<String, Object> row = new HashMap<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        row.put(metaData.getColumnName(i), rs.getObject(i));
-                    }
-                    results.add(row);
+        return executeQuery(dataSource, retry, query, params, ExecuteQuery::readRows);
+    }
+
+    /**
+     * Executes a read-only query on a read replica and returns the result as a list of maps.
+     * The query runs on the primary when the session has written recently or no replica is healthy.
+     * A replica that cannot be connected to is taken out of rotation and the query falls back to the primary.
+     *
+     * @param retry      The current retry attempt.
+     * @param sessionKey The ID of the user the query is made for, or null if the query is not tied to a user.
+     * @param query      The SQL query to execute.
+     * @param params     The parameters for the SQL query.
+     * @return The result of the query as a list of maps.
+     * @throws SQLException if a database access error occurs.
+     */
+    public List<Map<String, Object>> queryReplica(int retry, Integer sessionKey, String query, Object... params) throws SQLException {
+        DataSource replica = replicaRouter.forRead(sessionKey);
+        if (replica == dataSource) {
+            return queryDB(retry, query, params);
+        }
+        try {
+            // No retries on a replica, the primary is the fallback
+            return executeQuery(replica, MAX_RETRIES, query, params, ExecuteQuery::readRows);
+        } catch (SQLException e) {
+            if (!isConnectionFailure(e)) {
+                throw e;
+            }
+            replicaRouter.markUnhealthy(replica);
+            return queryDB(retry, query, params);
+        }
+    }
+
+    /**
+     * Pins a session to the primary after it has written, so that its next reads see the write.
+     *
+     * @param sessionKey The ID of the user that has written.
+     */
+    public void pinToPrimary(Integer sessionKey) {
+        replicaRouter.pinToPrimary(sessionKey);
+    }
+
+    /**
+     * Reads all the rows of a query into a list of maps, keyed by column name.
+     */
+    private static List<Map<String, Object>> readRows(Connection con, PreparedStatement preparedStatement) throws SQLException {
+        List<Map<String, Object>> results = new ArrayList<>();
+        try (ResultSet rs = preparedStatement.executeQuery()) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            while (rs.next()) {
+                Map<String, Object> row = new HashMap<>();
+                for (int i = 1; i <= columnCount; i++) {
+                    row.put(metaData.getColumnName(i), rs.getObject(i));
                 }
+                results.add(row);
             }
-            return results;
-        });
+        }
+        return results;
+    }
+
+    /**
+     * Determines if an exception was caused by a failure to reach the database (SQL state class 08).
+     *
+     * @param e The exception to check.
+     * @return true if the database could not be connected to, false otherwise.
+     */
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sqlException && sqlException.getSQLState() != null
+                    && sqlException.getSQLState().startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -206,10 +269,37 @@ public class ExecuteQuery {
      * @throws SQLException if a database access error occurs.
      */
     public int updateDB(int retry, String query, Object... params) throws SQLException {
-        return executeQuery(retry, query, params, (con, preparedStatement) -> {
+        return executeQuery(dataSource, retry, query, params, (con, preparedStatement) -> {
             int affectedRows = preparedStatement.executeUpdate();
             log.info("Update executed successfully, affected rows: {}", affectedRows);
             return affectedRows;
         });
     }
+
+    /**
+     * Executes the same update for every set of parameters as one JDBC batch, in a single transaction.
+     *
+     * @param retry     The current retry attempt.
+     * @param query     The SQL update to execute.
+     * @param batch     The parameters of every execution of the update.
+     * @return The number of rows affected by every execution, in the order of the batch.
+     * @throws SQLException if a database access error occurs, in which case none of the batch is committed.
+     */
+    public int[] batchUpdateDB(int retry, String query, List<Object[]> batch) throws SQLException {
+        return executeQuery(dataSource, retry, query, new Object[0], (con, preparedStatement) -> {
+            for (Object[] params : batch) {
+                for (int i = 0; i < params.length; i++) {
+                    preparedStatement.setObject(i + 1, params[i]);
+                }
+                preparedStatement.addBatch();
+            }
+            int[] rowsPerUpdate = preparedStatement.executeBatch();
+            int affectedRows = 0;
+            for (int rows : rowsPerUpdate) {
+                affectedRows += Math.max(rows, 0);
+            }
+            log.info("Batch of {} updates executed successfully, affected rows: {}", batch.size(), affectedRows);
+            return rowsPerUpdate;
+        });
+    }
 }
@@ -0,0 +1,103 @@
+package com.example.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maintains the favorite_count of the ads in ad_listing, that get_all_ads?sort=popular orders by.
+ * Likes and unlikes are added up per ad in memory and applied every favorites.counts.flush-ms in one batched
+ * transaction, so that an ad liked by many users at once is updated once per flush instead of having every like
+ * wait on its row lock. The counts lag behind the favorites by up to a flush, which is fine for a sort order.
+ * The batch updates the ads in ascending ID order, so that flushes of several nodes can't deadlock.
+ */
+@Service
+@Slf4j
+public class FavoriteCounts {
+
+    static final String SQL_ADD_FAVORITE_COUNT = "UPDATE ad_listing SET favorite_count = favorite_count + ? WHERE ad_id = ?";
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    // Guards pending, the flush itself runs under flushLock so that a failed batch is put back before the next one
+    private final Object lock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Map<Integer, Integer> pending = new HashMap<>();
+
+    @Autowired
+    public FavoriteCounts(ExecuteQuery executeQuery) {
+        this.eq = executeQuery;
+    }
+
+    /**
+     * Adds to the favorite count of an ad, applied on the next flush.
+     *
+     * @param adId  the ad ID
+     * @param delta the number of users that started liking the ad, negative for users that stopped
+     */
+    public void add(int adId, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        synchronized (lock) {
+            addPending(adId, delta);
+        }
+    }
+
+    /**
+     * Applies the pending changes to the favorite counts in one batch.
+     * If the batch fails, its changes are put back to be applied with the next one.
+     */
+    @Scheduled(fixedDelayString = "${favorites.counts.flush-ms:1000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<Integer, Integer> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new TreeMap<>(pending);
+                pending = new HashMap<>();
+            }
+            List<Object[]> updates = new ArrayList<>(batch.size());
+            for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+                updates.add(new Object[]{entry.getValue(), entry.getKey()});
+            }
+            try {
+                eq.batchUpdateDB(RETRY, SQL_ADD_FAVORITE_COUNT, updates);
+                log.debug("Applied the favorite count changes of {} ads", batch.size());
+            } catch (SQLException e) {
+                log.warn("Failed to apply the favorite count changes of {} ads, retrying with the next flush: {}", batch.size(), e.getMessage());
+                synchronized (lock) {
+                    batch.forEach(this::addPending);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the remaining changes when the server shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    // Drops the ads whose changes cancel out, so that they are not written at all
+    private void addPending(int adId, int delta) {
+        pending.merge(adId, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+}
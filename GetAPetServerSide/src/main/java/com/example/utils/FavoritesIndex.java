@@ -0,0 +1,264 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of the users' favorite ads, backed by a compressed Roaring bitmap.
+ * Every favorite is stored as the 64-bit key (user ID, ad ID) in a single bitmap, so the favorites of a user
+ * share containers instead of each user holding its own set. A user's favorites are loaded on first use
+ * and kept up to date by the favorite write paths of {@link DatabaseService}, by {@link AdPurger} and {@link AdArchiver}
+ * for the favorites of the ads they remove, and by the {@link CacheInvalidationBus} for the favorites written by other
+ * nodes. At most favorites.index.max-users users are kept, the users loaded first are unloaded to make room.
+ */
+@Service
+@Slf4j
+public class FavoritesIndex implements CacheInvalidationListener {
+
+    static final String SQL_GET_USER_FAVORITE_AD_IDS = "SELECT ad_id FROM favorites WHERE user_id = ?";
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    private final int maxUsers;
+    private final Roaring64Bitmap favorites = new Roaring64Bitmap();
+    private final RoaringBitmap loadedUsers = new RoaringBitmap();
+    private final ArrayDeque<Integer> loadOrder = new ArrayDeque<>();
+    // The changes to the favorites of the users being loaded, applied once their load is done since the load may
+    // have read the favorites before the changes committed
+    private final Map<Integer, List<ChangeEvent>> loading = new HashMap<>();
+    // Roaring bitmaps are not thread safe, lookups share the read lock and updates take the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public FavoritesIndex(ExecuteQuery executeQuery, @Value("${favorites.index.max-users:100000}") int maxUsers) {
+        this.eq = executeQuery;
+        this.maxUsers = maxUsers;
+    }
+
+    /**
+     * Checks if an ad is one of the user's favorites.
+     *
+     * @param userId the user ID
+     * @param adId   the ad ID
+     * @return true if the user likes the ad, false otherwise
+     * @throws SQLException if loading the user's favorites fails
+     */
+    public boolean isFavorite(int userId, int adId) throws SQLException {
+        return whileLoaded(userId, lock.readLock(), () -> favorites.contains(key(userId, adId)));
+    }
+
+    /**
+     * Marks each ad of a listing page with whether the user likes it.
+     *
+     * @param userId the user ID
+     * @param ads    the ads of the page
+     * @return the ads with their is_favorite flag set
+     * @throws SQLException if loading the user's favorites fails
+     */
+    public List<DatabaseService.AdDetail> markFavorites(int userId, List<DatabaseService.AdDetail> ads) throws SQLException {
+        return whileLoaded(userId, lock.readLock(), () -> {
+            List<DatabaseService.AdDetail> marked = new ArrayList<>(ads.size());
+            for (DatabaseService.AdDetail ad : ads) {
+                marked.add(ad.withFavorite(favorites.contains(key(userId, ad.ad_id()))));
+            }
+            return marked;
+        });
+    }
+
+    /**
+     * Records that the user now likes an ad.
+     *
+     * @param userId the user ID
+     * @param adId   the ad ID
+     * @throws SQLException if loading the user's favorites fails
+     */
+    public void add(int userId, int adId) throws SQLException {
+        whileLoaded(userId, lock.writeLock(), () -> {
+            favorites.addLong(key(userId, adId));
+            return null;
+        });
+    }
+
+    /**
+     * Records that the user no longer likes an ad.
+     *
+     * @param userId the user ID
+     * @param adId   the ad ID
+     */
+    public void remove(int userId, int adId) {
+        lock.writeLock().lock();
+        try {
+            favorites.removeLong(key(userId, adId));
+            List<ChangeEvent> pending = loading.get(userId);
+            if (pending != null) {
+                pending.add(new ChangeEvent(Change.FAVORITE_REMOVED, adId, userId, true));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a favorite written by another node to the users that are loaded, the others load it with their favorites.
+     * This node's own writes are skipped, the index already has them and with write-behind on it is ahead of the database.
+     */
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (event.local() || (event.change() != Change.FAVORITE_ADDED && event.change() != Change.FAVORITE_REMOVED)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            List<ChangeEvent> pending = loading.get(event.userId());
+            if (pending != null) {
+                pending.add(event);
+            }
+            apply(event);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unloads every user, their favorites are loaded again on next use.
+     */
+    @Override
+    public void onFlush() {
+        lock.writeLock().lock();
+        try {
+            favorites.clear();
+            loadedUsers.clear();
+            loadOrder.clear();
+            // The loads in flight may have read the favorites before the missed changes, they are not kept either
+            loading.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the index in bytes, to keep an eye on its heap usage.
+     *
+     * @return the serialized size of the index
+     */
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            return favorites.getLongSizeInBytes() + loadedUsers.getLongSizeInBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs an action on the user's favorites under the given lock, once they are loaded.
+     * The user may be unloaded, by a flush or to make room for another user, between its load and the lock,
+     * so the load is checked again under the lock and the user is loaded again if it is gone.
+     */
+    private <T> T whileLoaded(int userId, Lock heldLock, Supplier<T> action) throws SQLException {
+        while (true) {
+            ensureLoaded(userId);
+            heldLock.lock();
+            try {
+                if (loadedUsers.contains(userId)) {
+                    return action.get();
+                }
+            } finally {
+                heldLock.unlock();
+            }
+            log.debug("Favorites of user id {} were unloaded before use, loading them again", userId);
+        }
+    }
+
+    /**
+     * Loads the user's favorites from the database unless they were already loaded.
+     * The query runs outside the lock, the changes to the user's favorites that arrive meanwhile are applied after it.
+     * If two threads load the same user the first one to finish wins.
+     */
+    private void ensureLoaded(int userId) throws SQLException {
+        lock.readLock().lock();
+        try {
+            if (loadedUsers.contains(userId)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<ChangeEvent> pending;
+        lock.writeLock().lock();
+        try {
+            if (loadedUsers.contains(userId)) {
+                return;
+            }
+            pending = loading.computeIfAbsent(userId, id -> new ArrayList<>());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<Map<String, Object>> rows;
+        try {
+            rows = eq.queryDB(RETRY, SQL_GET_USER_FAVORITE_AD_IDS, userId);
+        } catch (SQLException e) {
+            lock.writeLock().lock();
+            try {
+                loading.remove(userId, pending);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            // A flush while loading drops the load, the next use loads the user again
+            if (!loadedUsers.contains(userId) && loading.remove(userId, pending)) {
+                if (loadedUsers.getCardinality() >= maxUsers) {
+                    unload(loadOrder.poll());
+                }
+                for (Map<String, Object> row : rows) {
+                    favorites.addLong(key(userId, (Integer) row.get("ad_id")));
+                }
+                loadedUsers.add(userId);
+                loadOrder.add(userId);
+                pending.forEach(this::apply);
+                log.debug("Loaded {} favorites of user id {}", rows.size(), userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Callers hold the write lock
+    private void apply(ChangeEvent event) {
+        if (event.change() == Change.FAVORITE_REMOVED) {
+            favorites.removeLong(key(event.userId(), event.adId()));
+        } else if (loadedUsers.contains(event.userId())) {
+            favorites.addLong(key(event.userId(), event.adId()));
+        }
+    }
+
+    // Callers hold the write lock
+    private void unload(int userId) {
+        Roaring64Bitmap userFavorites = new Roaring64Bitmap();
+        favorites.forEachInRange(key(userId, 0), Integer.MAX_VALUE, userFavorites::addLong);
+        favorites.andNot(userFavorites);
+        loadedUsers.remove(userId);
+    }
+
+    private static long key(int userId, int adId) {
+        return ((long) userId << 32) | (adId & 0xFFFFFFFFL);
+    }
+}
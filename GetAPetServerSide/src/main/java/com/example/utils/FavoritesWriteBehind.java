@@ -0,0 +1,289 @@
+package com.example.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional write-behind buffer for favorite toggles.
+ * A toggle is acknowledged as soon as it is buffered, and toggles of the same (user, ad) key collapse into one,
+ * so an add followed by a remove never reaches the database. The buffer is flushed in batched transactions every
+ * favorites.write-behind.flush-ms, or as soon as it holds favorites.write-behind.max-pending toggles, which bounds
+ * the toggles lost if the server dies. Reads keep seeing their own writes through {@link #pendingCountDelta(int)}
+ * and {@link #flushUser(int)}. A toggle that can't be written, or a like that the insert skips because its ad was
+ * deleted or adopted after the like was buffered, is undone in the {@link FavoritesIndex} and the
+ * {@link FavoriteCounts}, which took it when it was buffered.
+ * It is the first cache listener to be flushed, so that the favorites index reloads users with their buffered toggles written.
+ */
+@Service
+@Slf4j
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class FavoritesWriteBehind implements CacheInvalidationListener {
+
+    // The same guard as DatabaseService.SQL_CREATE_NEW_FAVORITE_AD, the ad may have left the listings since the like was buffered
+    static final String SQL_INSERT_FAVORITE = """
+            INSERT INTO favorites (user_id, ad_id)
+            SELECT ?, id FROM ads WHERE id = ? AND status = 'active' AND deleted_at IS NULL
+            ON CONFLICT DO NOTHING""";
+    static final String SQL_GET_FAVORITE = "SELECT ad_id FROM favorites WHERE user_id = ? and ad_id = ?";
+    static final String SQL_DELETE_FAVORITE = "DELETE FROM favorites WHERE user_id = ? and ad_id = ?";
+    private static final int RETRY = 0;
+
+    private final ExecuteQuery eq;
+    private final FavoritesIndex favoritesIndex;
+    private final FavoriteCounts favoriteCounts;
+    @Getter
+    private final boolean enabled;
+    private final int maxPending;
+    // Guards pending and inFlight, the flush itself runs under flushLock so that batches commit in order
+    private final Object lock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Map<Long, Toggle> pending = new LinkedHashMap<>();
+    private Map<Long, Toggle> inFlight = Map.of();
+
+    /**
+     * The state of a (user, ad) key before the first buffered toggle and after the last one.
+     */
+    record Toggle(boolean wasFavorite, boolean favorite) {}
+
+    @Autowired
+    public FavoritesWriteBehind(ExecuteQuery executeQuery, FavoritesIndex favoritesIndex, FavoriteCounts favoriteCounts,
+                                @Value("${favorites.write-behind.enabled:false}") boolean enabled,
+                                @Value("${favorites.write-behind.max-pending:500}") int maxPending) {
+        this.eq = executeQuery;
+        this.favoritesIndex = favoritesIndex;
+        this.favoriteCounts = favoriteCounts;
+        this.enabled = enabled;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Buffers a favorite toggle. A toggle that brings the key back to its state in the database is dropped.
+     *
+     * @param userId      the user ID
+     * @param adId        the ad ID
+     * @param favorite    true if the user now likes the ad, false if the user no longer likes it
+     * @param wasFavorite true if the user liked the ad before this toggle
+     */
+    public void enqueue(int userId, int adId, boolean favorite, boolean wasFavorite) {
+        boolean full;
+        synchronized (lock) {
+            long key = key(userId, adId);
+            Toggle previous = pending.get(key);
+            boolean original = previous != null ? previous.wasFavorite() : wasFavorite;
+            if (original == favorite) {
+                pending.remove(key);
+            } else {
+                pending.put(key, new Toggle(original, favorite));
+            }
+            full = pending.size() >= maxPending;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns how much the buffered toggles change the user's favorites count in the database.
+     *
+     * @param userId the user ID
+     * @return the number of buffered adds minus the number of buffered removes of the user
+     */
+    public long pendingCountDelta(int userId) {
+        synchronized (lock) {
+            return countDelta(pending, userId) + countDelta(inFlight, userId);
+        }
+    }
+
+    /**
+     * Flushes the buffer if it holds toggles of the user, so that the user's favorites can be read from the database.
+     *
+     * @param userId the user ID
+     */
+    public void flushUser(int userId) {
+        boolean hasPending;
+        synchronized (lock) {
+            hasPending = countToggles(pending, userId) > 0 || countToggles(inFlight, userId) > 0;
+        }
+        if (hasPending) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered toggles to the database, the adds and the removes each in one batch.
+     * A batch that fails is retried toggle by toggle, so that one bad toggle (e.g. a like of a user that was
+     * deleted in the meantime) does not lose the others.
+     */
+    @Scheduled(fixedDelayString = "${favorites.write-behind.flush-ms:50}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            Map<Long, Toggle> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                inFlight = batch;
+                pending = new LinkedHashMap<>();
+            }
+            List<Object[]> inserts = new ArrayList<>();
+            List<Object[]> deletes = new ArrayList<>();
+            for (Map.Entry<Long, Toggle> entry : batch.entrySet()) {
+                Object[] params = {userId(entry.getKey()), adId(entry.getKey())};
+                (entry.getValue().favorite() ? inserts : deletes).add(params);
+            }
+            write(SQL_INSERT_FAVORITE, inserts, true);
+            write(SQL_DELETE_FAVORITE, deletes, false);
+            log.debug("Flushed {} favorite toggles, {} adds and {} removes", batch.size(), inserts.size(), deletes.size());
+        } finally {
+            synchronized (lock) {
+                inFlight = Map.of();
+            }
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void onChange(ChangeEvent event) {
+        // Toggles of other nodes don't change what this node has buffered
+    }
+
+    @Override
+    public void onFlush() {
+        flush();
+    }
+
+    /**
+     * Flushes the remaining toggles when the server shuts down.
+     */
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private void write(String query, List<Object[]> batch, boolean favorite) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            int[] rows = eq.batchUpdateDB(RETRY, query, batch);
+            for (int i = 0; i < rows.length; i++) {
+                undoSkippedLike(batch.get(i), rows[i], favorite);
+            }
+        } catch (SQLException e) {
+            log.warn("Batch of {} favorite toggles failed, writing them one by one: {}", batch.size(), e.getMessage());
+            for (Object[] params : batch) {
+                try {
+                    undoSkippedLike(params, eq.updateDB(RETRY, query, params), favorite);
+                } catch (SQLException rowException) {
+                    log.error("Dropped favorite toggle of user id {} and ad id {}: {}", params[0], params[1], rowException.getMessage());
+                    undo((Integer) params[0], (Integer) params[1], favorite);
+                }
+            }
+        }
+    }
+
+    /**
+     * Undoes a like that the insert skipped, as its ad is no longer active.
+     * A like the database already held, e.g. written by another node at the same time, is kept in the index, its
+     * count was only taken twice.
+     */
+    private void undoSkippedLike(Object[] params, int rows, boolean favorite) {
+        if (!favorite || rows != 0) {
+            return;
+        }
+        int userId = (Integer) params[0];
+        int adId = (Integer) params[1];
+        try {
+            if (!eq.queryDB(RETRY, SQL_GET_FAVORITE, userId, adId).isEmpty()) {
+                favoriteCounts.add(adId, -1);
+                return;
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to read the favorite of user id {} and ad id {}: {}", userId, adId, e.getMessage());
+        }
+        log.info("Dropped like of user id {} and ad id {}, the ad is no longer active", userId, adId);
+        undo(userId, adId, true);
+    }
+
+    /**
+     * Undoes a toggle that could not be written, so that the index and the counts agree with the database again.
+     * A newer toggle of the same key is now based on the state in the database instead, the index and the counts
+     * already hold it.
+     */
+    private void undo(int userId, int adId, boolean favorite) {
+        synchronized (lock) {
+            long key = key(userId, adId);
+            Toggle newer = pending.get(key);
+            if (newer != null) {
+                if (newer.favorite() == !favorite) {
+                    pending.remove(key);
+                } else {
+                    pending.put(key, new Toggle(!favorite, newer.favorite()));
+                }
+                return;
+            }
+        }
+        try {
+            if (favorite) {
+                favoritesIndex.remove(userId, adId);
+            } else {
+                favoritesIndex.add(userId, adId);
+            }
+        } catch (SQLException e) {
+            // The user is not loaded, it loads the favorite from the database
+            log.debug("Favorites of user id {} not loaded: {}", userId, e.getMessage());
+        }
+        favoriteCounts.add(adId, favorite ? -1 : 1);
+    }
+
+    private static long countDelta(Map<Long, Toggle> toggles, int userId) {
+        long delta = 0;
+        for (Map.Entry<Long, Toggle> entry : toggles.entrySet()) {
+            if (userId(entry.getKey()) == userId) {
+                delta += entry.getValue().favorite() ? 1 : -1;
+            }
+        }
+        return delta;
+    }
+
+    private static int countToggles(Map<Long, Toggle> toggles, int userId) {
+        int count = 0;
+        for (Long key : toggles.keySet()) {
+            if (userId(key) == userId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long key(int userId, int adId) {
+        return ((long) userId << 32) | (adId & 0xFFFFFFFFL);
+    }
+
+    private static int userId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int adId(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of the images served under /images, evicted least recently used first.
+ * A cached image is a read-only memory mapping of its file together with its precomputed response headers,
+ * so a hit costs neither a file open nor a stat, and the bytes are written from the page cache without a copy
+ * on the heap. Images larger than images.cache.max-file-bytes are looked up but not mapped, they are served
+ * with sendfile instead. Uploaded images are never rewritten in place, a deleted one is dropped through
+ * {@link #invalidate(Path)}.
+ */
+@Service
+@Slf4j
+public class HotImageCache {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final Path root;
+    private final long maxBytes;
+    private final long maxFileBytes;
+    // Access ordered, so that the eldest entry is the least recently used one. Guarded by this
+    private final LinkedHashMap<Path, ImageFile> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    // Bumped by every invalidation, so that a lookup that raced with a delete doesn't cache the deleted image
+    private long invalidations;
+
+    /**
+     * An image and the headers it is served with.
+     *
+     * @param path         the image file
+     * @param content      the mapped content of the file, or null if the file is too large to be cached
+     * @param length       the size of the file in bytes
+     * @param modifiedAt   the modification time of the file, in epoch milliseconds
+     * @param lastModified the Last-Modified header
+     * @param etag         the ETag header, derived from the size and the modification time of the file
+     * @param contentType  the Content-Type header
+     */
+    public record ImageFile(Path path, ByteBuffer content, long length, long modifiedAt, String lastModified, String etag, String contentType) {}
+
+    @Autowired
+    public HotImageCache(@Value("${external.images.path}") String imagesFolderPath,
+                         @Value("${images.cache.max-bytes:67108864}") long maxBytes,
+                         @Value("${images.cache.max-file-bytes:2097152}") long maxFileBytes) {
+        this.root = Path.of(imagesFolderPath).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Looks up an image, mapping and caching its file on a miss.
+     *
+     * @param relativePath the path of the image under the images folder
+     * @return the image, or null if there is no such file under the images folder
+     * @throws IOException if the file cannot be read
+     */
+    public ImageFile get(String relativePath) throws IOException {
+        Path path = root.resolve(relativePath).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            return null;
+        }
+        long stamp;
+        synchronized (this) {
+            ImageFile image = images.get(path);
+            if (image != null) {
+                return image;
+            }
+            stamp = invalidations;
+        }
+        ImageFile image = load(path);
+        if (image != null && image.content() != null) {
+            put(image, stamp);
+        }
+        return image;
+    }
+
+    /**
+     * Drops an image that was deleted.
+     *
+     * @param path the image file
+     */
+    public synchronized void invalidate(Path path) {
+        invalidations++;
+        ImageFile image = images.remove(path.toAbsolutePath().normalize());
+        if (image != null) {
+            cachedBytes -= image.length();
+        }
+    }
+
+    /**
+     * Returns the number of bytes mapped by the cached images.
+     *
+     * @return the cached bytes
+     */
+    public synchronized long cachedBytes() {
+        return cachedBytes;
+    }
+
+    private ImageFile load(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        ByteBuffer content = null;
+        if (length <= maxFileBytes) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+        String contentType = MediaTypeFactory.getMediaType(path.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+        return new ImageFile(path, content, length, lastModified, HTTP_DATE.format(Instant.ofEpochMilli(lastModified)),
+                "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"", contentType);
+    }
+
+    private synchronized void put(ImageFile image, long stamp) {
+        if (stamp != invalidations || images.containsKey(image.path())) {
+            return;
+        }
+        images.put(image.path(), image);
+        cachedBytes += image.length();
+        Iterator<Map.Entry<Path, ImageFile>> eldest = images.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().length();
+            eldest.remove();
+        }
+        log.debug("Cached image {}, {} images in {} bytes", image.path().getFileName(), images.size(), cachedBytes);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Fits uploaded images into the size the ads are stored with, images.upload.max-dimension pixels on the longer side
+ * and images.upload.max-stored-bytes bytes. Images that already fit are stored as they are.
+ * A larger image is decoded with source subsampling, so that the decoded image is at most about twice the cap on each
+ * side however large the photo is, and the heap it takes stays bounded. It is then scaled to the cap and written as
+ * JPEG with a falling quality until it fits, PNGs with transparency are kept as PNG if they fit.
+ */
+@Service
+@Slf4j
+public class ImageDownscaler {
+
+    private static final float[] JPEG_QUALITIES = {0.85f, 0.7f, 0.55f};
+    // Below this the image is not worth showing, it is rejected instead of shrunk further
+    private static final int MIN_DIMENSION = 64;
+
+    private final int maxDimension;
+    private final long maxBytes;
+
+    /**
+     * The image to store.
+     *
+     * @param file        the file holding the image, the source file if it was kept as it is
+     * @param contentType the content type of the image
+     * @param size        the size of the file in bytes
+     * @param width       the width of the image in pixels
+     * @param height      the height of the image in pixels
+     */
+    public record FittedImage(Path file, String contentType, long size, int width, int height) {}
+
+    @Autowired
+    public ImageDownscaler(@Value("${images.upload.max-dimension:1600}") int maxDimension,
+                           @Value("${images.upload.max-stored-bytes:1048576}") long maxBytes) {
+        this.maxDimension = maxDimension;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Fits an image into the stored size.
+     *
+     * @param source      the uploaded image
+     * @param contentType the content type of the uploaded image
+     * @param target      the file to write a downscaled image to, it is not created if the image fits as it is
+     * @return the image to store
+     * @throws IOException if the file is not a readable image or can't be made to fit
+     */
+    public FittedImage fit(Path source, String contentType, Path target) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("File is not a valid image, please use jpg/jpeg/png formats only");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                long size = Files.size(source);
+                if (size <= maxBytes && Math.max(width, height) <= maxDimension) {
+                    return new FittedImage(source, contentType, size, width, height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * maxDimension));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                log.info("Downscaling a {}x{} image of {} bytes, decoded at 1/{}", width, height, size, subsampling);
+                return shrink(decoded, target);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private FittedImage shrink(BufferedImage decoded, Path target) throws IOException {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(decoded.getWidth(), decoded.getHeight()));
+        int width = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+        while (Math.max(width, height) >= MIN_DIMENSION) {
+            if (decoded.getColorModel().hasAlpha()) {
+                ImageIO.write(scale(decoded, width, height, BufferedImage.TYPE_INT_ARGB), "png", target.toFile());
+                if (Files.size(target) <= maxBytes) {
+                    return new FittedImage(target, "image/png", Files.size(target), width, height);
+                }
+            }
+            BufferedImage rgb = scale(decoded, width, height, BufferedImage.TYPE_INT_RGB);
+            for (float quality : JPEG_QUALITIES) {
+                writeJpeg(rgb, quality, target);
+                if (Files.size(target) <= maxBytes) {
+                    return new FittedImage(target, "image/jpeg", Files.size(target), width, height);
+                }
+            }
+            width /= 2;
+            height /= 2;
+        }
+        throw new IOException("Image can't be stored in " + maxBytes + " bytes");
+    }
+
+    private static BufferedImage scale(BufferedImage source, int width, int height, int type) {
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                // JPEG has no transparency, transparent pixels become white
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, float quality, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        Files.deleteIfExists(target);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Storage of the ad images.
+ * An image is addressed by its key, the part of the ad's image_path after /images/.
+ * The implementation is picked by the images.store property: "local" keeps the images in external.images.path
+ * on this server, "s3" keeps them in an S3 compatible bucket shared by all the server nodes.
+ */
+public interface ImageStore {
+
+    /**
+     * Stores an image, streaming its content.
+     *
+     * @param fileName    the sanitized file name of the upload, the key is derived from it
+     * @param content     the content of the image, read to the end but not closed
+     * @param length      the size of the content in bytes
+     * @param contentType the content type of the image
+     * @return the key of the stored image
+     * @throws IOException if the image could not be stored
+     */
+    String save(String fileName, InputStream content, long length, String contentType) throws IOException;
+
+    /**
+     * Deletes an image.
+     *
+     * @param key the key of the image
+     * @return true if the image was deleted or doesn't exist, false otherwise
+     */
+    boolean delete(String key);
+
+    /**
+     * Deletes several images at once.
+     *
+     * @param keys the keys of the images
+     * @return the number of images that could not be deleted
+     */
+    int deleteAll(Collection<String> keys);
+
+    /**
+     * Moves an image out of the served images into the archive, where it keeps its key but can't be downloaded.
+     *
+     * @param key the key of the image
+     * @return true if the image was archived or doesn't exist, false otherwise
+     */
+    boolean archive(String key);
+
+    /**
+     * Returns a URL the client can download the image from directly, without going through this server.
+     *
+     * @param key the key of the image
+     * @return the direct download URL, or empty if the image is served by this server
+     */
+    Optional<String> downloadUrl(String key);
+}
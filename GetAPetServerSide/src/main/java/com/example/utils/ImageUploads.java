@@ -0,0 +1,355 @@
+package com.example.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable chunked uploads of ad images, for photos larger than the single request upload of
+ * {@link SaveImageToServer} takes. An upload is started with its size and SHA-256, its chunks are then written in any
+ * order and as many times as needed to a temp file of that size, a fixed size buffer at a time, and on completion the
+ * file is checked against the SHA-256, fitted into the stored size by the {@link ImageDownscaler} and saved in the
+ * {@link ImageStore}. The ad is then created with the upload ID, which claims the stored image.
+ * Uploads live in the memory of the node that started them, so their requests must reach the same node. Uploads
+ * left untouched for images.upload.ttl-ms are dropped, with the image of a completed one that no ad claimed.
+ */
+@Service
+@Slf4j
+public class ImageUploads {
+
+    private static final List<String> FILE_TYPES = List.of("image/jpeg", "image/jpg", "image/png");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ImageStore imageStore;
+    private final ImageDownscaler imageDownscaler;
+    private final Path tempFolder;
+    private final int chunkSize;
+    private final long maxBytes;
+    private final int maxUploads;
+    private final long ttlMs;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * The state of an upload, sent to the client to start or resume it.
+     *
+     * @param upload_id      the ID of the upload
+     * @param chunk_size     the size of every chunk but the last one, in bytes
+     * @param chunk_count    the number of chunks
+     * @param missing_chunks the indexes of the chunks not received yet
+     */
+    public record UploadStatus(String upload_id, int chunk_size, int chunk_count, List<Integer> missing_chunks) {}
+
+    /**
+     * A completed upload.
+     *
+     * @param upload_id the ID of the upload, to create the ad with
+     * @param size      the size of the stored image in bytes
+     * @param width     the width of the stored image in pixels
+     * @param height    the height of the stored image in pixels
+     */
+    public record UploadedImage(String upload_id, long size, int width, int height) {}
+
+    private static final class Upload {
+        final String id;
+        final int userId;
+        final String fileName;
+        final String contentType;
+        final long size;
+        final int chunkSize;
+        final int chunkCount;
+        final String sha256;
+        final Path file;
+        final BitSet received = new BitSet();
+        volatile long touchedAt = System.currentTimeMillis();
+        // The image store key, once the upload is completed
+        String key;
+        UploadedImage image;
+
+        Upload(String id, int userId, String fileName, String contentType, long size, int chunkSize, String sha256, Path file) {
+            this.id = id;
+            this.userId = userId;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.sha256 = sha256;
+            this.file = file;
+        }
+
+        synchronized UploadStatus status() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < chunkCount; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return new UploadStatus(id, chunkSize, chunkCount, missing);
+        }
+    }
+
+    @Autowired
+    public ImageUploads(ImageStore imageStore, ImageDownscaler imageDownscaler,
+                        @Value("${images.upload.temp-path:${java.io.tmpdir}/getapet-uploads}") String tempPath,
+                        @Value("${images.upload.chunk-size:524288}") int chunkSize,
+                        @Value("${images.upload.max-bytes:31457280}") long maxBytes,
+                        @Value("${images.upload.max-open:1000}") int maxUploads,
+                        @Value("${images.upload.ttl-ms:3600000}") long ttlMs) throws IOException {
+        this.imageStore = imageStore;
+        this.imageDownscaler = imageDownscaler;
+        this.tempFolder = Files.createDirectories(Paths.get(tempPath));
+        this.chunkSize = chunkSize;
+        this.maxBytes = maxBytes;
+        this.maxUploads = maxUploads;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Starts an upload, with a temp file of its size.
+     *
+     * @param userId      the ID of the user uploading the image
+     * @param fileName    the name of the image file
+     * @param contentType the content type of the image
+     * @param size        the size of the image in bytes
+     * @param sha256      the hex SHA-256 of the image
+     * @return the state of the new upload
+     * @throws IllegalArgumentException if the image is not a jpg/jpeg/png or is larger than images.upload.max-bytes
+     * @throws IllegalStateException    if images.upload.max-open uploads are in progress
+     * @throws IOException              if the temp file can't be created
+     */
+    public UploadStatus start(int userId, String fileName, String contentType, long size, String sha256) throws IOException {
+        if (contentType == null || !FILE_TYPES.contains(contentType)) {
+            throw new IllegalArgumentException("File is not a valid image, please use jpg/jpeg/png formats only");
+        }
+        if (size <= 0 || size > maxBytes) {
+            throw new IllegalArgumentException("Image size must be between 1 and " + maxBytes + " bytes");
+        }
+        if (sha256 == null || !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("Invalid sha256 " + sha256);
+        }
+        if (uploads.size() >= maxUploads) {
+            throw new IllegalStateException("Too many uploads in progress");
+        }
+        String id = UUID.randomUUID().toString();
+        Path file = tempFolder.resolve(id + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        String safeFilename = fileName != null && !fileName.isBlank() ? fileName.replaceAll("\\s", "_") : "image_" + System.currentTimeMillis();
+        Upload upload = new Upload(id, userId, safeFilename, contentType, size, chunkSize, sha256.toLowerCase(), file);
+        uploads.put(id, upload);
+        log.info("Started upload {} of {} bytes in {} chunks for user {}", id, size, upload.chunkCount, userId);
+        return upload.status();
+    }
+
+    /**
+     * Returns the state of an upload, to resume it.
+     *
+     * @param uploadId the ID of the upload
+     * @return the state of the upload, or null if there is no such upload in progress
+     */
+    public UploadStatus status(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        return upload == null || upload.key != null ? null : upload.status();
+    }
+
+    /**
+     * Writes a chunk of an upload to its offset in the temp file. A chunk written again replaces the previous one.
+     *
+     * @param uploadId the ID of the upload
+     * @param index    the index of the chunk, from 0
+     * @param content  the content of the chunk, which must be chunk_size bytes but for the last chunk
+     * @return the state of the upload, or null if there is no such upload in progress
+     * @throws IllegalArgumentException if the index is out of range or the content has the wrong size
+     * @throws IOException              if the chunk can't be read or written
+     */
+    public UploadStatus writeChunk(String uploadId, int index, InputStream content) throws IOException {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || upload.key != null) {
+            return null;
+        }
+        if (index < 0 || index >= upload.chunkCount) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (upload.chunkCount - 1));
+        }
+        upload.touchedAt = System.currentTimeMillis();
+        long offset = (long) index * upload.chunkSize;
+        long expected = Math.min(upload.chunkSize, upload.size - offset);
+        long written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileChannel channel = FileChannel.open(upload.file, StandardOpenOption.WRITE)) {
+            int read;
+            // Reads one byte past the expected size, to reject a chunk that is too large without reading all of it
+            while ((read = content.read(buffer, 0, (int) Math.min(buffer.length, expected - written + 1))) > 0) {
+                if (written + read > expected) {
+                    throw new IllegalArgumentException("Chunk " + index + " must be " + expected + " bytes");
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    written += channel.write(bytes, offset + written);
+                }
+            }
+        }
+        if (written != expected) {
+            throw new IllegalArgumentException("Chunk " + index + " must be " + expected + " bytes, got " + written);
+        }
+        synchronized (upload) {
+            upload.received.set(index);
+        }
+        return upload.status();
+    }
+
+    /**
+     * Completes an upload once all its chunks were written. The image is checked against its SHA-256, fitted into the
+     * stored size and saved in the image store. An upload that fails the checks is dropped.
+     *
+     * @param uploadId the ID of the upload
+     * @param userId   the ID of the user that started the upload
+     * @return the stored image, or null if the user has no such upload
+     * @throws IllegalStateException    if chunks are missing
+     * @throws IllegalArgumentException if the image does not match its SHA-256
+     * @throws IOException              if the image is not valid or can't be stored
+     */
+    public UploadedImage complete(String uploadId, int userId) throws IOException {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || upload.userId != userId) {
+            return null;
+        }
+        synchronized (upload) {
+            if (upload.key != null) {
+                return upload.image;
+            }
+            if (upload.received.cardinality() < upload.chunkCount) {
+                throw new IllegalStateException((upload.chunkCount - upload.received.cardinality()) + " chunks are missing");
+            }
+            upload.touchedAt = System.currentTimeMillis();
+            Path downscaled = tempFolder.resolve(upload.id + ".fit");
+            try {
+                String sha256 = sha256(upload.file);
+                if (!sha256.equals(upload.sha256)) {
+                    throw new IllegalArgumentException("Image does not match its sha256, expected " + upload.sha256 + " got " + sha256);
+                }
+                ImageDownscaler.FittedImage fitted = imageDownscaler.fit(upload.file, upload.contentType, downscaled);
+                String fileName = fitted.contentType().equals(upload.contentType) ? upload.fileName : withJpgExtension(upload.fileName);
+                try (InputStream in = Files.newInputStream(fitted.file())) {
+                    upload.key = imageStore.save(fileName, in, fitted.size(), fitted.contentType());
+                }
+                upload.image = new UploadedImage(upload.id, fitted.size(), fitted.width(), fitted.height());
+                log.info("Completed upload {} of {} bytes, stored {} bytes as {}", upload.id, upload.size, fitted.size(), upload.key);
+                return upload.image;
+            } catch (IOException | RuntimeException e) {
+                uploads.remove(upload.id);
+                throw e;
+            } finally {
+                Files.deleteIfExists(upload.file);
+                Files.deleteIfExists(downscaled);
+            }
+        }
+    }
+
+    /**
+     * Claims the image of a completed upload for an ad, after which it is no longer dropped with the upload.
+     *
+     * @param uploadId the ID of the upload
+     * @param userId   the ID of the user that started the upload
+     * @return the image store key of the image
+     * @throws IllegalArgumentException if the user has no such completed upload
+     */
+    public String claim(String uploadId, int userId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || upload.userId != userId || upload.key == null || !uploads.remove(uploadId, upload)) {
+            throw new IllegalArgumentException("No completed upload " + uploadId);
+        }
+        return upload.key;
+    }
+
+    /**
+     * Drops the uploads left untouched for images.upload.ttl-ms, with their temp files and the stored images that no
+     * ad claimed.
+     *
+     * @return the number of uploads dropped
+     */
+    @Scheduled(fixedDelayString = "${images.upload.cleanup-ms:300000}", initialDelayString = "${images.upload.cleanup-ms:300000}")
+    public int cleanup() {
+        long now = System.currentTimeMillis();
+        int dropped = 0;
+        for (Upload upload : uploads.values()) {
+            if (now - upload.touchedAt >= ttlMs && uploads.remove(upload.id, upload)) {
+                drop(upload);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.info("Dropped {} stale image uploads", dropped);
+        }
+        return dropped;
+    }
+
+    @PreDestroy
+    public void close() {
+        // The uploads are lost with the node, so their images can't be claimed anymore
+        for (Upload upload : uploads.values()) {
+            if (uploads.remove(upload.id, upload)) {
+                drop(upload);
+            }
+        }
+    }
+
+    private void drop(Upload upload) {
+        synchronized (upload) {
+            deleteTempFile(upload.file);
+            if (upload.key != null && !imageStore.delete(upload.key)) {
+                log.warn("Failed to delete the unclaimed image {} of upload {}", upload.key, upload.id);
+            }
+        }
+    }
+
+    private static void deleteTempFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete upload temp file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String withJpgExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + ".jpg";
+    }
+}
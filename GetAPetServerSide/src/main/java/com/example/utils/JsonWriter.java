@@ -0,0 +1,289 @@
+package com.example.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Utility class for writing the server's JSON responses with a Jackson streaming generator.
+ * Responses are written straight to the given output stream without building an intermediate object graph,
+ * field names are encoded once up front and Jackson recycles the generator buffers per thread.
+ * The output is identical to what Spring's default ObjectMapper produces for the same records.
+ * Listing pages can also be written as CBOR or Smile, by the same code with the generator of the binary format,
+ * so their fields and values are the same as in JSON.
+ */
+public class JsonWriter {
+
+    public static final JsonFactory JSON_FACTORY = new JsonFactory();
+    public static final JsonFactory CBOR_FACTORY = new CBORFactory();
+    // Repeated values, e.g. the category and the contact details of an author with several ads, are sent once per page
+    public static final JsonFactory SMILE_FACTORY = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+
+    private static final SerializableString ADS = new SerializedString("ads");
+    private static final SerializableString TOTAL_ADS = new SerializedString("totalAds");
+    private static final SerializableString NEXT = new SerializedString("next");
+    private static final SerializableString AD_ID = new SerializedString("ad_id");
+    private static final SerializableString DISPLAY_NAME = new SerializedString("display_name");
+    private static final SerializableString EMAIL = new SerializedString("email");
+    private static final SerializableString PHONE = new SerializedString("phone");
+    private static final SerializableString PET_NAME = new SerializedString("pet_name");
+    private static final SerializableString CATEGORY = new SerializedString("category");
+    private static final SerializableString PET_AGE = new SerializedString("pet_age");
+    private static final SerializableString PET_GENDER = new SerializedString("pet_gender");
+    private static final SerializableString AD_CONTENT = new SerializedString("ad_content");
+    private static final SerializableString IMAGE_PATH = new SerializedString("image_path");
+    private static final SerializableString CREATED_AT = new SerializedString("created_at");
+    private static final SerializableString IS_FAVORITE = new SerializedString("is_favorite");
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString USERNAME = new SerializedString("username");
+
+    // Holds a formatted timestamp, the longest being yyyy-MM-ddTHH:mm:ss.SSSSSSSSS
+    private static final ThreadLocal<char[]> TIMESTAMP_BUFFER = ThreadLocal.withInitial(() -> new char[29]);
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Writes a page of ads as {"ads":[...],"totalAds":n}, with the fields of the page only and the next cursor if it has one.
+     *
+     * @param page the page to write
+     * @param out  the stream to write to, it is flushed but not closed
+     * @throws IOException if writing to the stream fails
+     */
+    public static void writeAdPage(DatabaseService.AdPage page, OutputStream out) throws IOException {
+        writeAdPage(page, out, JSON_FACTORY);
+    }
+
+    /**
+     * Writes a page of ads as {"ads":[...],"totalAds":n,"next":"..."} in the format of the given factory.
+     *
+     * @param page    the page to write
+     * @param out     the stream to write to, it is flushed but not closed
+     * @param factory the factory of the format to write, e.g. {@link #CBOR_FACTORY}
+     * @throws IOException if writing to the stream fails
+     */
+    public static void writeAdPage(DatabaseService.AdPage page, OutputStream out, JsonFactory factory) throws IOException {
+        try (JsonGenerator gen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.writeStartObject();
+            gen.writeFieldName(ADS);
+            writeAds(gen, page.ads(), page.fields());
+            gen.writeFieldName(TOTAL_ADS);
+            gen.writeNumber(page.totalAds());
+            if (page.next() != null) {
+                gen.writeFieldName(NEXT);
+                gen.writeString(page.next());
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a list of ads as a JSON array.
+     *
+     * @param gen the generator to write with
+     * @param ads the ads to write
+     * @throws IOException if writing fails
+     */
+    public static void writeAds(JsonGenerator gen, List<DatabaseService.AdDetail> ads) throws IOException {
+        writeAds(gen, ads, AdFields.ALL);
+    }
+
+    /**
+     * Writes a list of ads as a JSON array, with the given fields only.
+     *
+     * @param gen    the generator to write with
+     * @param ads    the ads to write
+     * @param fields the fields to write
+     * @throws IOException if writing fails
+     */
+    public static void writeAds(JsonGenerator gen, List<DatabaseService.AdDetail> ads, AdFields fields) throws IOException {
+        gen.writeStartArray();
+        for (DatabaseService.AdDetail ad : ads) {
+            writeAdDetail(gen, ad, fields);
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * Writes a single ad as a JSON object.
+     *
+     * @param gen the generator to write with
+     * @param ad  the ad to write
+     * @throws IOException if writing fails
+     */
+    public static void writeAdDetail(JsonGenerator gen, DatabaseService.AdDetail ad) throws IOException {
+        writeAdDetail(gen, ad, AdFields.ALL);
+    }
+
+    /**
+     * Writes a single ad as a JSON object, with the given fields only.
+     *
+     * @param gen    the generator to write with
+     * @param ad     the ad to write
+     * @param fields the fields to write
+     * @throws IOException if writing fails
+     */
+    public static void writeAdDetail(JsonGenerator gen, DatabaseService.AdDetail ad, AdFields fields) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(AD_ID);
+        gen.writeNumber(ad.ad_id());
+        if (fields.contains(AdFields.Field.DISPLAY_NAME)) {
+            gen.writeFieldName(DISPLAY_NAME);
+            gen.writeString(ad.display_name());
+        }
+        if (fields.contains(AdFields.Field.EMAIL)) {
+            gen.writeFieldName(EMAIL);
+            gen.writeString(ad.email());
+        }
+        if (fields.contains(AdFields.Field.PHONE)) {
+            gen.writeFieldName(PHONE);
+            gen.writeString(ad.phone());
+        }
+        if (fields.contains(AdFields.Field.PET_NAME)) {
+            gen.writeFieldName(PET_NAME);
+            gen.writeString(ad.pet_name());
+        }
+        if (fields.contains(AdFields.Field.CATEGORY)) {
+            gen.writeFieldName(CATEGORY);
+            gen.writeString(ad.category());
+        }
+        if (fields.contains(AdFields.Field.PET_AGE)) {
+            gen.writeFieldName(PET_AGE);
+            gen.writeNumber(ad.pet_age());
+        }
+        if (fields.contains(AdFields.Field.PET_GENDER)) {
+            gen.writeFieldName(PET_GENDER);
+            gen.writeString(ad.pet_gender());
+        }
+        if (fields.contains(AdFields.Field.AD_CONTENT)) {
+            gen.writeFieldName(AD_CONTENT);
+            gen.writeString(ad.ad_content());
+        }
+        if (fields.contains(AdFields.Field.IMAGE_PATH)) {
+            gen.writeFieldName(IMAGE_PATH);
+            gen.writeString(ad.image_path());
+        }
+        if (fields.contains(AdFields.Field.CREATED_AT)) {
+            gen.writeFieldName(CREATED_AT);
+            writeTimestamp(gen, ad.created_at());
+        }
+        if (fields.contains(AdFields.Field.IS_FAVORITE)) {
+            gen.writeFieldName(IS_FAVORITE);
+            if (ad.is_favorite() != null) {
+                gen.writeBoolean(ad.is_favorite());
+            } else {
+                gen.writeNull();
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Serializes an ad to a JSON string.
+     *
+     * @param ad the ad to serialize
+     * @return the ad as JSON
+     */
+    public static String toJson(DatabaseService.AdDetail ad) {
+        StringWriter writer = new StringWriter(512);
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(writer)) {
+            writeAdDetail(gen, ad);
+        } catch (IOException e) {
+            // Writing to a StringWriter doesn't fail
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Serializes a user profile to a JSON string.
+     *
+     * @param profile the profile to serialize
+     * @return the profile as JSON
+     */
+    public static String toJson(DatabaseService.UserProfile profile) {
+        StringWriter writer = new StringWriter(128);
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(writer)) {
+            gen.writeStartObject();
+            gen.writeFieldName(ID);
+            gen.writeNumber(profile.id());
+            gen.writeFieldName(USERNAME);
+            gen.writeString(profile.username());
+            gen.writeFieldName(DISPLAY_NAME);
+            gen.writeString(profile.display_name());
+            gen.writeFieldName(EMAIL);
+            gen.writeString(profile.email());
+            gen.writeFieldName(PHONE);
+            gen.writeString(profile.phone());
+            gen.writeEndObject();
+        } catch (IOException e) {
+            // Writing to a StringWriter doesn't fail
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes a timestamp in ISO-8601 local date-time format, the way Jackson's JavaTimeModule does,
+     * formatting it into a per-thread buffer instead of allocating a string.
+     *
+     * @param gen   the generator to write with
+     * @param value the timestamp to write, may be null
+     * @throws IOException if writing fails
+     */
+    static void writeTimestamp(JsonGenerator gen, LocalDateTime value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+            return;
+        }
+        if (value.getYear() < 0 || value.getYear() > 9999) {
+            gen.writeString(value.toString());
+            return;
+        }
+        char[] buf = TIMESTAMP_BUFFER.get();
+        writeDigits(buf, 0, value.getYear(), 4);
+        buf[4] = '-';
+        writeDigits(buf, 5, value.getMonthValue(), 2);
+        buf[7] = '-';
+        writeDigits(buf, 8, value.getDayOfMonth(), 2);
+        buf[10] = 'T';
+        writeDigits(buf, 11, value.getHour(), 2);
+        buf[13] = ':';
+        writeDigits(buf, 14, value.getMinute(), 2);
+        buf[16] = ':';
+        writeDigits(buf, 17, value.getSecond(), 2);
+        int len = 19;
+        int nano = value.getNano();
+        if (nano > 0) {
+            // Same as ISO_LOCAL_DATE_TIME, the fraction is printed without trailing zeros
+            buf[len++] = '.';
+            writeDigits(buf, len, nano, 9);
+            len += 9;
+            while (buf[len - 1] == '0') {
+                len--;
+            }
+        }
+        gen.writeString(buf, 0, len);
+    }
+
+    private static void writeDigits(char[] buf, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
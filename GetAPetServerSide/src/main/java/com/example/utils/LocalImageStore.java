@@ -0,0 +1,141 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Image store keeping the images in a folder of this server, served under /images by the ImageController.
+ * Only fits a single server node, every node would have its own folder.
+ * Archived images are moved to a separate folder that is not served.
+ */
+@Slf4j
+public class LocalImageStore implements ImageStore {
+
+    private final Path folder;
+    private final Path archiveFolder;
+    private final HotImageCache hotImageCache;
+
+    /**
+     * Constructor to initialize the store, archiving the images in a folder next to the images folder.
+     *
+     * @param imagesFolderPath The folder the images are stored in.
+     * @param hotImageCache    The cache of the served images, told about deleted images.
+     */
+    public LocalImageStore(String imagesFolderPath, HotImageCache hotImageCache) {
+        this(imagesFolderPath, Paths.get(imagesFolderPath).toAbsolutePath().normalize() + "-archive", hotImageCache);
+    }
+
+    /**
+     * Constructor to initialize the store.
+     *
+     * @param imagesFolderPath  The folder the images are stored in.
+     * @param archiveFolderPath The folder the archived images are moved to.
+     * @param hotImageCache     The cache of the served images, told about deleted images.
+     */
+    public LocalImageStore(String imagesFolderPath, String archiveFolderPath, HotImageCache hotImageCache) {
+        this.folder = Paths.get(imagesFolderPath);
+        this.archiveFolder = Paths.get(archiveFolderPath);
+        this.hotImageCache = hotImageCache;
+    }
+
+    @Override
+    public String save(String fileName, InputStream content, long length, String contentType) throws IOException {
+        Files.createDirectories(folder); // Ensure the directory exists
+        Path filePath = resolveFileNameCollision(folder.resolve(fileName));
+        Files.copy(content, filePath, StandardCopyOption.REPLACE_EXISTING);
+        return folder.relativize(filePath).toString();
+    }
+
+    @Override
+    public boolean delete(String key) {
+        Path path = folder.resolve(key).normalize();
+        if (!path.startsWith(folder.normalize())) {
+            log.error("Refusing to delete {}, it is outside the images folder", key);
+            return false;
+        }
+        File file = path.toFile();
+        hotImageCache.invalidate(file.toPath());
+        if (file.exists()) {
+            if (file.delete()) {
+                log.info("File was deleted successfully");
+                return true;
+            } else {
+                log.error("Failed to delete the file");
+                return false;
+            }
+        } else {
+            log.warn("File does not exist");
+            return true;
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<String> keys) {
+        int failed = 0;
+        for (String key : keys) {
+            if (!delete(key)) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public boolean archive(String key) {
+        Path path = folder.resolve(key).normalize();
+        Path archived = archiveFolder.resolve(key).normalize();
+        if (!path.startsWith(folder.normalize()) || !archived.startsWith(archiveFolder.normalize())) {
+            log.error("Refusing to archive {}, it is outside the images folder", key);
+            return false;
+        }
+        hotImageCache.invalidate(path);
+        if (!Files.exists(path)) {
+            log.warn("File {} to archive does not exist", key);
+            return true;
+        }
+        try {
+            Files.createDirectories(archived.getParent());
+            Files.move(path, archived, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to archive {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Optional<String> downloadUrl(String key) {
+        return Optional.empty();
+    }
+
+    /**
+     * Updating image name if there is already an existing one with the same name
+     *
+     * @param filePath where the file will be stored
+     * @return the final path of the file
+     */
+    private Path resolveFileNameCollision(Path filePath) {
+        Path targetPath = filePath;
+        int count = 1;
+        String fileName = filePath.getFileName().toString();
+        String baseName = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        String extension = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.')) : "";
+
+        while (Files.exists(targetPath)) {
+            String newFileName = baseName + "_" + count + extension;
+            targetPath = filePath.getParent().resolve(newFileName);
+            count++;
+        }
+        log.info("final path for {} is {}" , fileName , targetPath);
+        return targetPath;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.utils;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Applies the versioned SQL migrations found under db/migration on startup.
+ * Every migration is a file named V{version}__{description}.sql, run whole in its own transaction and recorded
+ * in the schema_version table, so a restart only reads schema_version and skips the migrations already applied.
+ * A Postgres advisory lock serializes servers starting at the same time, e.g. during a rolling deploy.
+ */
+@Service
+@Slf4j
+public class MigrationRunner {
+
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    // Arbitrary key of the advisory lock taken while migrating
+    private static final long MIGRATION_LOCK_KEY = 4_815_162_342L;
+    static final String SQL_CREATE_SCHEMA_VERSION = """
+            CREATE TABLE IF NOT EXISTS schema_version (
+                version INTEGER PRIMARY KEY,
+                description VARCHAR(255) NOT NULL,
+                checksum BIGINT NOT NULL,
+                applied_at TIMESTAMP NOT NULL DEFAULT (CURRENT_TIMESTAMP AT TIME ZONE 'UTC'),
+                execution_ms INTEGER NOT NULL
+            )""";
+    static final String SQL_GET_APPLIED_VERSIONS = "SELECT version, checksum FROM schema_version";
+    static final String SQL_INSERT_VERSION = "INSERT INTO schema_version (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final String location;
+
+    /**
+     * A migration found on the classpath.
+     */
+    record Migration(int version, String description, String sql, long checksum) {}
+
+    @Autowired
+    public MigrationRunner(ReplicaRouter replicaRouter,
+                           @Value("${migrations.enabled:true}") boolean enabled,
+                           @Value("${migrations.location:classpath*:db/migration/}") String location) {
+        this.dataSource = replicaRouter.primary();
+        this.enabled = enabled;
+        this.location = location;
+    }
+
+    /**
+     * Applies the pending migrations before the server starts taking requests.
+     *
+     * @throws SQLException if a migration fails, which stops the server from starting
+     * @throws IOException  if the migrations cannot be read
+     */
+    @PostConstruct
+    public void migrate() throws SQLException, IOException {
+        if (!enabled) {
+            log.info("Database migrations are disabled");
+            return;
+        }
+        long start = System.nanoTime();
+        List<Migration> migrations = findMigrations(location);
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(true);
+            try (Statement st = con.createStatement()) {
+                st.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK_KEY + ")");
+            }
+            try {
+                int applied = applyPending(con, migrations);
+                log.info("Applied {} of {} database migrations in {} ms", applied, migrations.size(), (System.nanoTime() - start) / 1_000_000);
+            } finally {
+                try (Statement st = con.createStatement()) {
+                    st.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the migrations that are not in schema_version yet, in version order.
+     *
+     * @return the number of applied migrations
+     */
+    private int applyPending(Connection con, List<Migration> migrations) throws SQLException {
+        try (Statement st = con.createStatement()) {
+            st.execute(SQL_CREATE_SCHEMA_VERSION);
+        }
+        Map<Integer, Long> applied = new HashMap<>();
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(SQL_GET_APPLIED_VERSIONS)) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getLong("checksum"));
+            }
+        }
+        int count = 0;
+        for (Migration migration : migrations) {
+            Long checksum = applied.get(migration.version());
+            if (checksum != null) {
+                if (checksum != migration.checksum()) {
+                    log.warn("Migration V{} was changed after it was applied, the change is ignored", migration.version());
+                }
+                continue;
+            }
+            apply(con, migration);
+            count++;
+        }
+        return count;
+    }
+
+    private void apply(Connection con, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        con.setAutoCommit(false);
+        try (Statement st = con.createStatement();
+             PreparedStatement insert = con.prepareStatement(SQL_INSERT_VERSION)) {
+            // The driver splits the script into statements itself, dollar quoted bodies included
+            st.execute(migration.sql());
+            int executionMs = (int) ((System.nanoTime() - start) / 1_000_000);
+            insert.setInt(1, migration.version());
+            insert.setString(2, migration.description());
+            insert.setLong(3, migration.checksum());
+            insert.setInt(4, executionMs);
+            insert.executeUpdate();
+            con.commit();
+            log.info("Applied migration V{} {} in {} ms", migration.version(), migration.description(), executionMs);
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration V" + migration.version() + " failed: " + e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Finds the migrations under a location and sorts them by version.
+     *
+     * @param location the location to scan, e.g. classpath*:db/migration/
+     * @return the migrations in version order
+     * @throws IOException if the migrations cannot be read
+     */
+    static List<Migration> findMigrations(String location) throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location + "V*__*.sql")) {
+            Matcher matcher = MIGRATION_NAME.matcher(resource.getFilename());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            String previous = names.put(version, resource.getFilename());
+            if (previous != null) {
+                throw new IllegalStateException("Migrations " + previous + " and " + resource.getFilename() + " share version " + version);
+            }
+            String sql = resource.getContentAsString(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(sql.getBytes(StandardCharsets.UTF_8));
+            migrations.add(new Migration(version, matcher.group(2).replace('_', ' '), sql, crc.getValue()));
+        }
+        migrations.sort(Comparator.comparingInt(Migration::version));
+        return migrations;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token-bucket rate limiter keyed by arbitrary strings (e.g. an endpoint and a client IP).
+ * Every bucket is a single AtomicLong holding its theoretical arrival time (GCRA): a request is allowed if the
+ * bucket is less than a burst ahead of the clock, and pushes it one emission interval further with a CAS.
+ * A bucket whose arrival time has passed is full, so it can be dropped and recreated without changing any
+ * decision. Idle buckets are evicted once the limiter holds maxKeys buckets, and if it is still full, new keys
+ * share one overflow bucket, which keeps memory bounded.
+ */
+@Slf4j
+public class RateLimiter {
+
+    static final String OVERFLOW_KEY = "overflow";
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int maxKeys;
+    private final LongSupplier clock;
+
+    /**
+     * The rate of a bucket.
+     *
+     * @param emissionIntervalNanos the time it takes to refill one token
+     * @param toleranceNanos        how far ahead of the clock the bucket may run, which sets the burst size
+     */
+    public record Rate(long emissionIntervalNanos, long toleranceNanos) {
+
+        /**
+         * Creates the rate of a bucket refilling perSecond tokens a second and holding up to burst tokens.
+         *
+         * @param perSecond the sustained number of requests a second
+         * @param burst     the number of requests allowed at once
+         * @return the rate
+         */
+        public static Rate of(double perSecond, int burst) {
+            long emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+            return new Rate(emissionInterval, emissionInterval * Math.max(0, burst - 1));
+        }
+    }
+
+    public RateLimiter(int maxKeys) {
+        this(maxKeys, System::nanoTime);
+    }
+
+    RateLimiter(int maxKeys, LongSupplier clock) {
+        this.maxKeys = maxKeys;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes a token from the bucket of the key.
+     *
+     * @param key  the key of the bucket
+     * @param rate the rate of the bucket
+     * @return 0 if the request is allowed, otherwise how many nanoseconds until it would be
+     */
+    public long tryAcquire(String key, Rate rate) {
+        AtomicLong bucket = bucket(key);
+        while (true) {
+            long now = clock.getAsLong();
+            long arrival = bucket.get();
+            long base = arrival - now > 0 ? arrival : now;
+            long ahead = base - now;
+            if (ahead > rate.toleranceNanos()) {
+                return ahead - rate.toleranceNanos();
+            }
+            if (bucket.compareAndSet(arrival, base + rate.emissionIntervalNanos())) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets that are full again.
+     *
+     * @return the number of dropped buckets
+     */
+    public int evictIdle() {
+        long now = clock.getAsLong();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        return before - buckets.size();
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private AtomicLong bucket(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxKeys && evicting.compareAndSet(false, true)) {
+            try {
+                log.debug("Evicted {} idle rate limit buckets", evictIdle());
+            } finally {
+                evicting.set(false);
+            }
+        }
+        String bucketKey = buckets.size() < maxKeys ? key : OVERFLOW_KEY;
+        return buckets.computeIfAbsent(bucketKey, k -> new AtomicLong(clock.getAsLong()));
+    }
+}
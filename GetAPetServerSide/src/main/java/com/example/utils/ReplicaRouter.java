@@ -0,0 +1,151 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes read-only queries between the primary data source and its read replicas.
+ * Replicas are picked round-robin among the ones that passed the last health check, and the primary is used
+ * when no replica is configured or healthy. A session (a user ID or a username) that has just written is pinned
+ * to the primary for a short window, so that it reads its own writes even while the replicas are lagging.
+ */
+@Slf4j
+public class ReplicaRouter implements AutoCloseable {
+
+    private static final int VALIDATION_TIMEOUT_SECS = 2;
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long readYourWritesMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<Integer, Long> pinnedUntil = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor to initialize the router.
+     *
+     * @param primary              The primary data source, used for writes and as the fallback for reads.
+     * @param replicas             The read replicas, may be empty.
+     * @param readYourWritesMillis How long a session reads from the primary after it has written.
+     */
+    public ReplicaRouter(DataSource primary, List<? extends DataSource> replicas, long readYourWritesMillis) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    /**
+     * Holds a replica and the result of its last health check.
+     */
+    private static final class Replica {
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * Returns the primary data source.
+     *
+     * @return The primary data source.
+     */
+    public DataSource primary() {
+        return primary;
+    }
+
+    /**
+     * Picks the data source a read-only query of the given session should run on.
+     *
+     * @param sessionKey The ID of the user the query is made for, or null if the query is not tied to a user.
+     * @return A healthy replica, or the primary if the session is pinned or no replica is healthy.
+     */
+    public DataSource forRead(Integer sessionKey) {
+        if (replicas.isEmpty() || isPinned(sessionKey)) {
+            return primary;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica.dataSource;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * Pins a session to the primary after it has written, for the read-your-writes window.
+     *
+     * @param sessionKey The ID of the user that has written.
+     */
+    public void pinToPrimary(Integer sessionKey) {
+        if (sessionKey != null && !replicas.isEmpty()) {
+            pinnedUntil.put(sessionKey, System.currentTimeMillis() + readYourWritesMillis);
+        }
+    }
+
+    /**
+     * Takes a replica out of rotation until the next health check finds it healthy again.
+     *
+     * @param dataSource The replica that failed.
+     */
+    public void markUnhealthy(DataSource dataSource) {
+        for (Replica replica : replicas) {
+            if (replica.dataSource == dataSource && replica.healthy) {
+                replica.healthy = false;
+                log.warn("Replica taken out of rotation after a connection failure");
+            }
+        }
+    }
+
+    /**
+     * Checks every replica with a validation query and drops the expired read-your-writes pins.
+     */
+    @Scheduled(fixedDelayString = "${spring.datasource.replica.health-check-ms:5000}")
+    public void checkHealth() {
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(i);
+            boolean healthy;
+            try (Connection con = replica.dataSource.getConnection()) {
+                healthy = con.isValid(VALIDATION_TIMEOUT_SECS);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) {
+                log.info("Replica {} is now {}", i, healthy ? "healthy" : "unhealthy");
+            }
+            replica.healthy = healthy;
+        }
+        long now = System.currentTimeMillis();
+        pinnedUntil.values().removeIf(until -> until < now);
+    }
+
+    private boolean isPinned(Integer sessionKey) {
+        if (sessionKey == null) {
+            return false;
+        }
+        Long until = pinnedUntil.get(sessionKey);
+        return until != null && until >= System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the replica pools, the primary is closed by its own bean.
+     */
+    @Override
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
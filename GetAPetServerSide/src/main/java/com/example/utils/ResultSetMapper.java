@@ -1,5 +1,6 @@
 package com.example.utils;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.RecordComponent;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -10,6 +11,8 @@ import java.util.Map;
 
 /**
  * Utility class for mapping a {@link ResultSet} to a Java record.
+ * Components without a column in the row, e.g. left out of a query by the fields a client asked for, are null,
+ * or the default value of their type for primitives.
  */
 
 public class ResultSetMapper {
@@ -40,6 +43,8 @@ public class ResultSetMapper {
                 Object value = row.get(columnName);
                 if (type == LocalDateTime.class) {
                     values[i] = value != null ? ((Timestamp) value).toLocalDateTime() : null;
+                } else if (value == null && type.isPrimitive()) {
+                    values[i] = Array.get(Array.newInstance(type, 1), 0);
                 } else {
                     values[i] = value;
                 }
@@ -0,0 +1,210 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Image store keeping the images in an S3 compatible bucket (AWS S3, MinIO and the like), shared by all the server nodes.
+ * Uploads are streamed to the bucket, in a multipart upload when they are larger than one part, and deletes of many
+ * images are sent as parallel DeleteObjects batches. Clients download the images straight from the bucket through
+ * pre-signed URLs, so image bytes never pass through the server. A pre-signed URL is reused for half of its
+ * lifetime, so that browsers see the same URL and can cache the image.
+ * Archived images are moved under the archive/ prefix, which a lifecycle rule of the bucket can move to a cheaper
+ * storage class.
+ */
+@Slf4j
+public class S3ImageStore implements ImageStore, AutoCloseable {
+
+    // S3 doesn't take more keys in a single DeleteObjects request
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+    // Bounds the pre-signed URL cache, it is cleared when full
+    private static final int MAX_CACHED_URLS = 100_000;
+    static final String ARCHIVE_PREFIX = "archive/";
+
+    private final S3Client s3;
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final int partSize;
+    private final Duration urlTtl;
+    private final ExecutorService deleteExecutor;
+    private final Map<String, PresignedUrl> presignedUrls = new ConcurrentHashMap<>();
+
+    /**
+     * A pre-signed URL and the time until it is reused, in epoch milliseconds.
+     */
+    private record PresignedUrl(String url, long reuseUntil) {}
+
+    /**
+     * Constructor to initialize the store.
+     *
+     * @param s3                The client of the bucket.
+     * @param presigner         The presigner of the download URLs.
+     * @param bucket            The bucket the images are stored in.
+     * @param partSize          The size of the parts of a multipart upload, at least 5 MB for S3.
+     * @param urlTtl            How long a pre-signed download URL is valid.
+     * @param deleteParallelism How many DeleteObjects batches are sent at the same time.
+     */
+    public S3ImageStore(S3Client s3, S3Presigner presigner, String bucket, int partSize, Duration urlTtl, int deleteParallelism) {
+        this.s3 = s3;
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.partSize = partSize;
+        this.urlTtl = urlTtl;
+        this.deleteExecutor = Executors.newFixedThreadPool(deleteParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "s3-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stores an image under a random key prefix, so that nodes uploading files of the same name never collide.
+     */
+    @Override
+    public String save(String fileName, InputStream content, long length, String contentType) throws IOException {
+        String key = UUID.randomUUID() + "/" + fileName;
+        try {
+            if (length <= partSize) {
+                s3.putObject(request -> request.bucket(bucket).key(key).contentType(contentType).contentLength(length),
+                        RequestBody.fromInputStream(content, length));
+            } else {
+                multipartUpload(key, content, contentType);
+            }
+        } catch (SdkException e) {
+            throw new IOException("Failed to upload image " + key + ": " + e.getMessage(), e);
+        }
+        log.info("Uploaded image {} of {} bytes", key, length);
+        return key;
+    }
+
+    /**
+     * Uploads a large image one part at a time, holding a single part in memory. A failed upload is aborted,
+     * so that its parts don't linger in the bucket.
+     */
+    private void multipartUpload(String key, InputStream content, String contentType) throws IOException {
+        String uploadId = s3.createMultipartUpload(request -> request.bucket(bucket).key(key).contentType(contentType)).uploadId();
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            byte[] buffer = new byte[partSize];
+            int read;
+            while ((read = content.readNBytes(buffer, 0, partSize)) > 0) {
+                int partNumber = parts.size() + 1;
+                String etag = s3.uploadPart(request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber),
+                        RequestBody.fromBytes(read == partSize ? buffer : Arrays.copyOf(buffer, read))).eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(etag).build());
+            }
+            s3.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+        } catch (IOException | SdkException e) {
+            s3.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) {
+        try {
+            s3.deleteObject(request -> request.bucket(bucket).key(key));
+            presignedUrls.remove(key);
+            log.info("Image {} was deleted successfully", key);
+            return true;
+        } catch (SdkException e) {
+            log.error("Failed to delete image {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<String> keys) {
+        List<ObjectIdentifier> objects = keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList();
+        List<CompletableFuture<Integer>> batches = new ArrayList<>();
+        for (int from = 0; from < objects.size(); from += MAX_KEYS_PER_DELETE) {
+            List<ObjectIdentifier> batch = objects.subList(from, Math.min(objects.size(), from + MAX_KEYS_PER_DELETE));
+            batches.add(CompletableFuture.supplyAsync(() -> deleteBatch(batch), deleteExecutor));
+        }
+        keys.forEach(presignedUrls::remove);
+        return batches.stream().mapToInt(CompletableFuture::join).sum();
+    }
+
+    /**
+     * Deletes a batch of images in one DeleteObjects request.
+     *
+     * @return the number of images that could not be deleted
+     */
+    private int deleteBatch(List<ObjectIdentifier> batch) {
+        try {
+            DeleteObjectsResponse response = s3.deleteObjects(request -> request.bucket(bucket)
+                    .delete(delete -> delete.objects(batch).quiet(true)));
+            response.errors().forEach(error -> log.error("Failed to delete image {}: {}", error.key(), error.message()));
+            return response.errors().size();
+        } catch (SdkException e) {
+            log.error("Failed to delete {} images: {}", batch.size(), e.getMessage());
+            return batch.size();
+        }
+    }
+
+    @Override
+    public boolean archive(String key) {
+        try {
+            s3.copyObject(request -> request.sourceBucket(bucket).sourceKey(key).destinationBucket(bucket).destinationKey(ARCHIVE_PREFIX + key));
+            s3.deleteObject(request -> request.bucket(bucket).key(key));
+            presignedUrls.remove(key);
+            return true;
+        } catch (NoSuchKeyException e) {
+            log.warn("Image {} to archive does not exist", key);
+            return true;
+        } catch (SdkException e) {
+            log.error("Failed to archive image {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Optional<String> downloadUrl(String key) {
+        long now = System.currentTimeMillis();
+        PresignedUrl cached = presignedUrls.get(key);
+        if (cached != null && cached.reuseUntil() > now) {
+            return Optional.of(cached.url());
+        }
+        String url = presigner.presignGetObject(request -> request.signatureDuration(urlTtl)
+                .getObjectRequest(get -> get.bucket(bucket).key(key))).url().toString();
+        if (presignedUrls.size() >= MAX_CACHED_URLS) {
+            presignedUrls.clear();
+        }
+        presignedUrls.put(key, new PresignedUrl(url, now + urlTtl.toMillis() / 2));
+        return Optional.of(url);
+    }
+
+    /**
+     * Closes the clients and the delete executor.
+     */
+    @Override
+    public void close() {
+        deleteExecutor.shutdown();
+        presigner.close();
+        s3.close();
+    }
+}
@@ -1,7 +1,7 @@
 package com.example.utils;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -9,33 +9,32 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 
 /**
  * Service class for saving images to the server with validation and storage handling.
  * This class ensures that uploaded images meet specified criteria for file type and size,
- * renames files to avoid naming collisions, and saves them to a configured directory.
- * Utilizes Spring's @Value for configuration.
+ * and stores them in the configured {@link ImageStore}.
  */
 @Service
 @Slf4j
 public class SaveImageToServer {
 
-    @Value("${external.images.path}")
-    private String IMAGES_FOLDER_PATH;
+    private final ImageStore imageStore;
     private static final long MAX_SIZE_FILE = 1048576; // Maximum file size (1 MB = 1048576 bytes)
     private static final List<String> FILE_TYPES = Arrays.asList("image/jpeg", "image/jpg", "image/png");
 
+    @Autowired
+    public SaveImageToServer(ImageStore imageStore) {
+        this.imageStore = imageStore;
+    }
+
     /**
      * Saves image in storage
      *
      * @param file uploaded when creating a new Ad
-     * @return path of the saved image from the uploaded file if matched the size and type criteria
+     * @return key of the saved image from the uploaded file if matched the size and type criteria
      * @throws IOException in case there was an issue with saving the image
      */
     public String saveImage(MultipartFile file) throws IOException {
@@ -55,39 +54,10 @@ public class SaveImageToServer {
         // Generate a safe filename with spaces replaced by underscores
         String originalFilename = file.getOriginalFilename();
         String safeFilename = originalFilename != null ? originalFilename.replaceAll("\\s", "_") : "image_" + System.currentTimeMillis();
-        Path path = Paths.get(IMAGES_FOLDER_PATH);
-        Files.createDirectories(path); // Ensure the directory exists
-
-        Path filePath = path.resolve(safeFilename);
-        filePath = resolveFileNameCollision(filePath);
-
-        // Copy the image file to the resolved path
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-        // Construct the relative image path within the images directory
-        return path.relativize(filePath).toString();
-    }
-
-    /**
-     * Updating image name if there is already an existing one with the same name
-     *
-     * @param filePath where the file will be stored
-     * @return the final path of the file
-     */
-    private Path resolveFileNameCollision(Path filePath) {
-        Path targetPath = filePath;
-        int count = 1;
-        String fileName = filePath.getFileName().toString();
-        String baseName = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
-        String extension = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.')) : "";
-
-        while (Files.exists(targetPath)) {
-            String newFileName = baseName + "_" + count + extension;
-            targetPath = filePath.getParent().resolve(newFileName);
-            count++;
+        // Stream the image to the store, which picks the final key
+        try (InputStream content = file.getInputStream()) {
+            return imageStore.save(safeFilename, content, file.getSize(), file.getContentType());
         }
-        log.info("final path for {} is {}" , fileName , targetPath);
-        return targetPath;
     }
 
     /**
@@ -0,0 +1,209 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers whether a username, display name, email or phone is still free, without a database round trip in the
+ * common case. Every unique user column has a {@link BloomFilter} of the values taken, loaded once the server is up and
+ * updated by every new user, the ones of other nodes through the {@link CacheInvalidationBus}. A value the filter
+ * has never seen is definitely free, only a possible match is checked against the primary.
+ * Until the filters are loaded every check goes to the database.
+ */
+@Service
+@Slf4j
+public class UserAvailability implements CacheInvalidationListener {
+
+    /**
+     * The unique columns of the users table.
+     */
+    public enum Field {
+        USERNAME("username"), DISPLAY_NAME("display_name"), EMAIL("email"), PHONE("phone");
+
+        private final String column;
+        private final String sqlExists;
+
+        Field(String column) {
+            this.column = column;
+            this.sqlExists = "SELECT 1 FROM users WHERE " + column + " = ? LIMIT 1";
+        }
+
+        public String column() {
+            return column;
+        }
+
+        String sqlExists() {
+            return sqlExists;
+        }
+    }
+
+    static final String SQL_COUNT_USERS = "SELECT COUNT(*) as count FROM users";
+    static final String SQL_GET_USERS_AFTER = "SELECT id, username, display_name, email, phone FROM users WHERE id > ? ORDER BY id LIMIT ?";
+    static final String SQL_GET_USER = "SELECT id, username, display_name, email, phone FROM users WHERE id = ?";
+    private static final int RETRY = 0;
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private final ExecuteQuery eq;
+    private final long expectedUsers;
+    private final double falsePositiveProbability;
+    // The filters answering checks, null until loaded. Guarded by this for writes, together with loading
+    private volatile Map<Field, BloomFilter> filters;
+    // The filters being loaded, which also get the users created during the load
+    private Map<Field, BloomFilter> loading;
+
+    @Autowired
+    public UserAvailability(ExecuteQuery executeQuery,
+                            @Value("${users.availability.expected-users:1000000}") long expectedUsers,
+                            @Value("${users.availability.false-positive-probability:0.001}") double falsePositiveProbability) {
+        this.eq = executeQuery;
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * Loads the filters from the users table once the server is up, so that startup doesn't wait for the scan.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() throws SQLException {
+        long start = System.nanoTime();
+        long users = (Long) eq.queryDB(RETRY, SQL_COUNT_USERS).get(0).get("count");
+        // Room to grow before the false positive rate goes up
+        long capacity = Math.max(expectedUsers, users * 2);
+        Map<Field, BloomFilter> building = new EnumMap<>(Field.class);
+        for (Field field : Field.values()) {
+            building.put(field, new BloomFilter(capacity, falsePositiveProbability));
+        }
+        synchronized (this) {
+            loading = building;
+        }
+        int lastId = 0;
+        List<Map<String, Object>> rows;
+        do {
+            rows = eq.queryDB(RETRY, SQL_GET_USERS_AFTER, lastId, LOAD_BATCH_SIZE);
+            for (Map<String, Object> row : rows) {
+                put(building, row);
+                lastId = (Integer) row.get("id");
+            }
+        } while (rows.size() == LOAD_BATCH_SIZE);
+        synchronized (this) {
+            filters = building;
+            loading = null;
+        }
+        log.info("Loaded the availability filters of {} users in {} ms, {} bytes each",
+                users, (System.nanoTime() - start) / 1_000_000, building.get(Field.USERNAME).sizeInBytes());
+    }
+
+    /**
+     * Checks if a value of a unique column is free.
+     *
+     * @param field the column
+     * @param value the value
+     * @return true if no user has the value
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean isAvailable(Field field, String value) throws SQLException {
+        Map<Field, BloomFilter> current = filters;
+        if (current != null && !current.get(field).mightContain(value)) {
+            return true;
+        }
+        return eq.queryDB(RETRY, field.sqlExists(), value).isEmpty();
+    }
+
+    /**
+     * Rejects a new user whose username, display name, email or phone is taken.
+     *
+     * @param username    the username of the new user
+     * @param displayName the display name of the new user
+     * @param email       the email of the new user
+     * @param phone       the phone number of the new user
+     * @throws DuplicateKeyException naming the first column that is taken, in the format of the database's unique violation
+     * @throws SQLException          if a database access error occurs
+     */
+    public void checkAvailable(String username, String displayName, String email, String phone) throws SQLException {
+        checkAvailable(Field.USERNAME, username);
+        checkAvailable(Field.DISPLAY_NAME, displayName);
+        checkAvailable(Field.EMAIL, email);
+        checkAvailable(Field.PHONE, phone);
+    }
+
+    private void checkAvailable(Field field, String value) throws SQLException {
+        if (!isAvailable(field, value)) {
+            throw new DuplicateKeyException("Key (" + field.column() + ")=(" + value + ") already exists.");
+        }
+    }
+
+    /**
+     * Records a new user, once it is inserted.
+     *
+     * @param username    the username of the user
+     * @param displayName the display name of the user
+     * @param email       the email of the user
+     * @param phone       the phone number of the user
+     */
+    public synchronized void add(String username, String displayName, String email, String phone) {
+        put(filters, username, displayName, email, phone);
+        put(loading, username, displayName, email, phone);
+    }
+
+    /**
+     * Records a user created by another node.
+     */
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (event.change() != Change.USER_CREATED || event.local()) {
+            return;
+        }
+        try {
+            for (Map<String, Object> row : eq.queryDB(RETRY, SQL_GET_USER, event.userId())) {
+                synchronized (this) {
+                    put(filters, row);
+                    put(loading, row);
+                }
+            }
+        } catch (SQLException e) {
+            // The filters may now answer "free" for a taken value, which the unique constraints still catch on insert
+            log.error("Failed to load new user id {} into the availability filters: {}", event.userId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Reloads the filters, which missed the users created by other nodes in the meantime.
+     * Before the first load there is nothing to flush.
+     */
+    @Override
+    public void onFlush() {
+        if (filters == null) {
+            return;
+        }
+        try {
+            load();
+        } catch (SQLException e) {
+            log.error("Failed to reload the availability filters: {}", e.getMessage());
+        }
+    }
+
+    private static void put(Map<Field, BloomFilter> target, Map<String, Object> row) {
+        put(target, (String) row.get("username"), (String) row.get("display_name"), (String) row.get("email"), (String) row.get("phone"));
+    }
+
+    private static void put(Map<Field, BloomFilter> target, String username, String displayName, String email, String phone) {
+        if (target != null) {
+            target.get(Field.USERNAME).put(username);
+            target.get(Field.DISPLAY_NAME).put(displayName);
+            target.get(Field.EMAIL).put(email);
+            target.get(Field.PHONE).put(phone);
+        }
+    }
+}
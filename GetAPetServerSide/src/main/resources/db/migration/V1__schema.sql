@@ -35,5 +35,23 @@ CREATE TABLE IF NOT EXISTS favorites (
     PRIMARY KEY (user_id, ad_id)
 );
 
+-- Denormalized read model of ads, holds the AdDetail columns so listing reads don't need to join users and categories.
+-- Kept in sync by the write paths in DatabaseService, rows are removed together with their ad
+CREATE TABLE IF NOT EXISTS ad_listing (
+    ad_id INTEGER PRIMARY KEY REFERENCES ads(id) ON DELETE CASCADE,
+    author_id INTEGER NOT NULL,
+    display_name VARCHAR(255) NOT NULL,
+    email VARCHAR(255) NOT NULL,
+    phone VARCHAR(255) NOT NULL,
+    pet_name VARCHAR(255) NOT NULL,
+    category VARCHAR(255) NOT NULL,
+    pet_age INTEGER,
+    pet_gender VARCHAR(50) NOT NULL,
+    ad_content VARCHAR(500) NOT NULL,
+    image_path VARCHAR(500),
+    created_at TIMESTAMP NOT NULL
+);
 
-
+-- Indexes matching the listing reads, all ordered by the newest ad first
+CREATE INDEX IF NOT EXISTS ad_listing_category_idx ON ad_listing (category, ad_id DESC);
+CREATE INDEX IF NOT EXISTS ad_listing_author_idx ON ad_listing (author_id, ad_id DESC);
@@ -50,6 +50,10 @@ WHERE NOT EXISTS (
     SELECT 1 FROM ads WHERE pet_name = new_ads.pet_name AND author_id = new_ads.user_id
 );
 
-
-
-
+-- Fill the ad listing read model with ads that are not there yet
+INSERT INTO ad_listing (ad_id, author_id, display_name, email, phone, pet_name, category, pet_age, pet_gender, ad_content, image_path, created_at)
+SELECT ad.id, ad.author_id, u.display_name, u.email, u.phone, ad.pet_name, c.category, ad.pet_age, ad.pet_gender, ad.ad_content, ad.image_path, ad.created_at
+FROM ads ad
+JOIN users u ON u.id = ad.author_id
+JOIN categories c ON c.id = ad.category_id
+ON CONFLICT (ad_id) DO NOTHING;
@@ -0,0 +1,34 @@
+-- Publishes the changes of ads and favorites on the cache_events channel, so that every server node can drop
+-- what its in-memory caches hold of them. pg_notify is transactional, the events are delivered when the write
+-- commits and never for a write that rolls back. A payload is origin:change:ids, where origin is the
+-- application_name of the writing connection, which the server sets to its node ID
+
+CREATE OR REPLACE FUNCTION notify_ad_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM pg_notify('cache_events', current_setting('application_name') || ':ad_created:' || NEW.id);
+    ELSE
+        PERFORM pg_notify('cache_events', current_setting('application_name') || ':ad_deleted:' || OLD.id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_favorite_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM pg_notify('cache_events', current_setting('application_name') || ':favorite_added:' || NEW.user_id || ':' || NEW.ad_id);
+    ELSE
+        PERFORM pg_notify('cache_events', current_setting('application_name') || ':favorite_removed:' || OLD.user_id || ':' || OLD.ad_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS ads_cache_events ON ads;
+CREATE TRIGGER ads_cache_events AFTER INSERT OR DELETE ON ads
+    FOR EACH ROW EXECUTE FUNCTION notify_ad_change();
+
+DROP TRIGGER IF EXISTS favorites_cache_events ON favorites;
+CREATE TRIGGER favorites_cache_events AFTER INSERT OR DELETE ON favorites
+    FOR EACH ROW EXECUTE FUNCTION notify_favorite_change();
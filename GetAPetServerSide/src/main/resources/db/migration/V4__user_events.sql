@@ -0,0 +1,12 @@
+-- Publishes new users on the cache_events channel, so that every server node adds them to its availability filters
+
+CREATE OR REPLACE FUNCTION notify_user_created() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('cache_events', current_setting('application_name') || ':user_created:' || NEW.id);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS users_cache_events ON users;
+CREATE TRIGGER users_cache_events AFTER INSERT ON users
+    FOR EACH ROW EXECUTE FUNCTION notify_user_created();
@@ -0,0 +1,59 @@
+-- Change log of ads and favorites, with a tombstone for every delete, read by /api/ads/changes so that clients
+-- holding a copy of the listings fetch only what changed since their last sync.
+-- txid is the ID of the writing transaction. Every transaction below the xmin of a snapshot has ended, so a reader
+-- taking the changes from the previous xmin up to the current one sees every committed change exactly once,
+-- whatever order the writers commit in
+
+CREATE TABLE IF NOT EXISTS ad_changes (
+    seq BIGSERIAL PRIMARY KEY,
+    txid BIGINT NOT NULL DEFAULT (pg_current_xact_id()::text)::bigint,
+    ad_id INTEGER NOT NULL,
+    -- The user of a favorite change, NULL for an ad change
+    user_id INTEGER,
+    deleted BOOLEAN NOT NULL,
+    changed_at TIMESTAMP NOT NULL DEFAULT (CURRENT_TIMESTAMP AT TIME ZONE 'UTC')
+);
+
+CREATE INDEX IF NOT EXISTS ad_changes_txid_idx ON ad_changes (txid);
+CREATE INDEX IF NOT EXISTS ad_changes_changed_at_idx ON ad_changes (changed_at);
+
+-- The lowest cursor the log can still answer, raised as old changes are compacted away.
+-- Changes written before the log existed are unknown, so it starts at the current xmin
+CREATE TABLE IF NOT EXISTS ad_changes_horizon (
+    id BOOLEAN PRIMARY KEY DEFAULT TRUE CHECK (id),
+    txid BIGINT NOT NULL
+);
+
+INSERT INTO ad_changes_horizon (txid)
+VALUES ((pg_snapshot_xmin(pg_current_snapshot())::text)::bigint)
+ON CONFLICT (id) DO NOTHING;
+
+CREATE OR REPLACE FUNCTION log_ad_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO ad_changes (ad_id, deleted) VALUES (NEW.id, FALSE);
+    ELSE
+        INSERT INTO ad_changes (ad_id, deleted) VALUES (OLD.id, TRUE);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION log_favorite_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO ad_changes (ad_id, user_id, deleted) VALUES (NEW.ad_id, NEW.user_id, FALSE);
+    ELSE
+        INSERT INTO ad_changes (ad_id, user_id, deleted) VALUES (OLD.ad_id, OLD.user_id, TRUE);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS ads_change_log ON ads;
+CREATE TRIGGER ads_change_log AFTER INSERT OR DELETE ON ads
+    FOR EACH ROW EXECUTE FUNCTION log_ad_change();
+
+DROP TRIGGER IF EXISTS favorites_change_log ON favorites;
+CREATE TRIGGER favorites_change_log AFTER INSERT OR DELETE ON favorites
+    FOR EACH ROW EXECUTE FUNCTION log_favorite_change();
@@ -0,0 +1,14 @@
+-- Number of users liking each ad, read by get_all_ads?sort=popular.
+-- It lives in the ad_listing read model that the listings are read from, and is maintained by FavoriteCounts,
+-- which adds up the likes and unlikes of every ad in memory and applies them in batches, so that a popular ad's
+-- row is updated once per flush instead of once per like
+
+ALTER TABLE ad_listing ADD COLUMN IF NOT EXISTS favorite_count INTEGER NOT NULL DEFAULT 0;
+
+UPDATE ad_listing l SET favorite_count = f.count
+FROM (SELECT ad_id, COUNT(*) AS count FROM favorites GROUP BY ad_id) f
+WHERE l.ad_id = f.ad_id;
+
+-- Indexes matching the popular listing reads, with the ad ID to break ties so that keyset pages never skip an ad
+CREATE INDEX IF NOT EXISTS ad_listing_popular_idx ON ad_listing (favorite_count DESC, ad_id DESC);
+CREATE INDEX IF NOT EXISTS ad_listing_category_popular_idx ON ad_listing (category, favorite_count DESC, ad_id DESC);
@@ -0,0 +1,45 @@
+-- Expiry and adoption of ads, and the archive they are moved to, so that ads and ad_listing hold the live ads only.
+-- An ad expires at expires_at, or at once when its author marks the pet as adopted, and AdArchiver then moves it
+-- with its favorites to ads_archive and favorites_archive. Ads that existed before expire 90 days after the
+-- migration rather than after their creation, so the first run of the archiver doesn't archive every older ad at once
+
+ALTER TABLE ads ADD COLUMN IF NOT EXISTS status VARCHAR(20) NOT NULL DEFAULT 'active' CHECK (status IN ('active', 'adopted'));
+ALTER TABLE ads ADD COLUMN IF NOT EXISTS expires_at TIMESTAMP;
+UPDATE ads SET expires_at = GREATEST(created_at, CURRENT_TIMESTAMP AT TIME ZONE 'UTC') + INTERVAL '90 days' WHERE expires_at IS NULL;
+ALTER TABLE ads ALTER COLUMN expires_at SET DEFAULT ((CURRENT_TIMESTAMP AT TIME ZONE 'UTC') + INTERVAL '90 days');
+ALTER TABLE ads ALTER COLUMN expires_at SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS ads_expires_at_idx ON ads (expires_at);
+
+-- The ads as they were when archived, without foreign keys so that their users and categories can go
+CREATE TABLE IF NOT EXISTS ads_archive (
+    id INTEGER PRIMARY KEY,
+    author_id INTEGER NOT NULL,
+    category_id INTEGER NOT NULL,
+    pet_name VARCHAR(255) NOT NULL,
+    pet_age INTEGER,
+    pet_gender VARCHAR(50) NOT NULL,
+    ad_content VARCHAR(500) NOT NULL,
+    image_path VARCHAR(500),
+    created_at TIMESTAMP NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    archived_at TIMESTAMP NOT NULL DEFAULT (CURRENT_TIMESTAMP AT TIME ZONE 'UTC')
+);
+
+CREATE INDEX IF NOT EXISTS ads_archive_author_idx ON ads_archive (author_id);
+
+CREATE TABLE IF NOT EXISTS favorites_archive (
+    user_id INTEGER NOT NULL,
+    ad_id INTEGER NOT NULL,
+    PRIMARY KEY (user_id, ad_id)
+);
+
+-- An adopted ad leaves the listings at once, so caches and synced clients drop it like a deleted ad
+DROP TRIGGER IF EXISTS ads_adopted_cache_events ON ads;
+CREATE TRIGGER ads_adopted_cache_events AFTER UPDATE OF status ON ads
+    FOR EACH ROW WHEN (OLD.status = 'active' AND NEW.status <> 'active') EXECUTE FUNCTION notify_ad_change();
+
+DROP TRIGGER IF EXISTS ads_adopted_change_log ON ads;
+CREATE TRIGGER ads_adopted_change_log AFTER UPDATE OF status ON ads
+    FOR EACH ROW WHEN (OLD.status = 'active' AND NEW.status <> 'active') EXECUTE FUNCTION log_ad_change();
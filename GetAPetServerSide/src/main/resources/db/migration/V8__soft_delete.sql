@@ -0,0 +1,23 @@
+-- Soft delete of ads. Deleting an ad only sets deleted_at and removes its ad_listing row, so the request takes the
+-- same time however many users like the ad, and AdPurger removes the favorites, the row and the image in batches
+
+ALTER TABLE ads ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP;
+
+-- The deleted ads waiting for the purger, a small index as they are purged within seconds
+CREATE INDEX IF NOT EXISTS ads_deleted_at_idx ON ads (deleted_at) WHERE deleted_at IS NOT NULL;
+
+-- Only the live ads expire, the deleted ones are left to the purger
+DROP INDEX IF EXISTS ads_expires_at_idx;
+CREATE INDEX IF NOT EXISTS ads_live_expires_at_idx ON ads (expires_at) WHERE deleted_at IS NULL;
+
+-- The favorites of an ad, read when purging or archiving it
+CREATE INDEX IF NOT EXISTS favorites_ad_id_idx ON favorites (ad_id);
+
+-- A deleted ad leaves the listings at once, so caches and synced clients drop it when it is flagged, not when it is purged
+DROP TRIGGER IF EXISTS ads_deleted_cache_events ON ads;
+CREATE TRIGGER ads_deleted_cache_events AFTER UPDATE OF deleted_at ON ads
+    FOR EACH ROW WHEN (OLD.deleted_at IS NULL AND NEW.deleted_at IS NOT NULL) EXECUTE FUNCTION notify_ad_change();
+
+DROP TRIGGER IF EXISTS ads_deleted_change_log ON ads;
+CREATE TRIGGER ads_deleted_change_log AFTER UPDATE OF deleted_at ON ads
+    FOR EACH ROW WHEN (OLD.deleted_at IS NULL AND NEW.deleted_at IS NOT NULL) EXECUTE FUNCTION log_ad_change();
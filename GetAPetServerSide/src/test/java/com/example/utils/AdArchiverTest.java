@@ -0,0 +1,68 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdArchiverTest {
+
+    private static Map<String, Object> archivedAd(int adId, String imagePath) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("ad_id", adId);
+        row.put("image_path", imagePath);
+        return row;
+    }
+
+    private static Map<String, Object> likedAd(int adId, String imagePath, String likedBy) {
+        Map<String, Object> row = archivedAd(adId, imagePath);
+        row.put("liked_by", likedBy);
+        return row;
+    }
+
+    @Test
+    void testArchivesInBatchesUntilShortBatch() throws SQLException {
+        // Arrange
+        ExecuteQuery executeQuery = mock(ExecuteQuery.class);
+        ImageStore imageStore = mock(ImageStore.class);
+        AdCache adCache = mock(AdCache.class);
+        AdFeed adFeed = mock(AdFeed.class);
+        when(imageStore.archive(anyString())).thenReturn(true);
+        when(executeQuery.queryDB(anyInt(), eq(AdArchiver.SQL_ARCHIVE_EXPIRED_ADS), eq(2)))
+                .thenReturn(List.of(archivedAd(1, "/images/buddy.png"), likedAd(2, null, "4,5")))
+                .thenReturn(List.of(archivedAd(3, "/images/luna.png")));
+        FavoritesIndex favoritesIndex = mock(FavoritesIndex.class);
+        AdArchiver archiver = new AdArchiver(executeQuery, imageStore, adCache, adFeed, favoritesIndex, true, 2);
+        // Act
+        long archived = archiver.archive();
+        // Assert
+        assertEquals(3, archived);
+        verify(executeQuery, times(2)).queryDB(anyInt(), eq(AdArchiver.SQL_ARCHIVE_EXPIRED_ADS), eq(2));
+        verify(imageStore, times(1)).archive("buddy.png");
+        verify(imageStore, times(1)).archive("luna.png");
+        verify(imageStore, times(2)).archive(anyString());
+        verify(adCache, times(1)).invalidate(2);
+        verify(adFeed, times(1)).publishDeleted(3);
+        verify(favoritesIndex, times(1)).remove(4, 2);
+        verify(favoritesIndex, times(1)).remove(5, 2);
+        verify(favoritesIndex, times(2)).remove(anyInt(), anyInt());
+    }
+
+    @Test
+    void testDisabledArchiverDoesNothing() throws SQLException {
+        // Arrange
+        ExecuteQuery executeQuery = mock(ExecuteQuery.class);
+        AdArchiver archiver = new AdArchiver(executeQuery, mock(ImageStore.class), mock(AdCache.class), mock(AdFeed.class), mock(FavoritesIndex.class), false, 2);
+        // Act
+        long archived = archiver.archive();
+        // Assert
+        assertEquals(0, archived);
+        verifyNoInteractions(executeQuery);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdCacheTest {
+
+    private static DatabaseService.AdDetail ad(int adId) {
+        return new DatabaseService.AdDetail(adId, "Test User", "testuser@example.com", "1234567890", "Buddy", "Dogs", 2,
+                "Male", "Adorable puppy", "/images/buddy.jpg", LocalDateTime.of(2024, 5, 1, 12, 0), null);
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        // Arrange
+        AdCache adCache = new AdCache(2);
+        adCache.putAll(List.of(ad(1), ad(2)), adCache.stamp());
+        // Act
+        adCache.get(1);
+        adCache.putAll(List.of(ad(3)), adCache.stamp());
+        // Assert
+        assertEquals(2, adCache.size());
+        assertNotNull(adCache.get(1));
+        assertNull(adCache.get(2));
+        assertNotNull(adCache.get(3));
+    }
+
+    @Test
+    void testLoadRacingWithDeleteIsNotCached() {
+        // Arrange
+        AdCache adCache = new AdCache(10);
+        long stamp = adCache.stamp();
+        // Act
+        adCache.invalidate(1);
+        adCache.putAll(List.of(ad(1)), stamp);
+        // Assert
+        assertNull(adCache.get(1));
+        adCache.putAll(List.of(ad(1)), adCache.stamp());
+        assertEquals(1, adCache.getAll(List.of(1, 2)).size());
+    }
+
+    @Test
+    void testOnlyRemoteDeletesAreInvalidated() {
+        // Arrange
+        AdCache adCache = new AdCache(10);
+        adCache.putAll(List.of(ad(1), ad(2)), adCache.stamp());
+        long stamp = adCache.stamp();
+        // Act
+        adCache.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_DELETED, 1, 0, true));
+        adCache.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_DELETED, 2, 0, false));
+        // Assert
+        assertNotNull(adCache.get(1));
+        assertNull(adCache.get(2));
+        assertNotEquals(stamp, adCache.stamp());
+        adCache.onFlush();
+        assertEquals(0, adCache.size());
+    }
+}
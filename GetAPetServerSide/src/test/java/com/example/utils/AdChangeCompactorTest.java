@@ -0,0 +1,30 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdChangeCompactorTest {
+
+    @Test
+    void testCompactsInBatchesUntilShortBatch() throws SQLException {
+        // Arrange
+        ExecuteQuery executeQuery = mock(ExecuteQuery.class);
+        when(executeQuery.queryDB(anyInt(), eq(AdChangeCompactor.SQL_COMPACT_AD_CHANGES), eq(24), eq(100)))
+                .thenReturn(List.of(Map.of("count", 100L)))
+                .thenReturn(List.of(Map.of("count", 100L)))
+                .thenReturn(List.of(Map.of("count", 7L)));
+        AdChangeCompactor compactor = new AdChangeCompactor(executeQuery, 24, 100);
+        // Act
+        long removed = compactor.compact();
+        // Assert
+        assertEquals(207, removed);
+        verify(executeQuery, times(3)).queryDB(anyInt(), eq(AdChangeCompactor.SQL_COMPACT_AD_CHANGES), eq(24), eq(100));
+    }
+}
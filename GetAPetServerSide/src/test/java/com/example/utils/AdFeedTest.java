@@ -0,0 +1,57 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class AdFeedTest {
+
+    private static DatabaseService.AdDetail ad(int adId, String category) {
+        return new DatabaseService.AdDetail(adId, "Test User", "testuser@example.com", "1234567890", "Buddy", category, 2,
+                "Male", "Adorable puppy", "/images/buddy.jpg", LocalDateTime.of(2024, 5, 1, 12, 0), null);
+    }
+
+    // Senders that never run, so that every event stays queued like for a client that doesn't read
+    private static AdFeed feed(int maxSubscribers, int bufferSize) {
+        return new AdFeed(mock(ExecuteQuery.class), maxSubscribers, bufferSize, 60_000, runnable -> {});
+    }
+
+    @Test
+    void testRejectsSubscribersOverTheLimit() {
+        // Arrange
+        AdFeed adFeed = feed(2, 8);
+        adFeed.subscribe(null);
+        adFeed.subscribe("Dogs");
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> adFeed.subscribe("Cats"));
+        assertEquals(2, adFeed.subscriberCount());
+    }
+
+    @Test
+    void testCreatedAdsOfOtherCategoriesAreNotQueued() {
+        // Arrange
+        AdFeed adFeed = feed(10, 2);
+        adFeed.subscribe("Dogs");
+        // Act
+        adFeed.publishCreated(ad(1, "Cats"));
+        adFeed.publishCreated(ad(2, "Cats"));
+        // Assert
+        assertEquals(1, adFeed.subscriberCount());
+    }
+
+    @Test
+    void testDropsSlowSubscriber() {
+        // Arrange
+        AdFeed adFeed = feed(10, 2);
+        adFeed.subscribe("Dogs");
+        adFeed.subscribe(null);
+        // Act
+        adFeed.publishDeleted(1);
+        adFeed.publishCreated(ad(2, "Dogs"));
+        // Assert
+        assertEquals(0, adFeed.subscriberCount());
+    }
+}
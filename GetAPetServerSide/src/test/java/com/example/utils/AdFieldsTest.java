@@ -0,0 +1,33 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdFieldsTest {
+
+    @Test
+    void testParseAlwaysKeepsAdId() {
+        // Act
+        AdFields fields = AdFields.parse(" pet_name,IMAGE_PATH,,");
+        // Assert
+        assertEquals("ad_id,pet_name,image_path", fields.toString());
+        assertSame(fields, AdFields.parse("image_path,ad_id,pet_name"));
+        assertSame(AdFields.ALL, AdFields.parse(null));
+        assertSame(AdFields.ALL, AdFields.parse(" "));
+        assertThrows(IllegalArgumentException.class, () -> AdFields.parse("pet_name,password"));
+    }
+
+    @Test
+    void testProjectSelectsOnlyTheFields() {
+        // Arrange
+        AdFields fields = AdFields.parse("pet_name,category,image_path,is_favorite");
+        // Act
+        String listing = fields.project(DatabaseService.SQL_GET_ALL_ADS_SPECIFIC_CATEGORIES);
+        String favorites = fields.project(DatabaseService.SQL_GET_USER_FAVORITE_ADS);
+        // Assert
+        assertTrue(listing.startsWith("SELECT ad_id, pet_name, category, image_path\nFROM ad_listing"));
+        assertTrue(favorites.startsWith("SELECT l.ad_id, l.pet_name, l.category, l.image_path\nFROM favorites f"));
+        assertSame(DatabaseService.SQL_GET_ALL_ADS, AdFields.ALL.project(DatabaseService.SQL_GET_ALL_ADS));
+    }
+}
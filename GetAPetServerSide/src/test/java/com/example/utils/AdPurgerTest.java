@@ -0,0 +1,68 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdPurgerTest {
+
+    private static Map<String, Object> purgedAd(int adId, String imagePath) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("ad_id", adId);
+        row.put("image_path", imagePath);
+        return row;
+    }
+
+    private static Map<String, Object> purgedFavorite(int userId, int adId) {
+        return Map.of("user_id", userId, "ad_id", adId);
+    }
+
+    @Test
+    void testPurgesFavoritesThenAdsAndImagesInBatches() throws SQLException {
+        // Arrange
+        ExecuteQuery executeQuery = mock(ExecuteQuery.class);
+        ImageStore imageStore = mock(ImageStore.class);
+        FavoritesIndex favoritesIndex = mock(FavoritesIndex.class);
+        when(executeQuery.queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_FAVORITES), eq(2)))
+                .thenReturn(List.of(purgedFavorite(1, 1), purgedFavorite(2, 1)))
+                .thenReturn(List.of(purgedFavorite(3, 1), purgedFavorite(1, 3)))
+                .thenReturn(List.of(purgedFavorite(2, 3)));
+        when(executeQuery.queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_ADS), eq(2)))
+                .thenReturn(List.of(purgedAd(1, "/images/buddy.png"), purgedAd(2, null)))
+                .thenReturn(List.of(purgedAd(3, "/images/luna.png")));
+        AdPurger purger = new AdPurger(executeQuery, imageStore, favoritesIndex, 2);
+        // Act
+        long purged = purger.purge();
+        // Assert
+        assertEquals(3, purged);
+        InOrder order = inOrder(executeQuery);
+        order.verify(executeQuery, times(3)).queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_FAVORITES), eq(2));
+        order.verify(executeQuery, times(2)).queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_ADS), eq(2));
+        verify(imageStore, times(1)).deleteAll(List.of("buddy.png"));
+        verify(imageStore, times(1)).deleteAll(List.of("luna.png"));
+        verify(favoritesIndex, times(5)).remove(anyInt(), anyInt());
+        verify(favoritesIndex, times(1)).remove(1, 3);
+    }
+
+    @Test
+    void testKeepsAdsWhenFavoritesCannotBePurged() throws SQLException {
+        // Arrange
+        ExecuteQuery executeQuery = mock(ExecuteQuery.class);
+        when(executeQuery.queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_FAVORITES), anyInt()))
+                .thenThrow(new SQLException("Connection refused"));
+        AdPurger purger = new AdPurger(executeQuery, mock(ImageStore.class), mock(FavoritesIndex.class), 2);
+        // Act
+        long purged = purger.purge();
+        // Assert
+        assertEquals(0, purged);
+        verify(executeQuery, never()).queryDB(anyInt(), eq(AdPurger.SQL_PURGE_DELETED_ADS), anyInt());
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    void testRejectsWhenLimitIsReached() {
+        // Arrange
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", new AdaptiveLimiter.Settings(2, 1, 4, 100));
+        // Act & Assert
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void testReleasedSlotCanBeAcquired() {
+        // Arrange
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", new AdaptiveLimiter.Settings(1, 1, 4, 100));
+        limiter.tryAcquire();
+        // Act
+        limiter.release(FAST, false);
+        // Assert
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    void testLimitAdaptsToLatency() {
+        // Arrange
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", new AdaptiveLimiter.Settings(2, 1, 4, 100));
+        // Act - fast calls at the limit raise it
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.tryAcquire();
+            limiter.release(FAST, false);
+            limiter.release(FAST, false);
+        }
+        int raised = limiter.getLimit();
+        // Act - slow calls cut it down to the minimum
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.release(SLOW, false);
+        }
+        // Assert
+        assertEquals(4, raised);
+        assertEquals(1, limiter.getLimit());
+    }
+}
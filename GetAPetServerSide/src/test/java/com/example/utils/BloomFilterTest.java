@@ -0,0 +1,40 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void testAddedValuesAreAlwaysFound() {
+        // Arrange
+        BloomFilter bloomFilter = new BloomFilter(10_000, 0.01);
+        // Act
+        for (int i = 0; i < 10_000; i++) {
+            bloomFilter.put("user" + i + "@example.com");
+        }
+        // Assert
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(bloomFilter.mightContain("user" + i + "@example.com"));
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateStaysNearTheTarget() {
+        // Arrange
+        BloomFilter bloomFilter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            bloomFilter.put("user" + i);
+        }
+        // Act
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (bloomFilter.mightContain("user" + i)) {
+                falsePositives++;
+            }
+        }
+        // Assert
+        assertTrue(falsePositives < 2_000, "false positive rate " + falsePositives / 100_000.0);
+    }
+}
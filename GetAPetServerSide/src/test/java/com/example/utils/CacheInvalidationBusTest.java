@@ -0,0 +1,61 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheInvalidationBusTest {
+
+    @Mock
+    private CacheInvalidationListener first;
+
+    @Mock
+    private CacheInvalidationListener second;
+
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        cacheInvalidationBus = new CacheInvalidationBus("jdbc:postgresql://localhost/test", "user", "password", "node-a",
+                List.of(first, second), false, 1000);
+    }
+
+    @Test
+    void testDispatchParsesChanges() {
+        // Act
+        cacheInvalidationBus.dispatch("node-b:ad_deleted:12");
+        cacheInvalidationBus.dispatch("node-a:favorite_added:3:12");
+        cacheInvalidationBus.dispatch("node-b:user_created:3");
+        // Assert
+        verify(first).onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_DELETED, 12, 0, false));
+        verify(first).onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_ADDED, 12, 3, true));
+        verify(first).onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.USER_CREATED, 0, 3, false));
+        verify(second, times(3)).onChange(any());
+    }
+
+    @Test
+    void testFailingListenerDoesNotStopTheOthers() {
+        // Arrange
+        doThrow(new IllegalStateException("boom")).when(first).onChange(any());
+        // Act
+        cacheInvalidationBus.dispatch(":ad_created:7");
+        // Assert
+        verify(second).onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.AD_CREATED, 7, 0, false));
+    }
+
+    @Test
+    void testMalformedPayloadIsIgnored() {
+        // Act
+        cacheInvalidationBus.dispatch("node-b:ad_renamed:12");
+        cacheInvalidationBus.dispatch("node-b:ad_deleted");
+        // Assert
+        verifyNoInteractions(first, second);
+    }
+}
@@ -7,11 +7,14 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,6 +27,24 @@ class DatabaseServiceTest {
     @Mock
     private ExecuteQuery executeQuery;
 
+    @Mock
+    private FavoritesIndex favoritesIndex;
+
+    @Mock
+    private FavoritesWriteBehind favoritesWriteBehind;
+
+    @Mock
+    private AdCache adCache;
+
+    @Mock
+    private UserAvailability userAvailability;
+
+    @Mock
+    private AdFeed adFeed;
+
+    @Mock
+    private FavoriteCounts favoriteCounts;
+
     @InjectMocks
     private DatabaseService databaseService;
     private static final Map<String, Object> USER_RESULT_MAP = Map.of(
@@ -61,12 +82,41 @@ class DatabaseServiceTest {
         String displayName = "Test User";
         String email = "testuser@example.com";
         String phone = "1234567890";
-        when(executeQuery.updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_USER), any(), any(), any(), any(), any()))
-                .thenReturn(1);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_USER), any(), any(), any(), any(), any()))
+                .thenReturn(List.of(Map.of("id", 7)));
         // Act
         databaseService.createUser(username, password, displayName, email, phone);
         // Assert
-        verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_USER), eq(username), anyString(), eq(displayName), eq(email), eq(phone));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_USER), eq(username), anyString(), eq(displayName), eq(email), eq(phone));
+        verify(executeQuery, times(1)).pinToPrimary(7);
+        verify(userAvailability, times(1)).add(username, displayName, email, phone);
+    }
+
+    @Test
+    void testCreateUserRejectsTakenValuesBeforeInserting() throws SQLException {
+        // Arrange
+        doThrow(new DuplicateKeyException("Key (email)=(testuser@example.com) already exists."))
+                .when(userAvailability).checkAvailable(anyString(), anyString(), anyString(), anyString());
+        // Act & Assert
+        assertThrows(DuplicateKeyException.class,
+                () -> databaseService.createUser("testUser", "testPassword", "Test User", "testuser@example.com", "1234567890"));
+        verify(executeQuery, never()).queryDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_USER), any(), any(), any(), any(), any());
+        verify(userAvailability, never()).add(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void testLoginFallsBackToPrimaryForNewUsers() throws SQLException {
+        // Arrange, the replica hasn't replayed the registration yet
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_GET_USER_PROFILE_DATA), eq("newUser")))
+                .thenReturn(List.of());
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_USER_PROFILE_DATA), eq("newUser")))
+                .thenReturn(List.of(Map.of("id", 7, "password", DatabaseService.hashPassword("secret"), "username", "newUser",
+                        "display_name", "New User", "email", "new@example.com", "phone", "555-0100")));
+        // Act
+        String profile = databaseService.isAllowedToLogin("newUser", "secret");
+        // Assert
+        assertNotNull(profile);
+        assertTrue(profile.contains("\"username\":\"newUser\""));
     }
 
     @Test
@@ -79,27 +129,40 @@ class DatabaseServiceTest {
         String petGender = "Male";
         String adContent = "Adorable puppy";
         String imagePath = "/images/buddy.jpg";
-        when(executeQuery.updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_AD), any(), any(), any(), any(), any(), any(), any()))
-                .thenReturn(1);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_AD), any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(List.of(AD_DETAILS));
         // Act
         databaseService.createNewAd(categoryId, authorId, petName, petAge, petGender, adContent, imagePath);
         // Assert
-        verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_AD), eq(categoryId), eq(authorId), eq(petName), eq(petAge), eq(petGender), eq(adContent), eq(imagePath));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_AD), eq(categoryId), eq(authorId), eq(petName), eq(petAge), eq(petGender), eq(adContent), eq(imagePath));
+        verify(adFeed, times(1)).publishCreated(argThat(ad -> ad.ad_id() == 1 && ad.pet_name().equals("Buddy")));
     }
 
     @Test
     void testDeleteAd() throws DataAccessException, SQLException {
         // Arrange
         int adId = 1;
-        when(executeQuery.updateDB(anyInt(), eq(DatabaseService.SQL_DELETE_FAVORITE_AD), anyInt()))
-                .thenReturn(1);
-        when(executeQuery.updateDB(anyInt(), eq(DatabaseService.SQL_DELETE_AD), anyInt()))
-                .thenReturn(1);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_DELETE_AD), anyInt()))
+                .thenReturn(List.of(Map.of("ad_id", adId, "author_id", 3)));
         // Act
         databaseService.deleteAd(adId);
         // Assert
-        verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_DELETE_FAVORITE_AD), eq(adId));
-        verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_DELETE_AD), eq(adId));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(DatabaseService.SQL_DELETE_AD), eq(adId));
+        verify(executeQuery, never()).updateDB(anyInt(), anyString(), any());
+        verify(adCache, times(1)).invalidate(adId);
+        verify(adFeed, times(1)).publishDeleted(adId);
+        verify(executeQuery, times(1)).pinToPrimary(3);
+    }
+
+    @Test
+    void testDeleteAdAlreadyDeleted() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_DELETE_AD), anyInt()))
+                .thenReturn(List.of());
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> databaseService.deleteAd(1));
+        verify(adFeed, never()).publishDeleted(anyInt());
+        verify(adCache, never()).invalidate(anyInt());
     }
 
     @Test
@@ -113,6 +176,34 @@ class DatabaseServiceTest {
         databaseService.deleteAdFromFavorites(userId, adId);
         // Assert
         verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_DELETE_USER_FAVORITE_AD), eq(userId), eq(adId));
+        verify(favoritesIndex, times(1)).remove(userId, adId);
+        verify(favoriteCounts, times(1)).add(adId, -1);
+    }
+
+    @Test
+    void testMarkAdopted() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_MARK_AD_ADOPTED), eq(5), eq(3)))
+                .thenReturn(List.of(Map.of("ad_id", 5)));
+        // Act
+        boolean adopted = databaseService.markAdopted(5, 3);
+        // Assert
+        assertTrue(adopted);
+        verify(adCache, times(1)).invalidate(5);
+        verify(adFeed, times(1)).publishDeleted(5);
+        verify(executeQuery, times(1)).pinToPrimary(3);
+    }
+
+    @Test
+    void testMarkAdoptedOfAnotherUsersAd() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_MARK_AD_ADOPTED), eq(5), eq(4)))
+                .thenReturn(List.of());
+        // Act
+        boolean adopted = databaseService.markAdopted(5, 4);
+        // Assert
+        assertFalse(adopted);
+        verify(adFeed, never()).publishDeleted(anyInt());
     }
 
     @Test
@@ -123,7 +214,7 @@ class DatabaseServiceTest {
         String category = "";
         List<Map<String, Object>> mockResults = new ArrayList<>();
         mockResults.add(AD_DETAILS);
-        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_ALL_ADS), anyInt(), anyInt()))
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_GET_ALL_ADS), anyInt(), anyInt()))
                 .thenReturn(mockResults);
         // Act
         val result = databaseService.getGeneralAds(page, limit, category);
@@ -133,15 +224,75 @@ class DatabaseServiceTest {
         assertEquals("Buddy", result.get(0).pet_name());
     }
 
+    @Test
+    void testGetGeneralAdsWithFields() throws SQLException {
+        // Arrange
+        AdFields fields = AdFields.parse("pet_name,image_path");
+        when(executeQuery.queryReplica(anyInt(), eq(1), eq(fields.project(DatabaseService.SQL_GET_ALL_ADS)), anyInt(), anyInt()))
+                .thenReturn(List.of(Map.of("ad_id", 1, "pet_name", "Buddy", "image_path", "/images/buddy.jpg")));
+        // Act
+        val result = databaseService.getGeneralAds(1, 10, null, 1, fields);
+        // Assert
+        assertEquals(1, result.size());
+        assertEquals("Buddy", result.get(0).pet_name());
+        assertEquals(0, result.get(0).pet_age());
+        assertNull(result.get(0).ad_content());
+        verify(favoritesIndex, never()).markFavorites(anyInt(), any());
+    }
+
+    @Test
+    void testGetPopularAdsReturnsNextCursor() throws SQLException {
+        // Arrange
+        Map<String, Object> first = new HashMap<>(AD_DETAILS);
+        first.put("ad_id", 9);
+        first.put("favorite_count", 12);
+        Map<String, Object> second = new HashMap<>(AD_DETAILS);
+        second.put("ad_id", 4);
+        second.put("favorite_count", 7);
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_GET_POPULAR_ADS), eq(20), eq(15), eq(2)))
+                .thenReturn(List.of(first, second));
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_COUNT_ALL_ADS)))
+                .thenReturn(List.of(Map.of("count", 30L)));
+        // Act
+        DatabaseService.AdPage page = databaseService.getPopularAds(2, null, null, AdFields.ALL, DatabaseService.PopularCursor.parse("20_15"));
+        // Assert
+        assertEquals(List.of(9, 4), page.ads().stream().map(DatabaseService.AdDetail::ad_id).toList());
+        assertEquals(30L, page.totalAds());
+        assertEquals("7_4", page.next());
+    }
+
+    @Test
+    void testGetPopularAdsLastPageHasNoCursor() throws SQLException {
+        // Arrange
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_GET_POPULAR_ADS_SPECIFIC_CATEGORIES), eq("Dog"),
+                eq(Integer.MAX_VALUE), eq(Integer.MAX_VALUE), eq(10)))
+                .thenReturn(List.of(AD_DETAILS));
+        when(executeQuery.queryReplica(anyInt(), isNull(), eq(DatabaseService.SQL_COUNT_ADS_SPECIFIC_CATEGORIES), eq("Dog")))
+                .thenReturn(List.of(Map.of("count", 1L)));
+        // Act
+        DatabaseService.AdPage page = databaseService.getPopularAds(10, "Dog", null, AdFields.ALL, DatabaseService.PopularCursor.FIRST);
+        // Assert
+        assertEquals(1, page.ads().size());
+        assertNull(page.next());
+    }
+
+    @Test
+    void testPopularCursorRejectsMalformedCursor() {
+        // Act & Assert
+        assertEquals(new DatabaseService.PopularCursor(3, 41), DatabaseService.PopularCursor.parse("3_41"));
+        assertThrows(IllegalArgumentException.class, () -> DatabaseService.PopularCursor.parse("41"));
+        assertThrows(IllegalArgumentException.class, () -> DatabaseService.PopularCursor.parse("a_b"));
+    }
+
     @Test
     void testGetTotalAdsCount() throws SQLException {
         // Arrange
         String category = "";
         Map<String, Object> mockResult = Map.of("count", 5L);
-        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_COUNT_ALL_ADS)))
+        when(executeQuery.queryReplica(anyInt(), eq(4), eq(DatabaseService.SQL_COUNT_ALL_ADS)))
                 .thenReturn(List.of(mockResult));
         // Act
-        long result = databaseService.getTotalAdsCount(category);
+        long result = databaseService.getTotalAdsCount(category, 4);
         // Assert
         assertEquals(5L, result);
     }
@@ -152,7 +303,7 @@ class DatabaseServiceTest {
         int userId = 1;
         List<Map<String, Object>> mockResults = new ArrayList<>();
         mockResults.add(AD_DETAILS);
-        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_USER_ADS), anyInt(),anyInt(),anyInt()))
+        when(executeQuery.queryReplica(anyInt(), eq(userId), eq(DatabaseService.SQL_GET_USER_ADS), anyInt(),anyInt(),anyInt()))
                 .thenReturn(mockResults);
         // Act
         List<DatabaseService.AdDetail> result = databaseService.getUserAds(userId,1,1);
@@ -168,7 +319,7 @@ class DatabaseServiceTest {
         int userId = 1;
         List<Map<String, Object>> mockResults = new ArrayList<>();
         mockResults.add(AD_DETAILS);
-        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_USER_FAVORITE_ADS), anyInt(),anyInt(),anyInt()))
+        when(executeQuery.queryReplica(anyInt(), eq(userId), eq(DatabaseService.SQL_GET_USER_FAVORITE_ADS), anyInt(),anyInt(),anyInt()))
                 .thenReturn(mockResults);
         // Act
         List<DatabaseService.AdDetail> result = databaseService.getUserFavoritesAds(userId,1,1);
@@ -202,5 +353,174 @@ class DatabaseServiceTest {
         databaseService.insertAdsToFavorites(authorId, adId);
         // Assert
         verify(executeQuery, times(1)).updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_FAVORITE_AD), eq(authorId), eq(adId));
+        verify(favoritesIndex, times(1)).add(authorId, adId);
+        verify(executeQuery, times(1)).pinToPrimary(authorId);
+        verify(favoriteCounts, times(1)).add(adId, 1);
+    }
+
+    @Test
+    void testInsertAdsToFavoritesAlreadyFavorite() throws SQLException {
+        // Arrange
+        int authorId = 1;
+        int adId = 1;
+        when(favoritesIndex.isFavorite(authorId, adId)).thenReturn(true);
+        // Act & Assert
+        assertThrows(DuplicateKeyException.class, () -> databaseService.insertAdsToFavorites(authorId, adId));
+        verify(executeQuery, never()).updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_FAVORITE_AD), anyInt(), anyInt());
+    }
+
+    @Test
+    void testInsertAdsToFavoritesInactiveAd() throws SQLException {
+        // Arrange, the insert selects no deleted or adopted ad
+        int authorId = 1;
+        int adId = 1;
+        when(executeQuery.updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_FAVORITE_AD), anyInt(), anyInt()))
+                .thenReturn(0);
+        // Act
+        boolean added = databaseService.insertAdsToFavorites(authorId, adId);
+        // Assert
+        assertFalse(added);
+        verify(favoritesIndex, never()).add(anyInt(), anyInt());
+        verify(favoriteCounts, never()).add(anyInt(), anyInt());
+    }
+
+    @Test
+    void testInsertAdsToFavoritesWriteBehind() throws SQLException {
+        // Arrange
+        int authorId = 1;
+        int adId = 1;
+        when(favoritesWriteBehind.isEnabled()).thenReturn(true);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_IS_AD_ACTIVE), eq(adId)))
+                .thenReturn(List.of(Map.of("id", adId)));
+        // Act
+        boolean added = databaseService.insertAdsToFavorites(authorId, adId);
+        // Assert
+        assertTrue(added);
+        verify(favoritesWriteBehind, times(1)).enqueue(authorId, adId, true, false);
+        verify(favoritesIndex, times(1)).add(authorId, adId);
+        verify(executeQuery, never()).updateDB(anyInt(), eq(DatabaseService.SQL_CREATE_NEW_FAVORITE_AD), anyInt(), anyInt());
+    }
+
+    @Test
+    void testInsertAdsToFavoritesWriteBehindInactiveAd() throws SQLException {
+        // Arrange
+        int authorId = 1;
+        int adId = 1;
+        when(favoritesWriteBehind.isEnabled()).thenReturn(true);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_IS_AD_ACTIVE), eq(adId)))
+                .thenReturn(List.of());
+        // Act
+        boolean added = databaseService.insertAdsToFavorites(authorId, adId);
+        // Assert
+        assertFalse(added);
+        verify(favoritesWriteBehind, never()).enqueue(anyInt(), anyInt(), anyBoolean(), anyBoolean());
+        verify(favoritesIndex, never()).add(anyInt(), anyInt());
+    }
+
+    @Test
+    void testGetTotalUserFavoriteAdsCountWriteBehind() throws SQLException {
+        // Arrange
+        int userId = 1;
+        when(favoritesWriteBehind.isEnabled()).thenReturn(true);
+        when(favoritesWriteBehind.pendingCountDelta(userId)).thenReturn(-1L);
+        when(executeQuery.queryReplica(anyInt(), eq(userId), eq(DatabaseService.SQL_COUNT_ALL_FAVORITE_ADS_OF_USER), eq(userId)))
+                .thenReturn(List.of(Map.of("count", 3L)));
+        // Act
+        long result = databaseService.getTotalUserFavoriteAdsCount(userId);
+        // Assert
+        assertEquals(2L, result);
+    }
+
+    @Test
+    void testGetAdCacheMiss() throws SQLException {
+        // Arrange
+        int adId = 1;
+        when(adCache.get(adId)).thenReturn(null);
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_AD), eq(adId)))
+                .thenReturn(List.of(AD_DETAILS));
+        // Act
+        val result = databaseService.getAd(adId, null);
+        // Assert
+        assertEquals("Buddy", result.pet_name());
+        verify(adCache, times(1)).putAll(argThat(ads -> ads.size() == 1), anyLong());
+    }
+
+    @Test
+    void testGetAdsLoadsOnlyMisses() throws SQLException {
+        // Arrange
+        DatabaseService.AdDetail cached = databaseService.adsList(List.of(AD_DETAILS)).get(0);
+        Map<String, Object> missRow = new HashMap<>(AD_DETAILS);
+        missRow.put("ad_id", 2);
+        missRow.put("pet_name", "Luna");
+        when(adCache.getAll(any())).thenReturn(new HashMap<>(Map.of(1, cached)));
+        when(executeQuery.queryDB(anyInt(), eq(DatabaseService.SQL_GET_ADS_BY_IDS), argThat(ids -> ids instanceof Integer[])))
+                .thenReturn(List.of(missRow));
+        // Act
+        val result = databaseService.getAds(List.of(2, 1, 3, 2), null);
+        // Assert
+        assertEquals(List.of("Luna", "Buddy"), result.stream().map(DatabaseService.AdDetail::pet_name).toList());
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(DatabaseService.SQL_GET_ADS_BY_IDS),
+                argThat(ids -> Arrays.equals((Integer[]) ids, new Integer[]{2, 3})));
+    }
+
+    private static Map<String, Object> changeRow(Integer adId, Integer userId, Boolean deleted) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("next", 120L);
+        row.put("horizon", 50L);
+        row.put("ad_id", adId);
+        row.put("user_id", userId);
+        row.put("deleted", deleted);
+        return row;
+    }
+
+    @Test
+    void testGetAdChangesKeepsLastChange() throws SQLException {
+        // Arrange
+        when(executeQuery.queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_AD_CHANGES), eq(100L), eq(0), eq(11)))
+                .thenReturn(List.of(changeRow(1, null, false), changeRow(2, null, false), changeRow(2, null, true),
+                        changeRow(3, null, true)));
+        when(executeQuery.queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_ADS_BY_IDS), argThat(ids -> ids instanceof Integer[])))
+                .thenReturn(List.of(AD_DETAILS));
+        // Act
+        val result = databaseService.getAdChanges(100L, null, 10);
+        // Assert
+        assertEquals(120L, result.next());
+        assertFalse(result.reset());
+        assertEquals(List.of(1), result.ads().stream().map(DatabaseService.AdDetail::ad_id).toList());
+        assertEquals(List.of(2, 3), result.deleted_ads());
+        verify(executeQuery, times(1)).queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_ADS_BY_IDS),
+                argThat(ids -> Arrays.equals((Integer[]) ids, new Integer[]{1})));
+    }
+
+    @Test
+    void testGetAdChangesOfUserFavorites() throws SQLException {
+        // Arrange
+        when(executeQuery.queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_AD_CHANGES), eq(100L), eq(3), eq(11)))
+                .thenReturn(List.of(changeRow(1, 3, false), changeRow(2, 3, false), changeRow(1, 3, true)));
+        when(favoritesIndex.markFavorites(eq(3), any())).thenReturn(List.of());
+        // Act
+        val result = databaseService.getAdChanges(100L, 3, 10);
+        // Assert
+        assertEquals(List.of(2), result.favorites_added());
+        assertEquals(List.of(1), result.favorites_removed());
+        assertTrue(result.ads().isEmpty());
+        verify(executeQuery, never()).queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_ADS_BY_IDS), any());
+    }
+
+    @Test
+    void testGetAdChangesResetsBelowHorizonOrOverLimit() throws SQLException {
+        // Arrange
+        when(executeQuery.queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_AD_CHANGES), eq(40L), eq(0), eq(11)))
+                .thenReturn(List.of(changeRow(null, null, null)));
+        when(executeQuery.queryReplica(anyInt(), any(), eq(DatabaseService.SQL_GET_AD_CHANGES), eq(100L), eq(0), eq(3)))
+                .thenReturn(List.of(changeRow(1, null, false), changeRow(2, null, false), changeRow(3, null, false)));
+        // Act
+        val compacted = databaseService.getAdChanges(40L, null, 10);
+        val tooMany = databaseService.getAdChanges(100L, null, 2);
+        // Assert
+        assertTrue(compacted.reset());
+        assertTrue(tooMany.reset());
+        assertEquals(120L, tooMany.next());
+        assertTrue(tooMany.ads().isEmpty());
     }
 }
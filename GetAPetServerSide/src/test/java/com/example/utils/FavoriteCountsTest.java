@@ -0,0 +1,77 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FavoriteCountsTest {
+
+    @Mock
+    private ExecuteQuery executeQuery;
+
+    private FavoriteCounts favoriteCounts;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        favoriteCounts = new FavoriteCounts(executeQuery);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> flushedBatch() throws SQLException {
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(executeQuery, times(1)).batchUpdateDB(anyInt(), eq(FavoriteCounts.SQL_ADD_FAVORITE_COUNT), batch.capture());
+        return batch.getValue();
+    }
+
+    @Test
+    void testFlushSumsChangesPerAdInIdOrder() throws SQLException {
+        // Arrange
+        favoriteCounts.add(9, 1);
+        favoriteCounts.add(3, 1);
+        favoriteCounts.add(9, 1);
+        favoriteCounts.add(3, -1);
+        favoriteCounts.add(5, -1);
+        // Act
+        favoriteCounts.flush();
+        // Assert
+        List<Object[]> batch = flushedBatch();
+        assertEquals(2, batch.size());
+        assertArrayEquals(new Object[]{-1, 5}, batch.get(0));
+        assertArrayEquals(new Object[]{2, 9}, batch.get(1));
+    }
+
+    @Test
+    void testChangesThatCancelOutAreNotWritten() throws SQLException {
+        // Arrange
+        favoriteCounts.add(7, 1);
+        favoriteCounts.add(7, -1);
+        // Act
+        favoriteCounts.flush();
+        // Assert
+        verify(executeQuery, never()).batchUpdateDB(anyInt(), anyString(), anyList());
+    }
+
+    @Test
+    void testFailedBatchIsRetriedWithTheNextFlush() throws SQLException {
+        // Arrange
+        favoriteCounts.add(7, 1);
+        when(executeQuery.batchUpdateDB(anyInt(), anyString(), anyList())).thenThrow(new SQLException("Connection refused"));
+        favoriteCounts.flush();
+        reset(executeQuery);
+        favoriteCounts.add(7, 2);
+        // Act
+        favoriteCounts.flush();
+        // Assert
+        assertArrayEquals(new Object[]{3, 7}, flushedBatch().get(0));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FavoritesIndexTest {
+
+    @Mock
+    private ExecuteQuery executeQuery;
+
+    private FavoritesIndex favoritesIndex;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        favoritesIndex = new FavoritesIndex(executeQuery, 2);
+    }
+
+    @Test
+    void testIsFavoriteLoadsUserOnce() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1)))
+                .thenReturn(List.of(Map.of("ad_id", 7), Map.of("ad_id", 9)));
+        // Act & Assert
+        assertTrue(favoritesIndex.isFavorite(1, 7));
+        assertTrue(favoritesIndex.isFavorite(1, 9));
+        assertFalse(favoritesIndex.isFavorite(1, 8));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1));
+    }
+
+    @Test
+    void testAddAndRemove() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), anyInt()))
+                .thenReturn(List.of());
+        // Act
+        favoritesIndex.add(2, 5);
+        // Assert
+        assertTrue(favoritesIndex.isFavorite(2, 5));
+        assertFalse(favoritesIndex.isFavorite(3, 5));
+        favoritesIndex.remove(2, 5);
+        assertFalse(favoritesIndex.isFavorite(2, 5));
+    }
+
+    @Test
+    void testMarkFavorites() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1)))
+                .thenReturn(List.of(Map.of("ad_id", 2)));
+        List<DatabaseService.AdDetail> ads = List.of(ad(1), ad(2));
+        // Act
+        List<DatabaseService.AdDetail> marked = favoritesIndex.markFavorites(1, ads);
+        // Assert
+        assertEquals(Boolean.FALSE, marked.get(0).is_favorite());
+        assertEquals(Boolean.TRUE, marked.get(1).is_favorite());
+    }
+
+    @Test
+    void testRemoteFavoriteChangesAreApplied() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1)))
+                .thenReturn(List.of(Map.of("ad_id", 2)));
+        assertTrue(favoritesIndex.isFavorite(1, 2));
+        // Act
+        favoritesIndex.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_ADDED, 3, 1, false));
+        favoritesIndex.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_ADDED, 4, 1, true));
+        favoritesIndex.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_REMOVED, 2, 1, false));
+        // Assert
+        assertTrue(favoritesIndex.isFavorite(1, 3));
+        assertFalse(favoritesIndex.isFavorite(1, 4));
+        assertFalse(favoritesIndex.isFavorite(1, 2));
+        favoritesIndex.onFlush();
+        assertTrue(favoritesIndex.isFavorite(1, 2));
+        verify(executeQuery, times(2)).queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1));
+    }
+
+    @Test
+    void testChangesDuringLoadAreApplied() throws SQLException {
+        // Arrange, the changes commit after the load read the favorites
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1))).thenAnswer(invocation -> {
+            favoritesIndex.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_ADDED, 3, 1, false));
+            favoritesIndex.onChange(new CacheInvalidationListener.ChangeEvent(CacheInvalidationListener.Change.FAVORITE_REMOVED, 2, 1, false));
+            return List.of(Map.of("ad_id", 2));
+        });
+        // Act & Assert
+        assertTrue(favoritesIndex.isFavorite(1, 3));
+        assertFalse(favoritesIndex.isFavorite(1, 2));
+    }
+
+    @Test
+    void testUserUnloadedDuringLoadIsLoadedAgain() throws SQLException {
+        // Arrange, a flush drops the first load before the lookup gets to the favorites
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1)))
+                .thenAnswer(invocation -> {
+                    favoritesIndex.onFlush();
+                    return List.of(Map.of("ad_id", 7));
+                })
+                .thenReturn(List.of(Map.of("ad_id", 7)));
+        // Act & Assert
+        assertTrue(favoritesIndex.isFavorite(1, 7));
+        verify(executeQuery, times(2)).queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1));
+    }
+
+    @Test
+    void testUsersLoadedFirstAreUnloaded() throws SQLException {
+        // Arrange
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), anyInt()))
+                .thenAnswer(invocation -> List.of(Map.of("ad_id", invocation.getArgument(2, Integer.class) * 10)));
+        // Act
+        assertTrue(favoritesIndex.isFavorite(1, 10));
+        assertTrue(favoritesIndex.isFavorite(2, 20));
+        assertTrue(favoritesIndex.isFavorite(3, 30));
+        // Assert, user 1 made room for user 3 and is loaded again
+        assertTrue(favoritesIndex.isFavorite(2, 20));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(2));
+        assertTrue(favoritesIndex.isFavorite(1, 10));
+        verify(executeQuery, times(2)).queryDB(anyInt(), eq(FavoritesIndex.SQL_GET_USER_FAVORITE_AD_IDS), eq(1));
+    }
+
+    private static DatabaseService.AdDetail ad(int adId) {
+        return new DatabaseService.AdDetail(adId, "Test User", "testuser@example.com", "1234567890", "Buddy", "Dogs", 2,
+                "Male", "Adorable puppy", "/images/buddy.jpg", null, null);
+    }
+}
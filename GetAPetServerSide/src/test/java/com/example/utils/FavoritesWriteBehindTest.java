@@ -0,0 +1,160 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FavoritesWriteBehindTest {
+
+    @Mock
+    private ExecuteQuery executeQuery;
+
+    @Mock
+    private FavoritesIndex favoritesIndex;
+
+    @Mock
+    private FavoriteCounts favoriteCounts;
+
+    private FavoritesWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        MockitoAnnotations.openMocks(this);
+        // Every write affects its row unless a test says otherwise
+        when(executeQuery.batchUpdateDB(anyInt(), anyString(), anyList())).thenAnswer(invocation -> {
+            int[] rows = new int[invocation.<List<?>>getArgument(2).size()];
+            Arrays.fill(rows, 1);
+            return rows;
+        });
+        when(executeQuery.updateDB(anyInt(), anyString(), any(Object[].class))).thenReturn(1);
+        writeBehind = new FavoritesWriteBehind(executeQuery, favoritesIndex, favoriteCounts, true, 100);
+    }
+
+    @Test
+    void testAddThenRemoveCollapses() throws SQLException {
+        // Arrange
+        writeBehind.enqueue(1, 7, true, false);
+        writeBehind.enqueue(1, 7, false, true);
+        // Act
+        writeBehind.flush();
+        // Assert
+        assertEquals(0, writeBehind.pendingCountDelta(1));
+        verify(executeQuery, never()).batchUpdateDB(anyInt(), anyString(), anyList());
+    }
+
+    @Test
+    void testFlushBatchesAddsAndRemoves() throws SQLException {
+        // Arrange
+        writeBehind.enqueue(1, 7, true, false);
+        writeBehind.enqueue(1, 8, true, false);
+        writeBehind.enqueue(2, 7, false, true);
+        assertEquals(2, writeBehind.pendingCountDelta(1));
+        assertEquals(-1, writeBehind.pendingCountDelta(2));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Object[]>> inserts = ArgumentCaptor.forClass(List.class);
+        // Act
+        writeBehind.flush();
+        // Assert
+        verify(executeQuery, times(1)).batchUpdateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), inserts.capture());
+        verify(executeQuery, times(1)).batchUpdateDB(anyInt(), eq(FavoritesWriteBehind.SQL_DELETE_FAVORITE), anyList());
+        assertEquals(2, inserts.getValue().size());
+        assertEquals(0, writeBehind.pendingCountDelta(1));
+    }
+
+    @Test
+    void testFailedBatchFallsBackToSingleWrites() throws SQLException {
+        // Arrange
+        writeBehind.enqueue(1, 7, true, false);
+        writeBehind.enqueue(1, 8, true, false);
+        when(executeQuery.batchUpdateDB(anyInt(), anyString(), anyList())).thenThrow(new SQLException("foreign key violation"));
+        when(executeQuery.updateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), eq(1), eq(8)))
+                .thenThrow(new SQLException("foreign key violation"));
+        // Act
+        writeBehind.flush();
+        // Assert
+        verify(executeQuery, times(1)).updateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), eq(1), eq(7));
+        verify(executeQuery, times(1)).updateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), eq(1), eq(8));
+        verify(favoritesIndex, times(1)).remove(1, 8);
+        verify(favoriteCounts, times(1)).add(8, -1);
+        verify(favoritesIndex, never()).remove(1, 7);
+    }
+
+    @Test
+    void testDroppedRemoveIsUndone() throws SQLException {
+        // Arrange
+        writeBehind.enqueue(1, 7, false, true);
+        when(executeQuery.batchUpdateDB(anyInt(), anyString(), anyList())).thenThrow(new SQLException("Connection reset"));
+        when(executeQuery.updateDB(anyInt(), anyString(), any(Object[].class))).thenThrow(new SQLException("Connection reset"));
+        // Act
+        writeBehind.flush();
+        // Assert
+        verify(favoritesIndex, times(1)).add(1, 7);
+        verify(favoriteCounts, times(1)).add(7, 1);
+    }
+
+    @Test
+    void testNewerToggleIsRebasedOnDroppedToggle() throws SQLException {
+        // Arrange, the user unlikes the ad while its like is being written
+        writeBehind.enqueue(1, 7, true, false);
+        when(executeQuery.batchUpdateDB(anyInt(), anyString(), anyList())).thenThrow(new SQLException("foreign key violation"));
+        when(executeQuery.updateDB(anyInt(), anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            writeBehind.enqueue(1, 7, false, true);
+            throw new SQLException("foreign key violation");
+        });
+        // Act
+        writeBehind.flush();
+        // Assert, the unlike now matches the database and is not written
+        assertEquals(0, writeBehind.pendingCountDelta(1));
+        verify(favoritesIndex, never()).remove(anyInt(), anyInt());
+        verify(favoriteCounts, never()).add(anyInt(), anyInt());
+    }
+
+    @Test
+    void testLikeOfInactiveAdIsUndone() throws SQLException {
+        // Arrange, the ad is deleted after the like was buffered, so the insert selects no row
+        writeBehind.enqueue(1, 7, true, false);
+        when(executeQuery.batchUpdateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), anyList())).thenReturn(new int[]{0});
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesWriteBehind.SQL_GET_FAVORITE), eq(1), eq(7))).thenReturn(List.of());
+        // Act
+        writeBehind.flush();
+        // Assert
+        verify(favoritesIndex, times(1)).remove(1, 7);
+        verify(favoriteCounts, times(1)).add(7, -1);
+    }
+
+    @Test
+    void testLikeAlreadyStoredKeepsIndex() throws SQLException {
+        // Arrange, another node stored the same like first
+        writeBehind.enqueue(1, 7, true, false);
+        when(executeQuery.batchUpdateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), anyList())).thenReturn(new int[]{0});
+        when(executeQuery.queryDB(anyInt(), eq(FavoritesWriteBehind.SQL_GET_FAVORITE), eq(1), eq(7)))
+                .thenReturn(List.of(Map.of("ad_id", 7)));
+        // Act
+        writeBehind.flush();
+        // Assert
+        verify(favoritesIndex, never()).remove(anyInt(), anyInt());
+        verify(favoriteCounts, times(1)).add(7, -1);
+    }
+
+    @Test
+    void testFlushWhenFull() throws SQLException {
+        // Arrange
+        writeBehind = new FavoritesWriteBehind(executeQuery, favoritesIndex, favoriteCounts, true, 2);
+        // Act
+        writeBehind.enqueue(1, 7, true, false);
+        writeBehind.enqueue(1, 8, true, false);
+        // Assert
+        verify(executeQuery, times(1)).batchUpdateDB(anyInt(), eq(FavoritesWriteBehind.SQL_INSERT_FAVORITE), anyList());
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotImageCacheTest {
+
+    @TempDir
+    Path imagesFolder;
+
+    @Test
+    void testGetMapsAndCachesImage() throws IOException {
+        // Arrange
+        Files.write(imagesFolder.resolve("buddy.png"), new byte[]{1, 2, 3, 4});
+        HotImageCache hotImageCache = new HotImageCache(imagesFolder + "/", 1024, 1024);
+        // Act
+        HotImageCache.ImageFile image = hotImageCache.get("buddy.png");
+        // Assert
+        assertEquals(4, image.length());
+        assertEquals(3, image.content().get(2));
+        assertEquals("image/png", image.contentType());
+        assertSame(image, hotImageCache.get("buddy.png"));
+        assertEquals(4, hotImageCache.cachedBytes());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedAndSkipsLargeFiles() throws IOException {
+        // Arrange
+        Files.write(imagesFolder.resolve("a.jpg"), new byte[6]);
+        Files.write(imagesFolder.resolve("b.jpg"), new byte[6]);
+        Files.write(imagesFolder.resolve("large.jpg"), new byte[20]);
+        HotImageCache hotImageCache = new HotImageCache(imagesFolder + "/", 10, 8);
+        // Act
+        HotImageCache.ImageFile a = hotImageCache.get("a.jpg");
+        hotImageCache.get("b.jpg");
+        HotImageCache.ImageFile large = hotImageCache.get("large.jpg");
+        // Assert
+        assertNull(large.content());
+        assertEquals(20, large.length());
+        assertEquals(6, hotImageCache.cachedBytes());
+        assertNotSame(a, hotImageCache.get("a.jpg"));
+    }
+
+    @Test
+    void testRejectsMissingFilesAndPathsOutsideTheFolder() throws IOException {
+        // Arrange
+        Files.write(imagesFolder.resolve("secret.txt"), new byte[]{1});
+        Path images = Files.createDirectory(imagesFolder.resolve("images"));
+        HotImageCache hotImageCache = new HotImageCache(images + "/", 1024, 1024);
+        // Act & Assert
+        assertNull(hotImageCache.get("missing.png"));
+        assertNull(hotImageCache.get("../secret.txt"));
+        assertNull(hotImageCache.get(""));
+    }
+
+    @Test
+    void testInvalidateDropsDeletedImage() throws IOException {
+        // Arrange
+        Path file = Files.write(imagesFolder.resolve("buddy.png"), new byte[]{1, 2});
+        HotImageCache hotImageCache = new HotImageCache(imagesFolder + "/", 1024, 1024);
+        hotImageCache.get("buddy.png");
+        // Act
+        Files.delete(file);
+        hotImageCache.invalidate(file);
+        // Assert
+        assertNull(hotImageCache.get("buddy.png"));
+        assertEquals(0, hotImageCache.cachedBytes());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDownscalerTest {
+
+    @TempDir
+    Path folder;
+
+    private static final Path LARGE_JPEG = Paths.get("src/test/resources/Aslan1MB.jpeg");
+
+    @Test
+    void testFittingImageIsKept() throws IOException {
+        // Arrange
+        Path source = folder.resolve("small.png");
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        Path target = folder.resolve("fitted");
+        // Act
+        ImageDownscaler.FittedImage fitted = new ImageDownscaler(1600, 1048576).fit(source, "image/png", target);
+        // Assert
+        assertEquals(source, fitted.file());
+        assertEquals("image/png", fitted.contentType());
+        assertEquals(100, fitted.width());
+        assertEquals(50, fitted.height());
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void testLargeImageIsDownscaled() throws IOException {
+        // Arrange
+        Path target = folder.resolve("fitted");
+        // Act
+        ImageDownscaler.FittedImage fitted = new ImageDownscaler(400, 100_000).fit(LARGE_JPEG, "image/jpeg", target);
+        // Assert
+        assertEquals(target, fitted.file());
+        assertEquals("image/jpeg", fitted.contentType());
+        assertTrue(Math.max(fitted.width(), fitted.height()) <= 400);
+        assertTrue(fitted.size() <= 100_000);
+        assertEquals(fitted.size(), Files.size(target));
+        BufferedImage stored = ImageIO.read(target.toFile());
+        assertEquals(fitted.width(), stored.getWidth());
+        assertEquals(fitted.height(), stored.getHeight());
+    }
+
+    @Test
+    void testTransparentPngStaysPng() throws IOException {
+        // Arrange
+        Path source = folder.resolve("large.png");
+        ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_ARGB), "png", source.toFile());
+        Path target = folder.resolve("fitted");
+        // Act
+        ImageDownscaler.FittedImage fitted = new ImageDownscaler(500, 1048576).fit(source, "image/png", target);
+        // Assert
+        assertEquals("image/png", fitted.contentType());
+        assertEquals(500, fitted.width());
+        assertEquals(250, fitted.height());
+        assertTrue(ImageIO.read(target.toFile()).getColorModel().hasAlpha());
+    }
+
+    @Test
+    void testNoisyPngFallsBackToJpeg() throws IOException {
+        // Arrange
+        BufferedImage noise = new BufferedImage(800, 800, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(7);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt());
+            }
+        }
+        Path source = folder.resolve("noise.png");
+        ImageIO.write(noise, "png", source.toFile());
+        Path target = folder.resolve("fitted");
+        // Act
+        ImageDownscaler.FittedImage fitted = new ImageDownscaler(800, 200_000).fit(source, "image/png", target);
+        // Assert
+        assertEquals("image/jpeg", fitted.contentType());
+        assertTrue(fitted.size() <= 200_000);
+    }
+
+    @Test
+    void testNotAnImageIsRejected() throws IOException {
+        // Arrange
+        Path source = Files.write(folder.resolve("fake.png"), new byte[]{1, 2, 3});
+        // Act & Assert
+        assertThrows(IOException.class, () -> new ImageDownscaler(1600, 1048576).fit(source, "image/png", folder.resolve("fitted")));
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageUploadsTest {
+
+    @TempDir
+    Path folder;
+
+    @Mock
+    private HotImageCache hotImageCache;
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int USER_ID = 1;
+
+    private Path imagesFolder;
+    private Path tempFolder;
+    private LocalImageStore imageStore;
+    private ImageUploads imageUploads;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        imagesFolder = Files.createDirectories(folder.resolve("images"));
+        tempFolder = folder.resolve("uploads");
+        imageStore = new LocalImageStore(imagesFolder + "/", hotImageCache);
+        imageUploads = newImageUploads(3600000);
+    }
+
+    private ImageUploads newImageUploads(long ttlMs) throws IOException {
+        return new ImageUploads(imageStore, new ImageDownscaler(400, 100_000), tempFolder.toString(), CHUNK_SIZE, 2_000_000, 2, ttlMs);
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        // Noise does not compress, so the image takes many chunks
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static byte[] chunk(byte[] content, int index) {
+        return Arrays.copyOfRange(content, index * CHUNK_SIZE, Math.min(content.length, (index + 1) * CHUNK_SIZE));
+    }
+
+    private void writeAll(String uploadId, byte[] content, int chunkCount) throws IOException {
+        // In reverse, the chunks may arrive in any order
+        for (int i = chunkCount - 1; i >= 0; i--) {
+            imageUploads.writeChunk(uploadId, i, new ByteArrayInputStream(chunk(content, i)));
+        }
+    }
+
+    @Test
+    void testUploadInChunks() throws Exception {
+        // Arrange
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "my buddy.png", "image/png", image.length, sha256(image));
+        int chunkCount = (image.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        // Act
+        writeAll(started.upload_id(), image, chunkCount);
+        ImageUploads.UploadedImage uploaded = imageUploads.complete(started.upload_id(), USER_ID);
+        String key = imageUploads.claim(started.upload_id(), USER_ID);
+        // Assert
+        assertEquals(chunkCount, started.chunk_count());
+        assertEquals(chunkCount, started.missing_chunks().size());
+        assertEquals(100, uploaded.width());
+        assertEquals("my_buddy.png", key);
+        assertArrayEquals(image, Files.readAllBytes(imagesFolder.resolve(key)));
+        assertNull(imageUploads.status(started.upload_id()));
+        try (var temp = Files.list(tempFolder)) {
+            assertEquals(List.of(), temp.toList());
+        }
+    }
+
+    @Test
+    void testStatusListsMissingChunks() throws Exception {
+        // Arrange
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "buddy.png", "image/png", image.length, sha256(image));
+        // Act
+        ImageUploads.UploadStatus status = imageUploads.writeChunk(started.upload_id(), 1, new ByteArrayInputStream(chunk(image, 1)));
+        // Assert
+        assertFalse(status.missing_chunks().contains(1));
+        assertTrue(status.missing_chunks().contains(0));
+        assertEquals(status, imageUploads.status(started.upload_id()));
+        assertThrows(IllegalStateException.class, () -> imageUploads.complete(started.upload_id(), USER_ID));
+    }
+
+    @Test
+    void testLargeUploadIsDownscaled() throws Exception {
+        // Arrange
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/Aslan1MB.jpeg"));
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "aslan.jpeg", "image/jpeg", image.length, sha256(image));
+        writeAll(started.upload_id(), image, started.chunk_count());
+        // Act
+        ImageUploads.UploadedImage uploaded = imageUploads.complete(started.upload_id(), USER_ID);
+        String key = imageUploads.claim(started.upload_id(), USER_ID);
+        // Assert
+        assertEquals("aslan.jpeg", key);
+        assertTrue(uploaded.size() <= 100_000);
+        assertTrue(Math.max(uploaded.width(), uploaded.height()) <= 400);
+        assertEquals(uploaded.size(), Files.size(imagesFolder.resolve(key)));
+    }
+
+    @Test
+    void testChecksumMismatchDropsUpload() throws Exception {
+        // Arrange
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "buddy.png", "image/png", image.length, sha256(new byte[]{1}));
+        writeAll(started.upload_id(), image, started.chunk_count());
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.complete(started.upload_id(), USER_ID));
+        assertNull(imageUploads.status(started.upload_id()));
+        try (var stored = Files.list(imagesFolder)) {
+            assertEquals(0, stored.count());
+        }
+    }
+
+    @Test
+    void testChunkWithWrongSizeIsRejected() throws Exception {
+        // Arrange
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "buddy.png", "image/png", image.length, sha256(image));
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> imageUploads.writeChunk(started.upload_id(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE + 1])));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageUploads.writeChunk(started.upload_id(), 0, new ByteArrayInputStream(new byte[CHUNK_SIZE - 1])));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageUploads.writeChunk(started.upload_id(), started.chunk_count(), new ByteArrayInputStream(new byte[1])));
+        assertEquals(started.missing_chunks(), imageUploads.status(started.upload_id()).missing_chunks());
+    }
+
+    @Test
+    void testStartValidatesUpload() throws Exception {
+        // Arrange
+        String sha256 = sha256(new byte[]{1});
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.start(USER_ID, "buddy.gif", "image/gif", 10, sha256));
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.start(USER_ID, "buddy.png", "image/png", 2_000_001, sha256));
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.start(USER_ID, "buddy.png", "image/png", 10, "abc"));
+        imageUploads.start(USER_ID, "buddy.png", "image/png", 10, sha256);
+        imageUploads.start(USER_ID, "buddy.png", "image/png", 10, sha256);
+        assertThrows(IllegalStateException.class, () -> imageUploads.start(USER_ID, "buddy.png", "image/png", 10, sha256));
+    }
+
+    @Test
+    void testUploadOfAnotherUserCantBeCompletedOrClaimed() throws Exception {
+        // Arrange
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "buddy.png", "image/png", image.length, sha256(image));
+        writeAll(started.upload_id(), image, started.chunk_count());
+        // Act & Assert
+        assertNull(imageUploads.complete(started.upload_id(), USER_ID + 1));
+        imageUploads.complete(started.upload_id(), USER_ID);
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.claim(started.upload_id(), USER_ID + 1));
+        assertEquals("buddy.png", imageUploads.claim(started.upload_id(), USER_ID));
+    }
+
+    @Test
+    void testCleanupDropsStaleUploads() throws Exception {
+        // Arrange
+        imageUploads = newImageUploads(0);
+        byte[] image = png(100, 80);
+        ImageUploads.UploadStatus completed = imageUploads.start(USER_ID, "buddy.png", "image/png", image.length, sha256(image));
+        writeAll(completed.upload_id(), image, completed.chunk_count());
+        imageUploads.complete(completed.upload_id(), USER_ID);
+        ImageUploads.UploadStatus started = imageUploads.start(USER_ID, "other.png", "image/png", image.length, sha256(image));
+        // Act
+        int dropped = imageUploads.cleanup();
+        // Assert
+        assertEquals(2, dropped);
+        assertNull(imageUploads.status(started.upload_id()));
+        assertThrows(IllegalArgumentException.class, () -> imageUploads.claim(completed.upload_id(), USER_ID));
+        try (var stored = Files.list(imagesFolder); var temp = Files.list(tempFolder)) {
+            assertEquals(List.of(), stored.toList());
+            assertEquals(List.of(), temp.toList());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonWriterTest {
+
+    // Configured like the ObjectMapper Spring Boot provides to the controllers
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    /**
+     * Test to verify that a page is written exactly like Spring's ObjectMapper writes it,
+     * including timestamps with and without a fraction of a second and null values.
+     */
+    @Test
+    void testWriteAdPageMatchesObjectMapper() throws IOException {
+        // Arrange
+        DatabaseService.AdPage page = new DatabaseService.AdPage(List.of(
+                new DatabaseService.AdDetail(1, "Test User", "testuser@example.com", "1234567890", "Buddy", "Dogs", 2,
+                        "Male", "Adorable \"puppy\"\nloves walks", "/images/buddy.jpg", LocalDateTime.of(2024, 5, 1, 12, 0), true),
+                new DatabaseService.AdDetail(2, "Other User", "other@example.com", "555-0100", "Luna", "Cats", 1,
+                        "Female", "Curious", null, LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_450_000), false),
+                new DatabaseService.AdDetail(3, "Other User", "other@example.com", "555-0100", "Spike", "Hedgehog", 3,
+                        "Male", "Shy", "", null, null)), 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Act
+        JsonWriter.writeAdPage(page, out);
+        // Assert
+        assertEquals(objectMapper.writeValueAsString(page), out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to verify that the next cursor of a page is written like the ObjectMapper writes it.
+     */
+    @Test
+    void testWriteAdPageWithNextCursorMatchesObjectMapper() throws IOException {
+        // Arrange
+        DatabaseService.AdPage page = new DatabaseService.AdPage(List.of(
+                new DatabaseService.AdDetail(1, "Test User", "testuser@example.com", "1234567890", "Buddy", "Dogs", 2,
+                        "Male", "Adorable puppy", "/images/buddy.jpg", LocalDateTime.of(2024, 5, 1, 12, 0), null)),
+                42, AdFields.ALL, "12_1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Act
+        JsonWriter.writeAdPage(page, out);
+        // Assert
+        assertEquals(objectMapper.writeValueAsString(page), out.toString(StandardCharsets.UTF_8));
+        assertTrue(out.toString(StandardCharsets.UTF_8).endsWith(",\"totalAds\":42,\"next\":\"12_1\"}"));
+    }
+
+    /**
+     * Test to verify that a page written as CBOR or Smile holds the same fields and values as its JSON.
+     */
+    @Test
+    void testWriteAdPageAsBinaryMatchesJson() throws IOException {
+        // Arrange
+        DatabaseService.AdPage page = new DatabaseService.AdPage(List.of(
+                new DatabaseService.AdDetail(1, "Test User", "testuser@example.com", "1234567890", "Buddy", "Dogs", 2,
+                        "Male", "Adorable puppy", "/images/buddy.jpg", LocalDateTime.of(2024, 5, 1, 12, 0), true),
+                new DatabaseService.AdDetail(2, "Test User", "testuser@example.com", "1234567890", "Luna", "Dogs", 1,
+                        "Female", "Curious", null, LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_450_000), null)), 42);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        ByteArrayOutputStream cbor = new ByteArrayOutputStream();
+        ByteArrayOutputStream smile = new ByteArrayOutputStream();
+        // Act
+        JsonWriter.writeAdPage(page, json);
+        JsonWriter.writeAdPage(page, cbor, JsonWriter.CBOR_FACTORY);
+        JsonWriter.writeAdPage(page, smile, JsonWriter.SMILE_FACTORY);
+        // Assert
+        JsonNode expected = objectMapper.readTree(json.toByteArray());
+        assertEquals(expected, new ObjectMapper(new CBORFactory()).readTree(cbor.toByteArray()));
+        assertEquals(expected, new ObjectMapper(new SmileFactory()).readTree(smile.toByteArray()));
+        assertTrue(cbor.size() < json.size());
+        assertTrue(smile.size() < json.size());
+    }
+
+    /**
+     * Test to verify that a page with fields writes only these fields, and ad_id.
+     */
+    @Test
+    void testWriteAdPageWithFields() throws IOException {
+        // Arrange
+        DatabaseService.AdPage page = new DatabaseService.AdPage(List.of(
+                new DatabaseService.AdDetail(1, null, null, null, "Buddy", null, 2, null, null, "/images/buddy.jpg", null, null)),
+                42, AdFields.parse("pet_name,pet_age,image_path"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Act
+        JsonWriter.writeAdPage(page, out);
+        // Assert
+        assertEquals("{\"ads\":[{\"ad_id\":1,\"pet_name\":\"Buddy\",\"pet_age\":2,\"image_path\":\"/images/buddy.jpg\"}],\"totalAds\":42}",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test to verify that a user profile is serialized like Spring's ObjectMapper serializes it.
+     */
+    @Test
+    void testToJsonUserProfile() throws IOException {
+        // Arrange
+        DatabaseService.UserProfile profile = new DatabaseService.UserProfile(1, "userName", "Test User", "testuser@example.com", "1234567890");
+        // Act
+        String json = JsonWriter.toJson(profile);
+        // Assert
+        assertEquals(objectMapper.writeValueAsString(profile), json);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LocalImageStoreTest {
+
+    @TempDir
+    Path imagesFolder;
+
+    @Mock
+    private HotImageCache hotImageCache;
+
+    private LocalImageStore localImageStore;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        localImageStore = new LocalImageStore(imagesFolder + "/", hotImageCache);
+    }
+
+    @Test
+    void testSaveResolvesNameCollisions() throws IOException {
+        // Act
+        String first = localImageStore.save("buddy.png", new ByteArrayInputStream(new byte[]{1}), 1, "image/png");
+        String second = localImageStore.save("buddy.png", new ByteArrayInputStream(new byte[]{2}), 1, "image/png");
+        // Assert
+        assertEquals("buddy.png", first);
+        assertEquals("buddy_1.png", second);
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(imagesFolder.resolve(second)));
+    }
+
+    @Test
+    void testDeleteInvalidatesCachedImage() throws IOException {
+        // Arrange
+        Path file = Files.write(imagesFolder.resolve("buddy.png"), new byte[]{1});
+        // Act
+        int failed = localImageStore.deleteAll(List.of("buddy.png", "missing.png"));
+        // Assert
+        assertEquals(0, failed);
+        assertFalse(Files.exists(file));
+        verify(hotImageCache, times(1)).invalidate(file);
+    }
+
+    @Test
+    void testDeleteRefusesPathsOutsideTheFolder() throws IOException {
+        // Arrange
+        Path outside = Files.write(imagesFolder.getParent().resolve("outside-" + imagesFolder.getFileName()), new byte[]{1});
+        // Act
+        boolean deleted = localImageStore.delete("../" + outside.getFileName());
+        // Assert
+        assertFalse(deleted);
+        assertTrue(Files.exists(outside));
+        Files.delete(outside);
+    }
+
+    @Test
+    void testArchiveMovesImageOutOfTheFolder() throws IOException {
+        // Arrange
+        Path archiveFolder = imagesFolder.resolve("../" + imagesFolder.getFileName() + "-archive").normalize();
+        Path file = Files.write(imagesFolder.resolve("buddy.png"), new byte[]{1});
+        // Act
+        boolean archived = localImageStore.archive("buddy.png");
+        // Assert
+        assertTrue(archived);
+        assertFalse(Files.exists(file));
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(archiveFolder.resolve("buddy.png")));
+        assertTrue(localImageStore.archive("missing.png"));
+        verify(hotImageCache, times(1)).invalidate(file);
+        Files.delete(archiveFolder.resolve("buddy.png"));
+        Files.delete(archiveFolder);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationRunnerTest {
+
+    @Test
+    void testFindMigrationsInVersionOrder() throws IOException {
+        // Act
+        List<MigrationRunner.Migration> migrations = MigrationRunner.findMigrations("classpath*:db/migration/");
+        // Assert
+        assertTrue(migrations.size() >= 2);
+        assertEquals(1, migrations.get(0).version());
+        assertEquals("schema", migrations.get(0).description());
+        assertEquals(2, migrations.get(1).version());
+        assertEquals("seed data", migrations.get(1).description());
+        for (int i = 1; i < migrations.size(); i++) {
+            assertTrue(migrations.get(i - 1).version() < migrations.get(i).version());
+        }
+    }
+
+    @Test
+    void testChecksumTracksContent() throws IOException {
+        // Act
+        List<MigrationRunner.Migration> first = MigrationRunner.findMigrations("classpath*:db/migration/");
+        List<MigrationRunner.Migration> second = MigrationRunner.findMigrations("classpath*:db/migration/");
+        // Assert
+        assertEquals(first.get(0).checksum(), second.get(0).checksum());
+        assertNotEquals(first.get(0).checksum(), first.get(1).checksum());
+    }
+}
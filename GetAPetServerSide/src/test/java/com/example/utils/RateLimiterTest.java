@@ -0,0 +1,54 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    @Test
+    void testBurstThenRate() {
+        // Arrange
+        RateLimiter limiter = new RateLimiter(10, now::get);
+        RateLimiter.Rate rate = RateLimiter.Rate.of(1, 3);
+        // Act & Assert - a burst of 3 goes through, the 4th waits a full second
+        assertEquals(0, limiter.tryAcquire("key", rate));
+        assertEquals(0, limiter.tryAcquire("key", rate));
+        assertEquals(0, limiter.tryAcquire("key", rate));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.tryAcquire("key", rate));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, limiter.tryAcquire("key", rate));
+        assertTrue(limiter.tryAcquire("key", rate) > 0);
+    }
+
+    @Test
+    void testKeysAreIndependent() {
+        // Arrange
+        RateLimiter limiter = new RateLimiter(10, now::get);
+        RateLimiter.Rate rate = RateLimiter.Rate.of(1, 1);
+        // Act & Assert
+        assertEquals(0, limiter.tryAcquire("first", rate));
+        assertTrue(limiter.tryAcquire("first", rate) > 0);
+        assertEquals(0, limiter.tryAcquire("second", rate));
+    }
+
+    @Test
+    void testIdleBucketsAreEvicted() {
+        // Arrange
+        RateLimiter limiter = new RateLimiter(2, now::get);
+        RateLimiter.Rate rate = RateLimiter.Rate.of(1, 1);
+        limiter.tryAcquire("first", rate);
+        limiter.tryAcquire("second", rate);
+        // Act - both buckets are still refilling, so the new key goes to the overflow bucket
+        limiter.tryAcquire("third", rate);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        // Assert - once refilled the buckets are evicted to make room
+        assertEquals(0, limiter.tryAcquire("fourth", rate));
+        assertEquals(1, limiter.size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplicaRouterTest {
+
+    private final DataSource primary = mock(DataSource.class);
+    private final DataSource firstReplica = mock(DataSource.class);
+    private final DataSource secondReplica = mock(DataSource.class);
+
+    @Test
+    void testForReadRoundRobin() {
+        // Arrange
+        ReplicaRouter router = new ReplicaRouter(primary, List.of(firstReplica, secondReplica), 5000);
+        // Act
+        DataSource first = router.forRead(null);
+        DataSource second = router.forRead(null);
+        DataSource third = router.forRead(null);
+        // Assert
+        assertNotSame(first, second);
+        assertSame(first, third);
+        assertNotSame(primary, first);
+        assertNotSame(primary, second);
+    }
+
+    @Test
+    void testForReadWithoutReplicas() {
+        // Arrange
+        ReplicaRouter router = new ReplicaRouter(primary, List.of(), 5000);
+        // Act & Assert
+        assertSame(primary, router.forRead(1));
+    }
+
+    @Test
+    void testPinToPrimary() {
+        // Arrange
+        ReplicaRouter router = new ReplicaRouter(primary, List.of(firstReplica), 5000);
+        // Act
+        router.pinToPrimary(1);
+        // Assert
+        assertSame(primary, router.forRead(1));
+        assertSame(firstReplica, router.forRead(2));
+        assertSame(firstReplica, router.forRead(null));
+    }
+
+    @Test
+    void testCheckHealth() throws SQLException {
+        // Arrange
+        ReplicaRouter router = new ReplicaRouter(primary, List.of(firstReplica, secondReplica), 5000);
+        Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(firstReplica.getConnection()).thenThrow(new SQLException("Connection refused", "08001"));
+        when(secondReplica.getConnection()).thenReturn(connection);
+        // Act
+        router.checkHealth();
+        // Assert
+        assertSame(secondReplica, router.forRead(null));
+        assertSame(secondReplica, router.forRead(null));
+        router.markUnhealthy(secondReplica);
+        assertSame(primary, router.forRead(null));
+    }
+}
@@ -87,4 +87,19 @@ class ResultSetMapperTest {
             ResultSetMapper.mapRowToRecord(testVal, TestRecord.class);
         });
     }
+
+    /**
+     * Test to verify that the components without a column, e.g. left out of a projection, get default values.
+     */
+    @Test
+    void testMapRowToRecordWithoutColumns() throws SQLException {
+        // Arrange
+        Map<String, Object> testVal = Map.of("name", "Test Name");
+        // Act
+        TestRecord result = ResultSetMapper.mapRowToRecord(testVal, TestRecord.class);
+        // Assert
+        assertEquals(0, result.id());
+        assertEquals("Test Name", result.name());
+        assertNull(result.created_at());
+    }
 }
@@ -0,0 +1,107 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class S3ImageStoreTest {
+
+    @Mock
+    private S3Client s3;
+
+    @Mock
+    private S3Presigner presigner;
+
+    private S3ImageStore s3ImageStore;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        s3ImageStore = new S3ImageStore(s3, presigner, "images", 4, Duration.ofMinutes(10), 2);
+    }
+
+    @Test
+    void testSmallImageIsUploadedInOneRequest() throws IOException {
+        // Act
+        String key = s3ImageStore.save("buddy.png", new ByteArrayInputStream(new byte[]{1, 2, 3}), 3, "image/png");
+        // Assert
+        assertTrue(key.endsWith("/buddy.png"));
+        verify(s3, times(1)).putObject(ArgumentMatchers.<Consumer<PutObjectRequest.Builder>>any(), any(RequestBody.class));
+        verify(s3, never()).createMultipartUpload(ArgumentMatchers.<Consumer<CreateMultipartUploadRequest.Builder>>any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLargeImageIsUploadedInParts() throws IOException {
+        // Arrange
+        when(s3.createMultipartUpload(any(Consumer.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        when(s3.uploadPart(any(Consumer.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        when(s3.completeMultipartUpload(any(Consumer.class)))
+                .thenReturn(CompleteMultipartUploadResponse.builder().build());
+        // Act
+        s3ImageStore.save("buddy.png", new ByteArrayInputStream(new byte[10]), 10, "image/png");
+        // Assert
+        verify(s3, times(3)).uploadPart(any(Consumer.class), any(RequestBody.class));
+        verify(s3, times(1)).completeMultipartUpload(any(Consumer.class));
+        verify(s3, never()).putObject(any(Consumer.class), any(RequestBody.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDeleteAllSendsBatchesOfAtMostOneThousandKeys() {
+        // Arrange
+        when(s3.deleteObjects(any(Consumer.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        List<String> keys = IntStream.range(0, 2500).mapToObj(i -> "image_" + i + ".png").toList();
+        // Act
+        int failed = s3ImageStore.deleteAll(keys);
+        // Assert
+        assertEquals(0, failed);
+        verify(s3, times(3)).deleteObjects(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testArchiveMovesImageUnderArchivePrefix() {
+        // Arrange
+        ArgumentCaptor<Consumer<CopyObjectRequest.Builder>> copy = ArgumentCaptor.forClass(Consumer.class);
+        // Act
+        boolean archived = s3ImageStore.archive("uuid/buddy.png");
+        // Assert
+        assertTrue(archived);
+        verify(s3, times(1)).copyObject(copy.capture());
+        verify(s3, times(1)).deleteObject(any(Consumer.class));
+        CopyObjectRequest.Builder request = CopyObjectRequest.builder();
+        copy.getValue().accept(request);
+        assertEquals("uuid/buddy.png", request.build().sourceKey());
+        assertEquals(S3ImageStore.ARCHIVE_PREFIX + "uuid/buddy.png", request.build().destinationKey());
+    }
+}
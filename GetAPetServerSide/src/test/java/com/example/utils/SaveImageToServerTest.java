@@ -23,6 +23,8 @@ class SaveImageToServerTest {
     private SaveImageToServer saveImageToServer;
     @Mock
     MultipartFile file;
+    @Mock
+    ImageStore imageStore;
     private static final String imageFilePath = "src/test/resources/Aslan1MB.jpeg";
 
     @BeforeEach
@@ -0,0 +1,64 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserAvailabilityTest {
+
+    @Mock
+    private ExecuteQuery executeQuery;
+
+    private UserAvailability userAvailability;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        MockitoAnnotations.openMocks(this);
+        userAvailability = new UserAvailability(executeQuery, 1000, 0.001);
+        when(executeQuery.queryDB(anyInt(), eq(UserAvailability.SQL_COUNT_USERS))).thenReturn(List.of(Map.of("count", 1L)));
+        when(executeQuery.queryDB(anyInt(), eq(UserAvailability.SQL_GET_USERS_AFTER), any(), any()))
+                .thenReturn(List.of(Map.of("id", 1, "username", "taken", "display_name", "Taken", "email", "taken@example.com", "phone", "050-1")));
+    }
+
+    @Test
+    void testUnseenValuesAreAnsweredWithoutTheDatabase() throws SQLException {
+        // Arrange
+        userAvailability.load();
+        // Act & Assert
+        assertTrue(userAvailability.isAvailable(UserAvailability.Field.USERNAME, "free"));
+        verify(executeQuery, never()).queryDB(anyInt(), eq(UserAvailability.Field.USERNAME.sqlExists()), any());
+    }
+
+    @Test
+    void testPossibleMatchesAreCheckedInTheDatabase() throws SQLException {
+        // Arrange
+        userAvailability.load();
+        when(executeQuery.queryDB(anyInt(), eq(UserAvailability.Field.EMAIL.sqlExists()), eq("taken@example.com")))
+                .thenReturn(List.of(Map.of("?column?", 1)));
+        // Act & Assert
+        DuplicateKeyException e = assertThrows(DuplicateKeyException.class,
+                () -> userAvailability.checkAvailable("new", "New", "taken@example.com", "050-2"));
+        assertEquals("Key (email)=(taken@example.com) already exists.", e.getMessage());
+    }
+
+    @Test
+    void testAddedUsersAreCheckedInTheDatabase() throws SQLException {
+        // Arrange
+        userAvailability.load();
+        // Act
+        userAvailability.add("new", "New", "new@example.com", "050-2");
+        // Assert
+        assertTrue(userAvailability.isAvailable(UserAvailability.Field.USERNAME, "new"));
+        verify(executeQuery, times(1)).queryDB(anyInt(), eq(UserAvailability.Field.USERNAME.sqlExists()), eq("new"));
+    }
+}
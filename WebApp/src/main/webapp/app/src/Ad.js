@@ -43,10 +43,12 @@ const Ad = ({ ad, handleDelete, handleFavorite, user }) => {
         <strong>Posted (US date format):</strong> {new Date(ad.created_at).toLocaleString('en-US', { year: 'numeric', month: 'numeric', day: 'numeric', hour: 'numeric', minute: 'numeric' })}
       </div>
       {handleDelete && (
-        <button onClick={() => handleDelete(ad.ad_id, ad.image_path)}>Remove</button>
+        <button onClick={() => handleDelete(ad.ad_id)}>Remove</button>
       )}
       {handleFavorite && user && (
-        <button onClick={() => handleFavorite(ad.ad_id)}>Favorite</button>
+        <button onClick={() => handleFavorite(ad.ad_id)} disabled={ad.is_favorite}>
+          {ad.is_favorite ? 'In favorites' : 'Favorite'}
+        </button>
       )}
     </div>
   );
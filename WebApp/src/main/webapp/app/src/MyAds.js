@@ -47,11 +47,10 @@ function MyAds({ user }) {
   /**
    * Handles deleting an ad from the server.
    * @param {number} ad_id - The ID of the ad to delete.
-   * @param {string} image_path - The path of the image associated with the ad.
    */
-  const handleDelete = async (ad_id, image_path) => {
+  const handleDelete = async (ad_id) => {
     try {
-      const response = await fetch(`${BASE_URL}/delete_ad?ad_id=${encodeURIComponent(ad_id)}&image_path=${encodeURIComponent(image_path)}`, {
+      const response = await fetch(`${BASE_URL}/delete_ad?ad_id=${encodeURIComponent(ad_id)}`, {
         method: 'DELETE',
         headers: {
           'Content-Type': 'application/json',
@@ -21,7 +21,8 @@ function SeekingHome({ user, isAuthenticated }) {
    * @returns {Object} The fetched ads and total ads count.
    */
   const fetchAds = useCallback(async (pageNum, adsPerPage) => {
-    const response = await fetch(`${BASE_URL}/get_all_ads?pageNum=${pageNum}&adsPerPage=${adsPerPage}&category=${category}`, {
+    const userParam = isAuthenticated && user ? `&user_id=${user.id}` : '';
+    const response = await fetch(`${BASE_URL}/get_all_ads?pageNum=${pageNum}&adsPerPage=${adsPerPage}&category=${category}${userParam}`, {
       method: 'GET',
       headers: {
         'Content-Type': 'application/json',
@@ -30,7 +31,7 @@ function SeekingHome({ user, isAuthenticated }) {
     if (!response.ok) throw new Error('Failed to fetch ads');
     const data = await response.json();
     return { data: data.ads, totalAds: data.totalAds };
-  }, [category]);
+  }, [category, isAuthenticated, user]);
 
   const {
     data: ads,
@@ -84,6 +85,7 @@ function SeekingHome({ user, isAuthenticated }) {
         throw new Error('Failed to favorite ad');
       }
 
+      setAds((prevAds) => prevAds.map((ad) => (ad.ad_id === adId ? { ...ad, is_favorite: true } : ad)));
       alert('Ad was added to your favorites');
     } catch (error) {
       console.error('Failed to add this ad to favorites:', error);